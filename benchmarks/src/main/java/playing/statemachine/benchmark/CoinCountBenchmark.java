@@ -0,0 +1,256 @@
+package playing.statemachine.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import playing.statemachine.MachineCursor;
+import playing.util.Tuple;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CoinCountBenchmark {
+    private static final int BATCH_SIZE = 64;
+
+    enum CoinState {INITIAL, COUNT, FINAL}
+
+    enum Toss {HEADS, TAILS, MIRACLE}
+
+    static abstract class CoinToss {
+        abstract boolean isHeads();
+
+        abstract boolean isTails();
+    }
+
+    static class HeadsToss extends CoinToss {
+        boolean isHeads() {
+            return true;
+        }
+
+        boolean isTails() {
+            return false;
+        }
+    }
+
+    static class TailsToss extends CoinToss {
+        boolean isHeads() {
+            return false;
+        }
+
+        boolean isTails() {
+            return true;
+        }
+    }
+
+    static class MiracleToss extends CoinToss {
+        boolean isHeads() {
+            return false;
+        }
+
+        boolean isTails() {
+            return false;
+        }
+    }
+
+    static class Counts {
+        final int heads;
+        final int tails;
+
+        Counts(int heads, int tails) {
+            this.heads = heads;
+            this.tails = tails;
+        }
+
+        Counts incHeads() {
+            return new Counts(heads + 1, tails);
+        }
+
+        Counts incTails() {
+            return new Counts(heads, tails + 1);
+        }
+
+        Counts toss(CoinToss toss) {
+            return toss.isHeads() ? incHeads() : toss.isTails() ? incTails() : this;
+        }
+    }
+
+    @Param({"build", "compile"})
+    public String mode;
+
+    private playing.statemachine.nativestateless.StateMachine<CoinState, Toss> nativeStateless;
+    private playing.statemachine.nativestateful.StateMachine<CoinState, Toss, Counts> nativeStateful;
+    private playing.statemachine.classstateless.StateMachine<CoinState> classStateless;
+    private playing.statemachine.classstateful.StateMachine<CoinState, Counts> classStateful;
+    private playing.statemachine.classstateful.StateMachine<CoinState, Counts> classStatefulCondition;
+
+    private MachineCursor<CoinState, Void> nativeStatelessCursor;
+    private MachineCursor<CoinState, Counts> nativeStatefulCursor;
+    private MachineCursor<CoinState, Void> classStatelessCursor;
+    private MachineCursor<CoinState, Counts> classStatefulCursor;
+    private MachineCursor<CoinState, Counts> classStatefulConditionCursor;
+
+    private Toss[] nativeEvents;
+    private Object[] classEvents;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final boolean compile = mode.equals("compile");
+
+        final playing.statemachine.nativestateless.StateMachine.Builder<CoinState, Toss> nativeStatelessBuilder = new playing.statemachine.nativestateless.StateMachine.Builder<CoinState, Toss>()
+                .initialState(CoinState.INITIAL)
+                .onState(CoinState.INITIAL, s -> s
+                        .onEvent(Toss.MIRACLE).changeTo(CoinState.COUNT).noAction())
+                .onState(CoinState.COUNT, s -> s
+                        .onEvent(Toss.HEADS).noAction()
+                        .onEvent(Toss.TAILS).noAction()
+                        .onEvent(Toss.MIRACLE).changeTo(CoinState.FINAL).noAction());
+        nativeStateless = compile ? nativeStatelessBuilder.compile() : nativeStatelessBuilder.build();
+
+        final playing.statemachine.nativestateful.StateMachine.Builder<CoinState, Toss, Counts> nativeStatefulBuilder = new playing.statemachine.nativestateful.StateMachine.Builder<CoinState, Toss, Counts>()
+                .initialState(CoinState.INITIAL)
+                .onState(CoinState.INITIAL, s -> s
+                        .onEvent(Toss.MIRACLE).changeTo(CoinState.COUNT).noAction())
+                .onState(CoinState.COUNT, s -> s
+                        .onEvent(Toss.HEADS).action(Counts::incHeads)
+                        .onEvent(Toss.TAILS).action(Counts::incTails)
+                        .onEvent(Toss.MIRACLE).changeTo(CoinState.FINAL).noAction());
+        nativeStateful = compile ? nativeStatefulBuilder.compile() : nativeStatefulBuilder.build();
+
+        final playing.statemachine.classstateless.StateMachine.Builder<CoinState> classStatelessBuilder = new playing.statemachine.classstateless.StateMachine.Builder<CoinState>()
+                .initialState(CoinState.INITIAL)
+                .onState(CoinState.INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(CoinState.COUNT).noAction())
+                .onState(CoinState.COUNT, s -> s
+                        .onEvent(HeadsToss.class).noAction()
+                        .onEvent(TailsToss.class).noAction()
+                        .onEvent(MiracleToss.class).changeTo(CoinState.FINAL).noAction());
+        classStateless = compile ? classStatelessBuilder.compile() : classStatelessBuilder.build();
+
+        final playing.statemachine.classstateful.StateMachine.Builder<CoinState, Counts> classStatefulBuilder = new playing.statemachine.classstateful.StateMachine.Builder<CoinState, Counts>()
+                .initialState(CoinState.INITIAL)
+                .onState(CoinState.INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(CoinState.COUNT).noAction())
+                .onState(CoinState.COUNT, s -> s
+                        .onEvent(HeadsToss.class).action((counts, toss) -> counts.incHeads())
+                        .onEvent(TailsToss.class).action((counts, toss) -> counts.incTails())
+                        .onEvent(MiracleToss.class).changeTo(CoinState.FINAL).noAction());
+        classStateful = compile ? classStatefulBuilder.compile() : classStatefulBuilder.build();
+
+        final playing.statemachine.classstateful.StateMachine.Builder<CoinState, Counts> classStatefulConditionBuilder = new playing.statemachine.classstateful.StateMachine.Builder<CoinState, Counts>()
+                .initialState(CoinState.INITIAL)
+                .onState(CoinState.INITIAL, s -> s
+                        .onEvent(CoinToss.class).condition((counts, toss) -> !toss.isHeads() && !toss.isTails()).changeTo(CoinState.COUNT).action(Counts::toss))
+                .onState(CoinState.COUNT, s -> s
+                        .onEvent(CoinToss.class).condition((counts, toss) -> toss.isHeads()).action(Counts::toss)
+                        .onEvent(CoinToss.class).condition((counts, toss) -> toss.isTails()).action(Counts::toss)
+                        .onEvent(CoinToss.class).condition((counts, toss) -> !toss.isHeads() && !toss.isTails()).changeTo(CoinState.FINAL).action(Counts::toss));
+        classStatefulCondition = compile ? classStatefulConditionBuilder.compile() : classStatefulConditionBuilder.build();
+
+        nativeStatelessCursor = nativeStateless.cursor();
+        nativeStatefulCursor = nativeStateful.cursor(new Counts(0, 0));
+        classStatelessCursor = classStateless.cursor();
+        classStatefulCursor = classStateful.cursor(new Counts(0, 0));
+        classStatefulConditionCursor = classStatefulCondition.cursor(new Counts(0, 0));
+
+        final Random random = new Random(42);
+        nativeEvents = new Toss[BATCH_SIZE];
+        classEvents = new Object[BATCH_SIZE];
+        for (int lp = 0; lp < BATCH_SIZE; lp += 1) {
+            final boolean miracle = lp == 0 || lp == BATCH_SIZE - 1;
+            final boolean heads = random.nextBoolean();
+
+            nativeEvents[lp] = miracle ? Toss.MIRACLE : heads ? Toss.HEADS : Toss.TAILS;
+            classEvents[lp] = miracle ? new MiracleToss() : heads ? new HeadsToss() : new TailsToss();
+        }
+    }
+
+    private int nextEvent() {
+        next = (next + 1) & (BATCH_SIZE - 1);
+        if (next == 0) {
+            nativeStatelessCursor.moveTo(CoinState.INITIAL);
+            nativeStatefulCursor.moveTo(CoinState.INITIAL);
+            classStatelessCursor.moveTo(CoinState.INITIAL);
+            classStatefulCursor.moveTo(CoinState.INITIAL);
+            classStatefulConditionCursor.moveTo(CoinState.INITIAL);
+        }
+        return next;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean nativeStatelessSingleEvent() {
+        return nativeStateless.fire(nativeStatelessCursor, nativeEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean nativeStatefulSingleEvent() {
+        return nativeStateful.fire(nativeStatefulCursor, nativeEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean classStatelessSingleEvent() {
+        return classStateless.fire(classStatelessCursor, classEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean classStatefulSingleEvent() {
+        return classStateful.fire(classStatefulCursor, classEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean classStatefulConditionSingleEvent() {
+        return classStatefulCondition.fire(classStatefulConditionCursor, classEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public CoinState nativeStatelessBatch() {
+        return nativeStateless.process(nativeStateless.start(), nativeEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Tuple<CoinState, Counts> nativeStatefulBatch() {
+        return nativeStateful.process(nativeStateful.start(new Counts(0, 0)), nativeEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public CoinState classStatelessBatch() {
+        return classStateless.process(classStateless.start(), classEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Tuple<CoinState, Counts> classStatefulBatch() {
+        return classStateful.process(classStateful.start(new Counts(0, 0)), classEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Tuple<CoinState, Counts> classStatefulConditionBatch() {
+        return classStatefulCondition.process(classStatefulCondition.start(new Counts(0, 0)), classEvents);
+    }
+}
@@ -0,0 +1,220 @@
+package playing.statemachine.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import playing.statemachine.MachineCursor;
+import playing.util.Tuple;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic machines where every state reacts to each of {@link #EVENTS_PER_STATE} events and moves to a pseudo-random
+ * state, giving <code>transitions / EVENTS_PER_STATE</code> states.  The event sequence only contains events that have
+ * a transition so every fired event exercises exit, action and entry.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SyntheticMachineBenchmark {
+    private static final int EVENTS_PER_STATE = 10;
+    private static final int BATCH_SIZE = 1024;
+
+    static class E0 {
+    }
+
+    static class E1 {
+    }
+
+    static class E2 {
+    }
+
+    static class E3 {
+    }
+
+    static class E4 {
+    }
+
+    static class E5 {
+    }
+
+    static class E6 {
+    }
+
+    static class E7 {
+    }
+
+    static class E8 {
+    }
+
+    static class E9 {
+    }
+
+    private static final Class<?>[] EVENT_CLASSES = {E0.class, E1.class, E2.class, E3.class, E4.class, E5.class, E6.class, E7.class, E8.class, E9.class};
+
+    @SuppressWarnings("unchecked")
+    private static Class<Object> eventClass(int event) {
+        return (Class<Object>) EVENT_CLASSES[event];
+    }
+
+    static class Counter {
+        long value;
+
+        Counter increment() {
+            value += 1;
+            return this;
+        }
+    }
+
+    @Param({"10", "100", "1000", "10000"})
+    public int transitions;
+
+    @Param({"build", "compile"})
+    public String mode;
+
+    private playing.statemachine.nativestateless.StateMachine<Integer, Integer> nativeStateless;
+    private playing.statemachine.nativestateful.StateMachine<Integer, Integer, Counter> nativeStateful;
+    private playing.statemachine.classstateless.StateMachine<Integer> classStateless;
+    private playing.statemachine.classstateful.StateMachine<Integer, Counter> classStateful;
+
+    private MachineCursor<Integer, Void> nativeStatelessCursor;
+    private MachineCursor<Integer, Counter> nativeStatefulCursor;
+    private MachineCursor<Integer, Void> classStatelessCursor;
+    private MachineCursor<Integer, Counter> classStatefulCursor;
+
+    private Integer[] nativeEvents;
+    private Object[] classEvents;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        final boolean compile = mode.equals("compile");
+        final int states = Math.max(1, transitions / EVENTS_PER_STATE);
+        final Random random = new Random(42);
+
+        final int[][] targets = new int[states][EVENTS_PER_STATE];
+        for (int state = 0; state < states; state += 1) {
+            for (int event = 0; event < EVENTS_PER_STATE; event += 1) {
+                targets[state][event] = random.nextInt(states);
+            }
+        }
+
+        final playing.statemachine.nativestateless.StateMachine.Builder<Integer, Integer> nativeStatelessBuilder = new playing.statemachine.nativestateless.StateMachine.Builder<Integer, Integer>().initialState(0);
+        final playing.statemachine.nativestateful.StateMachine.Builder<Integer, Integer, Counter> nativeStatefulBuilder = new playing.statemachine.nativestateful.StateMachine.Builder<Integer, Integer, Counter>().initialState(0);
+        final playing.statemachine.classstateless.StateMachine.Builder<Integer> classStatelessBuilder = new playing.statemachine.classstateless.StateMachine.Builder<Integer>().initialState(0);
+        final playing.statemachine.classstateful.StateMachine.Builder<Integer, Counter> classStatefulBuilder = new playing.statemachine.classstateful.StateMachine.Builder<Integer, Counter>().initialState(0);
+
+        for (int state = 0; state < states; state += 1) {
+            final int[] stateTargets = targets[state];
+
+            nativeStatelessBuilder.onState(state, s -> {
+                for (int event = 0; event < EVENTS_PER_STATE; event += 1) {
+                    s.onEvent(event).changeTo(stateTargets[event]).noAction();
+                }
+                return s;
+            });
+            nativeStatefulBuilder.onState(state, s -> {
+                for (int event = 0; event < EVENTS_PER_STATE; event += 1) {
+                    s.onEvent(event).changeTo(stateTargets[event]).action(Counter::increment);
+                }
+                return s;
+            });
+            classStatelessBuilder.onState(state, s -> {
+                for (int event = 0; event < EVENTS_PER_STATE; event += 1) {
+                    s.onEvent(eventClass(event)).changeTo(stateTargets[event]).noAction();
+                }
+                return s;
+            });
+            classStatefulBuilder.onState(state, s -> {
+                for (int event = 0; event < EVENTS_PER_STATE; event += 1) {
+                    s.onEvent(eventClass(event)).changeTo(stateTargets[event]).action((counter, e) -> counter.increment());
+                }
+                return s;
+            });
+        }
+
+        nativeStateless = compile ? nativeStatelessBuilder.compile() : nativeStatelessBuilder.build();
+        nativeStateful = compile ? nativeStatefulBuilder.compile() : nativeStatefulBuilder.build();
+        classStateless = compile ? classStatelessBuilder.compile() : classStatelessBuilder.build();
+        classStateful = compile ? classStatefulBuilder.compile() : classStatefulBuilder.build();
+
+        nativeStatelessCursor = nativeStateless.cursor();
+        nativeStatefulCursor = nativeStateful.cursor(new Counter());
+        classStatelessCursor = classStateless.cursor();
+        classStatefulCursor = classStateful.cursor(new Counter());
+
+        nativeEvents = new Integer[BATCH_SIZE];
+        classEvents = new Object[BATCH_SIZE];
+        for (int lp = 0; lp < BATCH_SIZE; lp += 1) {
+            final int event = random.nextInt(EVENTS_PER_STATE);
+
+            nativeEvents[lp] = event;
+            classEvents[lp] = EVENT_CLASSES[event].getDeclaredConstructor().newInstance();
+        }
+    }
+
+    private int nextEvent() {
+        next = (next + 1) & (BATCH_SIZE - 1);
+        return next;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean nativeStatelessSingleEvent() {
+        return nativeStateless.fire(nativeStatelessCursor, nativeEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean nativeStatefulSingleEvent() {
+        return nativeStateful.fire(nativeStatefulCursor, nativeEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean classStatelessSingleEvent() {
+        return classStateless.fire(classStatelessCursor, classEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean classStatefulSingleEvent() {
+        return classStateful.fire(classStatefulCursor, classEvents[nextEvent()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Integer nativeStatelessBatch() {
+        return nativeStateless.process(nativeStateless.start(), nativeEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Tuple<Integer, Counter> nativeStatefulBatch() {
+        return nativeStateful.process(nativeStateful.start(new Counter()), nativeEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Integer classStatelessBatch() {
+        return classStateless.process(classStateless.start(), classEvents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Tuple<Integer, Counter> classStatefulBatch() {
+        return classStateful.process(classStateful.start(new Counter()), classEvents);
+    }
+}
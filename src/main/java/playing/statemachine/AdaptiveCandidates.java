@@ -0,0 +1,102 @@
+package playing.statemachine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The candidate transitions of a <code>(state, event)</code> pair whose guards have been declared mutually exclusive,
+ * kept in the order in which their guards should be evaluated.  Since at most one guard holds, any order picks the
+ * same transition, so the order follows sampled hit rates: the most frequently taken candidates are checked first.
+ * <p>
+ * Callers evaluate the guards of {@link Ordering#candidates} in turn and report the position of the one that held
+ * through {@link #hit}.  Each hit is sampled with a probability of one in {@link #SAMPLE_INTERVAL}, drawn from the
+ * calling thread's own random generator, so an unsampled hit touches no shared counter.  Every
+ * {@link #REORDER_INTERVAL} samples the thread that took the last sample computes a new ordering and publishes it
+ * through a volatile field; sample counts are then halved so that the ordering follows changes in traffic.  A reorder
+ * that finds another still running is skipped.  No lock is taken.
+ * <p>
+ * Each hit adds the difference between its declared and its evaluated position to <code>guardsSaved</code>, so a
+ * candidate that an ordering has moved later subtracts.  The net can only be negative while traffic shifts away from
+ * the sampled ordering; machines report it clamped at zero.
+ */
+public class AdaptiveCandidates<T> {
+    public static final int SAMPLE_INTERVAL = 16;
+    public static final int REORDER_INTERVAL = 256;
+
+    private final T[] declared;
+    private final AtomicLongArray samples;
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicBoolean reordering = new AtomicBoolean();
+    private final LongAdder guardsSaved;
+    private volatile Ordering<T> ordering;
+
+    /**
+     * @param guardsSaved accumulates the guard evaluations saved against declaration order, usually shared by every
+     *                    pair of a machine
+     */
+    public AdaptiveCandidates(T[] declared, LongAdder guardsSaved) {
+        final int[] declaredIndexes = new int[declared.length];
+        for (int lp = 0; lp < declared.length; lp += 1) {
+            declaredIndexes[lp] = lp;
+        }
+
+        this.declared = declared;
+        this.samples = new AtomicLongArray(declared.length);
+        this.guardsSaved = guardsSaved;
+        this.ordering = new Ordering<>(declared.clone(), declaredIndexes);
+    }
+
+    public Ordering<T> ordering() {
+        return ordering;
+    }
+
+    public void hit(Ordering<T> ordering, int position) {
+        final int declaredIndex = ordering.declaredIndexes[position];
+
+        if (declaredIndex != position) {
+            guardsSaved.add(declaredIndex - position);
+        }
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0) {
+            samples.incrementAndGet(declaredIndex);
+            if (sampleCount.incrementAndGet() % REORDER_INTERVAL == 0 && reordering.compareAndSet(false, true)) {
+                try {
+                    reorder();
+                } finally {
+                    reordering.set(false);
+                }
+            }
+        }
+    }
+
+    private void reorder() {
+        final Integer[] byHits = new Integer[declared.length];
+        for (int lp = 0; lp < declared.length; lp += 1) {
+            byHits[lp] = lp;
+        }
+        Arrays.sort(byHits, Comparator.comparingLong((Integer index) -> samples.get(index)).reversed());
+
+        final T[] candidates = declared.clone();
+        final int[] declaredIndexes = new int[declared.length];
+        for (int lp = 0; lp < declared.length; lp += 1) {
+            candidates[lp] = declared[byHits[lp]];
+            declaredIndexes[lp] = byHits[lp];
+            samples.set(byHits[lp], samples.get(byHits[lp]) / 2);
+        }
+        ordering = new Ordering<>(candidates, declaredIndexes);
+    }
+
+    public static class Ordering<T> {
+        public final T[] candidates;
+        private final int[] declaredIndexes;
+
+        private Ordering(T[] candidates, int[] declaredIndexes) {
+            this.candidates = candidates;
+            this.declaredIndexes = declaredIndexes;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package playing.statemachine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BulkProcessor {
+    private static final int MINIMUM_SPLIT_SIZE = 64;
+    private static final int SPLITS_PER_WORKER = 4;
+
+    public interface InstanceProcessor<T> {
+        T process(int index, T instance);
+    }
+
+    public static <T> List<T> processAll(ForkJoinPool pool, List<T> instances, InstanceProcessor<T> processor) {
+        final Object[] results = instances.toArray();
+        final int splitSize = Math.max(MINIMUM_SPLIT_SIZE, results.length / (pool.getParallelism() * SPLITS_PER_WORKER));
+
+        pool.invoke(new ProcessRange<>(results, processor, 0, results.length, splitSize));
+
+        return (List<T>) Arrays.asList(results);
+    }
+
+    private static class ProcessRange<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] instances;
+        private final InstanceProcessor<T> processor;
+        private final int from;
+        private final int to;
+        private final int splitSize;
+
+        private ProcessRange(Object[] instances, InstanceProcessor<T> processor, int from, int to, int splitSize) {
+            this.instances = instances;
+            this.processor = processor;
+            this.from = from;
+            this.to = to;
+            this.splitSize = splitSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= splitSize) {
+                for (int index = from; index < to; index += 1) {
+                    instances[index] = processor.process(index, (T) instances[index]);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+
+                invokeAll(
+                        new ProcessRange<>(instances, processor, from, middle, splitSize),
+                        new ProcessRange<>(instances, processor, middle, to, splitSize));
+            }
+        }
+    }
+}
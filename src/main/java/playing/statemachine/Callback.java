@@ -0,0 +1,79 @@
+package playing.statemachine;
+
+import playing.util.VoidConsumer;
+
+import java.util.function.*;
+
+public class Callback {
+    private static final Callback NONE = new Callback(Shape.NONE, null);
+
+    final Shape shape;
+    final Object target;
+
+    private Callback(Shape shape, Object target) {
+        this.shape = shape;
+        this.target = target;
+    }
+
+    public static Callback none() {
+        return NONE;
+    }
+
+    public static Callback voidConsumer(VoidConsumer target) {
+        return target == null ? NONE : new Callback(Shape.VOID_CONSUMER, target);
+    }
+
+    public static Callback consumer(Consumer<?> target) {
+        return target == null ? NONE : new Callback(Shape.CONSUMER, target);
+    }
+
+    public static Callback predicate(Predicate<?> target) {
+        return target == null ? NONE : new Callback(Shape.PREDICATE, target);
+    }
+
+    public static Callback biPredicate(BiPredicate<?, ?> target) {
+        return target == null ? NONE : new Callback(Shape.BI_PREDICATE, target);
+    }
+
+    public static Callback function(Function<?, ?> target) {
+        return target == null ? NONE : new Callback(Shape.FUNCTION, target);
+    }
+
+    public static Callback biFunction(BiFunction<?, ?, ?> target) {
+        return target == null ? NONE : new Callback(Shape.BI_FUNCTION, target);
+    }
+
+    boolean test(Object runtimeState, Object event) {
+        switch (shape) {
+            case NONE:
+                return true;
+            case PREDICATE:
+                return ((Predicate<Object>) target).test(event);
+            case BI_PREDICATE:
+                return ((BiPredicate<Object, Object>) target).test(runtimeState, event);
+            default:
+                throw new IllegalStateException("Callback " + shape + " is not a guard");
+        }
+    }
+
+    Object apply(Object runtimeState, Object event) {
+        switch (shape) {
+            case NONE:
+                return runtimeState;
+            case VOID_CONSUMER:
+                ((VoidConsumer) target).accept();
+                return runtimeState;
+            case CONSUMER:
+                ((Consumer<Object>) target).accept(event);
+                return runtimeState;
+            case FUNCTION:
+                return ((Function<Object, Object>) target).apply(runtimeState);
+            case BI_FUNCTION:
+                return ((BiFunction<Object, Object, Object>) target).apply(runtimeState, event);
+            default:
+                throw new IllegalStateException("Callback " + shape + " is not an action");
+        }
+    }
+
+    enum Shape {NONE, VOID_CONSUMER, CONSUMER, PREDICATE, BI_PREDICATE, FUNCTION, BI_FUNCTION}
+}
@@ -0,0 +1,139 @@
+package playing.statemachine;
+
+import playing.util.DenseIds;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Latency histograms for the user callbacks of a single machine: guards and actions keyed by transition id, exit
+ * actions keyed by the state being left and entry actions keyed by the state being entered.  A histogram is only
+ * allocated once its callback has been timed, after which recording never allocates.
+ */
+public class CallbackLatencies {
+    private final String[] transitionLabels;
+    private final int[] fromStateIds;
+    private final int[] toStateIds;
+    private final DenseIds<Object> states;
+    private final AtomicReferenceArray<LatencyHistogram> guards;
+    private final AtomicReferenceArray<LatencyHistogram> actions;
+    private final AtomicReferenceArray<LatencyHistogram> exits;
+    private final AtomicReferenceArray<LatencyHistogram> entries;
+
+    private CallbackLatencies(List<? extends StateMachineTransition<?, ?>> transitions) {
+        final List<Object> stateValues = new ArrayList<>();
+        for (StateMachineTransition<?, ?> transition : transitions) {
+            stateValues.add(transition.fromState());
+            stateValues.add(transition.toState());
+        }
+
+        this.states = DenseIds.of(stateValues);
+        this.transitionLabels = new String[transitions.size()];
+        this.fromStateIds = new int[transitions.size()];
+        this.toStateIds = new int[transitions.size()];
+        this.guards = new AtomicReferenceArray<>(transitions.size());
+        this.actions = new AtomicReferenceArray<>(transitions.size());
+        this.exits = new AtomicReferenceArray<>(states.size());
+        this.entries = new AtomicReferenceArray<>(states.size());
+
+        for (int lp = 0; lp < transitions.size(); lp += 1) {
+            final StateMachineTransition<?, ?> transition = transitions.get(lp);
+
+            transitionLabels[lp] = "#" + lp + " " + transition.fromState() + " --" + transition.event() + "--> " + transition.toState();
+            fromStateIds[lp] = states.id(transition.fromState());
+            toStateIds[lp] = states.id(transition.toState());
+        }
+    }
+
+    public static CallbackLatencies of(List<? extends StateMachineTransition<?, ?>> transitions) {
+        return new CallbackLatencies(transitions);
+    }
+
+    public LatencyHistogram.Snapshot guard(int transition) {
+        return snapshot(guards, transition);
+    }
+
+    public LatencyHistogram.Snapshot action(int transition) {
+        return snapshot(actions, transition);
+    }
+
+    public LatencyHistogram.Snapshot exit(Object state) {
+        return snapshot(exits, states.id(state));
+    }
+
+    public LatencyHistogram.Snapshot entry(Object state) {
+        return snapshot(entries, states.id(state));
+    }
+
+    /**
+     * Snapshots every timed callback, labelled <code>"guard #id FROM --EVENT--&gt; TO"</code>,
+     * <code>"action #id ..."</code>, <code>"exit STATE"</code> or <code>"entry STATE"</code>.
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshot() {
+        return snapshots(LatencyHistogram::snapshot);
+    }
+
+    /**
+     * As {@link #snapshot()} but also clears every histogram so that the next snapshot only covers the following
+     * interval.
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshotAndReset() {
+        return snapshots(LatencyHistogram::snapshotAndReset);
+    }
+
+    void guardTimed(int transition, long nanos) {
+        histogram(guards, transition).record(nanos);
+    }
+
+    void actionTimed(int transition, long nanos) {
+        histogram(actions, transition).record(nanos);
+    }
+
+    void exitTimed(int transition, long nanos) {
+        histogram(exits, fromStateIds[transition]).record(nanos);
+    }
+
+    void entryTimed(int transition, long nanos) {
+        histogram(entries, toStateIds[transition]).record(nanos);
+    }
+
+    private Map<String, LatencyHistogram.Snapshot> snapshots(Function<LatencyHistogram, LatencyHistogram.Snapshot> take) {
+        final Map<String, LatencyHistogram.Snapshot> result = new LinkedHashMap<>();
+
+        for (int lp = 0; lp < transitionLabels.length; lp += 1) {
+            put(result, "guard " + transitionLabels[lp], guards.get(lp), take);
+            put(result, "action " + transitionLabels[lp], actions.get(lp), take);
+        }
+        for (int lp = 0; lp < states.size(); lp += 1) {
+            put(result, "exit " + states.value(lp), exits.get(lp), take);
+            put(result, "entry " + states.value(lp), entries.get(lp), take);
+        }
+        return result;
+    }
+
+    private static void put(Map<String, LatencyHistogram.Snapshot> result, String label, LatencyHistogram histogram, Function<LatencyHistogram, LatencyHistogram.Snapshot> take) {
+        if (histogram != null) {
+            result.put(label, take.apply(histogram));
+        }
+    }
+
+    private static LatencyHistogram.Snapshot snapshot(AtomicReferenceArray<LatencyHistogram> histograms, int index) {
+        final LatencyHistogram histogram = index < 0 ? null : histograms.get(index);
+
+        return (histogram == null ? new LatencyHistogram() : histogram).snapshot();
+    }
+
+    private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> histograms, int index) {
+        final LatencyHistogram histogram = histograms.get(index);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        histograms.compareAndSet(index, null, new LatencyHistogram());
+        return histograms.get(index);
+    }
+}
@@ -0,0 +1,15 @@
+package playing.statemachine;
+
+/**
+ * A dispatcher generated for a single machine.  Besides the callbacks of each transition it holds the machine's state
+ * and event dispatch, so that finding the candidate transitions and evaluating their guards happen at call sites that
+ * belong to the machine rather than in the shared engine.
+ */
+public interface CompiledDispatcher extends Dispatcher {
+    /**
+     * The id of the first candidate transition from the state with id <code>stateId</code> for the event with id
+     * <code>eventId</code> whose guard passes, or <code>-1</code> when there is none.  Ids are those of the
+     * {@link DispatchTable} the dispatcher was compiled from.
+     */
+    int find(int stateId, int eventId, Object runtimeState, Object event);
+}
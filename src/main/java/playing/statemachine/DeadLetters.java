@@ -0,0 +1,121 @@
+package playing.statemachine;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed capacity ring of the most recent unmatched events, registered on a machine's builder as a
+ * {@link TransitionListener}.  One in every <code>sampleEvery</code> unmatched events is recorded with the state it
+ * arrived in and a wall clock timestamp; older records are overwritten once the ring is full.
+ * <p>
+ * Slots are preallocated and guarded by a stamp that is odd while a writer is filling the slot and even once it is
+ * complete, so recording takes no lock and does not allocate.  A writer that finds its slot still being filled by a
+ * writer one lap behind drops its record rather than wait.
+ */
+public class DeadLetters implements TransitionListener {
+    private final Object[] states;
+    private final Object[] events;
+    private final long[] timestamps;
+    private final AtomicLongArray stamps;
+    private final int mask;
+    private final long sampleEvery;
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+
+    public DeadLetters(int capacity) {
+        this(capacity, 1);
+    }
+
+    public DeadLetters(int capacity, int sampleEvery) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Dead letter capacity must be a power of two: " + capacity);
+        }
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleEvery);
+        }
+
+        this.states = new Object[capacity];
+        this.events = new Object[capacity];
+        this.timestamps = new long[capacity];
+        this.stamps = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.sampleEvery = sampleEvery;
+    }
+
+    @Override
+    public void unmatched(Object state, Object event) {
+        if (unmatched.getAndIncrement() % sampleEvery != 0) {
+            return;
+        }
+
+        final long sequence = claimed.getAndIncrement();
+        final int slot = (int) sequence & mask;
+        final long stamp = stamps.get(slot);
+        if ((stamp & 1) != 0 || !stamps.compareAndSet(slot, stamp, 2 * sequence + 1)) {
+            return;
+        }
+
+        states[slot] = state;
+        events[slot] = event;
+        timestamps[slot] = System.currentTimeMillis();
+        stamps.set(slot, 2 * sequence + 2);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long unmatchedCount() {
+        return unmatched.get();
+    }
+
+    public long recordedCount() {
+        return claimed.get();
+    }
+
+    /**
+     * Returns the records still held in the ring, oldest first.  Records overwritten or being written while the
+     * snapshot is taken are left out.
+     */
+    public List<DeadLetter> snapshot() {
+        final long last = claimed.get();
+        final List<DeadLetter> result = new ArrayList<>();
+
+        for (long sequence = Math.max(0, last - capacity()); sequence < last; sequence += 1) {
+            final int slot = (int) sequence & mask;
+            final long expected = 2 * sequence + 2;
+
+            if (stamps.get(slot) == expected) {
+                final Object state = states[slot];
+                final Object event = events[slot];
+                final long timestamp = timestamps[slot];
+
+                VarHandle.acquireFence();
+                if (stamps.get(slot) == expected) {
+                    result.add(new DeadLetter(state, event, timestamp));
+                }
+            }
+        }
+        return result;
+    }
+
+    public static class DeadLetter {
+        public final Object state;
+        public final Object event;
+        public final long timestamp;
+
+        private DeadLetter(Object state, Object event, long timestamp) {
+            this.state = state;
+            this.event = event;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + " " + state + " / " + event;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package playing.statemachine;
+
+import playing.util.LookupTable;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * The candidate transitions of a <code>(state, event)</code> pair that declared a discriminator, indexed by the key
+ * each transition was declared <code>when</code>.  Rather than evaluating every guard in turn, the discriminator is
+ * applied once and its key selects the candidates in a {@link LookupTable}: an array for enum keys and a hash lookup
+ * otherwise.  Transitions without a key apply to every key and keep their place in declaration order, so the result
+ * is the same as testing <code>key.equals(discriminator(input))</code> in front of each keyed transition's guard.
+ */
+public class DiscriminatedCandidates<T> {
+    private final Function<Object, Object> discriminator;
+    private final LookupTable<Object, T[]> byKey;
+    private final T[] unkeyed;
+
+    private DiscriminatedCandidates(Function<Object, Object> discriminator, LookupTable<Object, T[]> byKey, T[] unkeyed) {
+        this.discriminator = discriminator;
+        this.byKey = byKey;
+        this.unkeyed = unkeyed;
+    }
+
+    public static <T> DiscriminatedCandidates<T> of(Function<?, ?> discriminator, List<T> candidates, Function<T, Object> key, IntFunction<T[]> arrayConstructor) {
+        final Map<Object, List<T>> grouped = new LinkedHashMap<>();
+        final List<T> unkeyed = new ArrayList<>();
+        for (T candidate : candidates) {
+            if (key.apply(candidate) != null) {
+                grouped.put(key.apply(candidate), new ArrayList<>());
+            }
+        }
+        for (T candidate : candidates) {
+            final Object candidateKey = key.apply(candidate);
+
+            if (candidateKey == null) {
+                unkeyed.add(candidate);
+                grouped.values().forEach(keyed -> keyed.add(candidate));
+            } else {
+                grouped.get(candidateKey).add(candidate);
+            }
+        }
+
+        final Map<Object, T[]> byKey = new LinkedHashMap<>();
+        grouped.forEach((groupKey, keyed) -> byKey.put(groupKey, keyed.toArray(arrayConstructor.apply(keyed.size()))));
+
+        return new DiscriminatedCandidates<>((Function<Object, Object>) discriminator, LookupTable.of(byKey), unkeyed.toArray(arrayConstructor.apply(unkeyed.size())));
+    }
+
+    public T[] candidates(Object input) {
+        final Object key = discriminator.apply(input);
+        final T[] keyed = key == null ? null : byKey.get(key);
+
+        return keyed == null ? unkeyed : keyed;
+    }
+}
@@ -0,0 +1,37 @@
+package playing.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The optional observers a builder attaches to a machine's callbacks: metrics, latencies and listeners.  An
+ * interpreted dispatcher is wrapped in a decorator for each one present, while a compiled dispatcher calls them from
+ * its generated code.
+ */
+public class DispatchHooks {
+    final MachineMetrics metrics;
+    final CallbackLatencies latencies;
+    final List<? extends StateMachineTransition<?, ?>> transitions;
+    final List<TransitionListener> listeners;
+
+    /**
+     * @param transitions every transition of the machine, indexed by transition id
+     */
+    public DispatchHooks(MachineMetrics metrics, CallbackLatencies latencies, List<? extends StateMachineTransition<?, ?>> transitions, List<TransitionListener> listeners) {
+        this.metrics = metrics;
+        this.latencies = latencies;
+        this.transitions = new ArrayList<>(transitions);
+        this.listeners = new ArrayList<>(listeners);
+    }
+
+    public Dispatcher decorate(Dispatcher dispatcher) {
+        final Dispatcher timed = latencies == null ? dispatcher : Dispatchers.withLatencies(dispatcher, latencies);
+        final Dispatcher counted = metrics == null ? timed : Dispatchers.withMetrics(timed, metrics);
+
+        return Dispatchers.withListeners(counted, transitions, listeners);
+    }
+
+    TransitionListener listener() {
+        return listeners.isEmpty() ? null : listeners.size() == 1 ? listeners.get(0) : Dispatchers.composite(listeners);
+    }
+}
@@ -0,0 +1,159 @@
+package playing.statemachine;
+
+import playing.util.DenseIds;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * The state and event dispatch a {@link CompiledDispatcher} is generated from: dense state ids, dense event ids and,
+ * for each state and event, the ids of the candidate transitions in the order their guards are evaluated.
+ * <p>
+ * Native machines number their event values.  Class machines number their declared event classes, with the candidates
+ * of a class being every transition whose event class is assignable from it.  An event of an undeclared class shares
+ * the id of the declared class it has the same candidates as; when there is no such class {@link #find} returns
+ * {@link #UNRESOLVED} and the machine looks the candidates up itself.
+ */
+public class DispatchTable<STATE> {
+    public static final int NO_TRANSITION = -1;
+    public static final int UNRESOLVED = -2;
+
+    private final DenseIds<STATE> states;
+    private final DenseIds<Object> events;
+    private final ClassValue<Integer> eventClassIds;
+    private final List<SortedMap<Integer, int[]>> candidates;
+
+    private DispatchTable(DenseIds<STATE> states, DenseIds<Object> events, ClassValue<Integer> eventClassIds, List<SortedMap<Integer, int[]>> candidates) {
+        this.states = states;
+        this.events = events;
+        this.eventClassIds = eventClassIds;
+        this.candidates = candidates;
+    }
+
+    public static <STATE, EVENT, T> DispatchTable<STATE> byEvent(DenseIds<STATE> states, DenseIds<EVENT> eventIds, List<T> transitions, ToIntFunction<T> id, Function<T, STATE> fromState, Function<T, EVENT> event) {
+        final DenseIds<Object> events = (DenseIds<Object>) eventIds;
+        final List<Map<Integer, List<Integer>>> grouped = grouped(states);
+        for (T transition : transitions) {
+            add(grouped, states.id(fromState.apply(transition)), events.id(event.apply(transition)), id.applyAsInt(transition));
+        }
+
+        return new DispatchTable<>(states, events, null, sorted(grouped));
+    }
+
+    public static <STATE, T> DispatchTable<STATE> byEventClass(DenseIds<STATE> states, List<T> transitions, ToIntFunction<T> id, Function<T, STATE> fromState, Function<T, Class> eventClass) {
+        final List<Object> eventClasses = new ArrayList<>();
+        for (T transition : transitions) {
+            eventClasses.add(eventClass.apply(transition));
+        }
+
+        final DenseIds<Object> events = DenseIds.of(eventClasses);
+        final List<Map<Integer, List<Integer>>> grouped = grouped(states);
+        for (int lp = 0; lp < events.size(); lp += 1) {
+            final Class declared = (Class) events.value(lp);
+
+            for (T transition : transitions) {
+                if (eventClass.apply(transition).isAssignableFrom(declared)) {
+                    add(grouped, states.id(fromState.apply(transition)), lp, id.applyAsInt(transition));
+                }
+            }
+        }
+
+        return new DispatchTable<>(states, events, new EventClassIds(events), sorted(grouped));
+    }
+
+    public int stateCount() {
+        return states.size();
+    }
+
+    public int stateId(STATE state) {
+        return states.id(state);
+    }
+
+    /**
+     * The id of <code>event</code>, {@link #NO_TRANSITION} when no state reacts to it or {@link #UNRESOLVED} when
+     * the table can not tell.
+     */
+    public int eventId(Object event) {
+        if (eventClassIds == null) {
+            return events.id(event);
+        }
+        return event == null ? NO_TRANSITION : eventClassIds.get(event.getClass());
+    }
+
+    /**
+     * Finds the transition <code>dispatcher</code>, compiled from this table, takes for <code>event</code> in
+     * <code>state</code>: its id, {@link #NO_TRANSITION} or {@link #UNRESOLVED}.
+     */
+    public int find(CompiledDispatcher dispatcher, STATE state, Object runtimeState, Object event) {
+        return find(dispatcher, states.id(state), runtimeState, event);
+    }
+
+    public int find(CompiledDispatcher dispatcher, int stateId, Object runtimeState, Object event) {
+        final int eventId = eventId(event);
+
+        return eventId < 0 ? eventId : dispatcher.find(stateId, eventId, runtimeState, event);
+    }
+
+    /**
+     * The event ids the state with id <code>stateId</code> has candidates for, mapped to those candidates.
+     */
+    SortedMap<Integer, int[]> candidates(int stateId) {
+        return candidates.get(stateId);
+    }
+
+    private static List<Map<Integer, List<Integer>>> grouped(DenseIds<?> states) {
+        final List<Map<Integer, List<Integer>>> grouped = new ArrayList<>();
+        for (int lp = 0; lp < states.size(); lp += 1) {
+            grouped.add(new HashMap<>());
+        }
+        return grouped;
+    }
+
+    private static void add(List<Map<Integer, List<Integer>>> grouped, int stateId, int eventId, int transition) {
+        grouped.get(stateId).computeIfAbsent(eventId, key -> new ArrayList<>()).add(transition);
+    }
+
+    private static List<SortedMap<Integer, int[]>> sorted(List<Map<Integer, List<Integer>>> grouped) {
+        final List<SortedMap<Integer, int[]>> result = new ArrayList<>();
+        for (Map<Integer, List<Integer>> byEvent : grouped) {
+            final SortedMap<Integer, int[]> sorted = new TreeMap<>();
+            byEvent.forEach((eventId, transitions) -> sorted.put(eventId, transitions.stream().mapToInt(Integer::intValue).toArray()));
+            result.add(sorted);
+        }
+        return result;
+    }
+
+    private static class EventClassIds extends ClassValue<Integer> {
+        private final DenseIds<Object> events;
+
+        private EventClassIds(DenseIds<Object> events) {
+            this.events = events;
+        }
+
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            final Set<Object> assignable = assignable(type);
+            if (assignable.isEmpty()) {
+                return NO_TRANSITION;
+            }
+
+            for (int lp = 0; lp < events.size(); lp += 1) {
+                if (assignable.equals(assignable((Class) events.value(lp)))) {
+                    return lp;
+                }
+            }
+            return UNRESOLVED;
+        }
+
+        private Set<Object> assignable(Class<?> type) {
+            final Set<Object> result = new HashSet<>();
+            for (int lp = 0; lp < events.size(); lp += 1) {
+                if (((Class) events.value(lp)).isAssignableFrom(type)) {
+                    result.add(events.value(lp));
+                }
+            }
+            return result;
+        }
+    }
+}
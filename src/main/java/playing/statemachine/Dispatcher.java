@@ -0,0 +1,22 @@
+package playing.statemachine;
+
+public interface Dispatcher {
+    boolean guard(int transition, Object runtimeState, Object event);
+
+    Object exit(int transition, Object runtimeState, Object event);
+
+    Object action(int transition, Object runtimeState, Object event);
+
+    Object entry(int transition, Object runtimeState, Object event);
+
+    /**
+     * Runs the exit, action and entry callbacks of <code>transition</code> in turn and returns the resulting runtime
+     * state.
+     */
+    default Object fire(int transition, Object runtimeState, Object event) {
+        return entry(transition, action(transition, exit(transition, runtimeState, event), event), event);
+    }
+
+    default void unmatched(Object state, Object event) {
+    }
+}
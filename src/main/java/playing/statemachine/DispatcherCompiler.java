@@ -0,0 +1,968 @@
+package playing.statemachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Generates a {@link CompiledDispatcher} class per machine definition.  The state and event dispatch of the machine
+ * becomes a tableswitch over the state id and a lookupswitch over the event id, followed by the guards of the candidate
+ * transitions in order; the callbacks of each transition and the metrics, latency and listener hooks around them are
+ * called from a tableswitch over the transition id.  Every callback therefore gets its own call site in a class of its
+ * own machine, so the JIT sees monomorphic calls that it can inline rather than the call sites in the engines and
+ * decorators that all machines share.
+ * <p>
+ * Ids are split into chunks per generated method, sized so that each method stays well below the JIT's huge method
+ * limit no matter how large the machine is.  The class is defined as a hidden class in this package, so it is unloaded
+ * together with the machine that uses it.
+ */
+class DispatcherCompiler {
+    private static final int MAX_CHUNK_BITS = 7;
+    private static final int MAX_CHUNKS = 2048;
+    private static final int CHUNK_BUDGET = 6000;
+    private static final int MAX_STACK = 8;
+
+    private static final String CLASS_NAME = "playing/statemachine/GeneratedDispatcher";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String THROWABLE = "java/lang/Throwable";
+    private static final String METRICS = "playing/statemachine/MachineMetrics";
+    private static final String LATENCIES = "playing/statemachine/CallbackLatencies";
+    private static final String LISTENER = "playing/statemachine/TransitionListener";
+    private static final String TRANSITION = "playing/statemachine/StateMachineTransition";
+    private static final String GUARD_DESCRIPTOR = "(ILjava/lang/Object;Ljava/lang/Object;)Z";
+    private static final String APPLY_DESCRIPTOR = "(ILjava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String FIND_DESCRIPTOR = "(IILjava/lang/Object;Ljava/lang/Object;)I";
+    private static final String UNMATCHED_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;)V";
+    private static final String NOTIFY_DESCRIPTOR = "(L" + TRANSITION + ";Ljava/lang/Object;Ljava/lang/Object;)V";
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int CLASS_FILE_VERSION = 61;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELD_REF = 9;
+    private static final int CONSTANT_METHOD_REF = 10;
+    private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ITEM_INTEGER = 1;
+    private static final int ITEM_LONG = 4;
+    private static final int ITEM_OBJECT = 7;
+    private static final int FULL_FRAME = 255;
+
+    private static final int ICONST_M1 = 0x02;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int ASTORE = 0x3a;
+    private static final int LSUB = 0x65;
+    private static final int ISHR = 0x7a;
+    private static final int IFEQ = 0x99;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int ATHROW = 0xbf;
+    private static final int CHECKCAST = 0xc0;
+
+    private enum Field {
+        GUARDS("guards", "[Ljava/lang/Object;"),
+        EXITS("exits", "[Ljava/lang/Object;"),
+        ACTIONS("actions", "[Ljava/lang/Object;"),
+        ENTRIES("entries", "[Ljava/lang/Object;"),
+        METRICS_FIELD("metrics", "L" + METRICS + ";"),
+        LATENCIES_FIELD("latencies", "L" + LATENCIES + ";"),
+        LISTENER_FIELD("listener", "L" + LISTENER + ";"),
+        TRANSITIONS("transitions", "[L" + TRANSITION + ";");
+
+        final String fieldName;
+        final String descriptor;
+
+        Field(String fieldName, String descriptor) {
+            this.fieldName = fieldName;
+            this.descriptor = descriptor;
+        }
+
+        String type() {
+            return descriptor.startsWith("L") ? descriptor.substring(1, descriptor.length() - 1) : descriptor;
+        }
+    }
+
+    private enum Kind {
+        GUARD(Field.GUARDS, t -> t.guard, "guardTimed", null, null),
+        EXIT(Field.EXITS, t -> t.exit, "exitTimed", "exited", "beforeExit"),
+        ACTION(Field.ACTIONS, t -> t.action, "actionTimed", "fired", "afterAction"),
+        ENTRY(Field.ENTRIES, t -> t.entry, "entryTimed", "entered", "afterEntry");
+
+        final Field field;
+        final Function<TransitionCallbacks, Callback> callback;
+        final String timed;
+        final String counted;
+        final String notified;
+
+        Kind(Field field, Function<TransitionCallbacks, Callback> callback, String timed, String counted, String notified) {
+            this.field = field;
+            this.callback = callback;
+            this.timed = timed;
+            this.counted = counted;
+            this.notified = notified;
+        }
+    }
+
+    /**
+     * Which parameters of a generated method, after <code>this</code>, are ints.  The last two are the runtime state
+     * and the event.
+     */
+    private enum Layout {
+        TRANSITION(new boolean[]{true, false, false}),
+        FIND(new boolean[]{true, true, false, false}),
+        UNMATCHED(new boolean[]{false, false});
+
+        final boolean[] ints;
+
+        Layout(boolean[] ints) {
+            this.ints = ints;
+        }
+
+        int runtimeState() {
+            return ints.length - 1;
+        }
+
+        int event() {
+            return ints.length;
+        }
+    }
+
+    private interface Case {
+        void emit(Code code, int id);
+    }
+
+    static CompiledDispatcher compile(List<TransitionCallbacks> transitions, DispatchTable<?> table, DispatchHooks hooks) {
+        final byte[] classFile = new DispatcherCompiler(transitions, table, hooks).classFile();
+
+        try {
+            final Class<?> dispatcherClass = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+            final Object[] arguments = new Object[Field.values().length];
+            for (Kind kind : Kind.values()) {
+                arguments[kind.field.ordinal()] = targets(transitions, kind);
+            }
+            arguments[Field.METRICS_FIELD.ordinal()] = hooks.metrics;
+            arguments[Field.LATENCIES_FIELD.ordinal()] = hooks.latencies;
+            arguments[Field.LISTENER_FIELD.ordinal()] = hooks.listener();
+            arguments[Field.TRANSITIONS.ordinal()] = hooks.transitions.toArray(new StateMachineTransition<?, ?>[0]);
+
+            return (CompiledDispatcher) dispatcherClass.getConstructor(Object[].class).newInstance((Object) arguments);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to load the generated dispatcher", e);
+        }
+    }
+
+    private static Object[] targets(List<TransitionCallbacks> transitions, Kind kind) {
+        final Object[] result = new Object[transitions.size()];
+        for (int lp = 0; lp < result.length; lp += 1) {
+            result[lp] = kind.callback.apply(transitions.get(lp)).target;
+        }
+        return result;
+    }
+
+    private final List<TransitionCallbacks> transitions;
+    private final DispatchTable<?> table;
+    private final DispatchHooks hooks;
+    private final TransitionListener listener;
+    private final ConstantPool constants = new ConstantPool();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private DispatcherCompiler(List<TransitionCallbacks> transitions, DispatchTable<?> table, DispatchHooks hooks) {
+        this.transitions = transitions;
+        this.table = table;
+        this.hooks = hooks;
+        this.listener = hooks.listener();
+    }
+
+    private byte[] classFile() {
+        final List<byte[]> fields = new ArrayList<>();
+        for (Field field : Field.values()) {
+            fields.add(member(ACC_PRIVATE | ACC_FINAL, field.fieldName, field.descriptor, null));
+        }
+
+        methods.add(constructor());
+        dispatch("guard", GUARD_DESCRIPTOR, Layout.TRANSITION, transitions.size(), IRETURN, (code, t) -> guard(code, t), code -> code.op(ICONST_0));
+        for (Kind kind : Arrays.asList(Kind.EXIT, Kind.ACTION, Kind.ENTRY)) {
+            dispatch(kind.name().toLowerCase(), APPLY_DESCRIPTOR, Layout.TRANSITION, transitions.size(), ARETURN, (code, t) -> apply(code, kind, t), this::unchanged);
+        }
+        dispatch("fire", APPLY_DESCRIPTOR, Layout.TRANSITION, transitions.size(), ARETURN, this::fire, this::unchanged);
+        dispatch("find", FIND_DESCRIPTOR, Layout.FIND, table.stateCount(), IRETURN, this::find, code -> code.op(ICONST_M1));
+        methods.add(member(ACC_PUBLIC | ACC_FINAL, "unmatched", UNMATCHED_DESCRIPTOR, unmatched()));
+
+        final int thisClass = constants.classRef(CLASS_NAME);
+        final int superClass = constants.classRef(OBJECT);
+        final int dispatcherInterface = constants.classRef(CompiledDispatcher.class.getName().replace('.', '/'));
+
+        final Bytes out = new Bytes();
+        out.u4(MAGIC);
+        out.u2(0);
+        out.u2(CLASS_FILE_VERSION);
+        constants.writeTo(out);
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);
+        out.u2(dispatcherInterface);
+        out.u2(fields.size());
+        fields.forEach(out::bytes);
+        out.u2(methods.size());
+        methods.forEach(out::bytes);
+        out.u2(0);
+        return out.toByteArray();
+    }
+
+    private byte[] member(int access, String name, String descriptor, Code code) {
+        final Bytes out = new Bytes();
+        out.u2(access);
+        out.u2(constants.utf8(name));
+        out.u2(constants.utf8(descriptor));
+        if (code == null) {
+            out.u2(0);
+        } else {
+            final byte[] instructions = code.toByteArray();
+            final byte[] frames = code.stackMapTable();
+
+            out.u2(1);
+            out.u2(constants.utf8("Code"));
+            out.u4(12 + instructions.length + 8 * code.handlers.size() + (frames == null ? 0 : 6 + frames.length));
+            out.u2(MAX_STACK);
+            out.u2(code.maxLocals);
+            out.u4(instructions.length);
+            out.bytes(instructions);
+            out.u2(code.handlers.size());
+            for (Label[] handler : code.handlers) {
+                out.u2(handler[0].offset);
+                out.u2(handler[1].offset);
+                out.u2(handler[2].offset);
+                out.u2(0);
+            }
+            if (frames == null) {
+                out.u2(0);
+            } else {
+                out.u2(1);
+                out.u2(constants.utf8("StackMapTable"));
+                out.u4(frames.length);
+                out.bytes(frames);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] constructor() {
+        final Code code = new Code(new int[]{object(CLASS_NAME), object("[Ljava/lang/Object;")}, 2);
+
+        code.op(ALOAD_0);
+        code.op(INVOKESPECIAL, constants.methodRef(OBJECT, "<init>", "()V"));
+        for (Field field : Field.values()) {
+            code.op(ALOAD_0);
+            code.load(ALOAD, 1);
+            code.pushInt(field.ordinal());
+            code.op(AALOAD);
+            code.op(CHECKCAST, constants.classRef(field.type()));
+            code.op(PUTFIELD, constants.fieldRef(CLASS_NAME, field.fieldName, field.descriptor));
+        }
+        code.op(RETURN);
+        return member(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", code);
+    }
+
+    /**
+     * Adds a public method that switches over the chunk of its first argument and a private method per chunk that
+     * switches over the argument itself, emitting <code>body</code> for every id and <code>unknown</code> for ids out
+     * of range.
+     */
+    private void dispatch(String name, String descriptor, Layout layout, int count, int returnOp, Case body, Consumer<Code> unknown) {
+        final int[] sizes = new int[count];
+        for (int lp = 0; lp < count; lp += 1) {
+            final Code scratch = code(layout);
+
+            body.emit(scratch, lp);
+            sizes[lp] = scratch.toByteArray().length;
+        }
+
+        final int bits = chunkBits(sizes);
+        final int chunks = (count + (1 << bits) - 1) >> bits;
+        final Code code = code(layout);
+        if (chunks == 0) {
+            unknown.accept(code);
+            code.op(returnOp);
+        } else {
+            final Label[] cases = labels(chunks);
+            final Label unknownCase = new Label();
+
+            code.load(ILOAD, 1);
+            code.pushInt(bits);
+            code.op(ISHR);
+            code.tableSwitch(0, cases, unknownCase);
+            for (int chunk = 0; chunk < chunks; chunk += 1) {
+                code.bind(cases[chunk]);
+                code.op(ALOAD_0);
+                for (int lp = 0; lp < layout.ints.length; lp += 1) {
+                    code.load(layout.ints[lp] ? ILOAD : ALOAD, 1 + lp);
+                }
+                code.op(INVOKESPECIAL, constants.methodRef(CLASS_NAME, name + "$" + chunk, descriptor));
+                code.op(returnOp);
+            }
+            code.bind(unknownCase);
+            unknown.accept(code);
+            code.op(returnOp);
+        }
+        methods.add(member(ACC_PUBLIC | ACC_FINAL, name, descriptor, code));
+
+        for (int chunk = 0; chunk < chunks; chunk += 1) {
+            final int low = chunk << bits;
+            final int high = Math.min(count, low + (1 << bits));
+            final Code chunkCode = code(layout);
+            final Label[] cases = labels(high - low);
+            final Label unknownCase = new Label();
+
+            chunkCode.load(ILOAD, 1);
+            chunkCode.tableSwitch(low, cases, unknownCase);
+            for (int lp = low; lp < high; lp += 1) {
+                chunkCode.bind(cases[lp - low]);
+                body.emit(chunkCode, lp);
+            }
+            chunkCode.bind(unknownCase);
+            unknown.accept(chunkCode);
+            chunkCode.op(returnOp);
+            methods.add(member(ACC_PRIVATE | ACC_FINAL, name + "$" + chunk, descriptor, chunkCode));
+        }
+    }
+
+    /**
+     * The most ids per chunk, as a power of two, whose cases together fit the budget of a generated method.
+     */
+    private static int chunkBits(int[] sizes) {
+        int bits = MAX_CHUNK_BITS;
+        while (bits > 0 && !fits(sizes, bits)) {
+            bits -= 1;
+        }
+        while ((sizes.length >> bits) >= MAX_CHUNKS) {
+            bits += 1;
+        }
+        return bits;
+    }
+
+    private static boolean fits(int[] sizes, int bits) {
+        for (int low = 0; low < sizes.length; low += 1 << bits) {
+            int size = 0;
+            for (int lp = low; lp < Math.min(sizes.length, low + (1 << bits)); lp += 1) {
+                size += sizes[lp] + 4;
+            }
+            if (size > CHUNK_BUDGET) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void guard(Code code, int transition) {
+        timed(code, Kind.GUARD, transition, ISTORE, ILOAD, () -> call(code, Kind.GUARD, transition));
+        code.op(IRETURN);
+    }
+
+    private void apply(Code code, Kind kind, int transition) {
+        callbacks(code, kind, transition);
+        code.op(ARETURN);
+    }
+
+    private void fire(Code code, int transition) {
+        callbacks(code, Kind.EXIT, transition);
+        code.load(ASTORE, code.runtimeState);
+        callbacks(code, Kind.ACTION, transition);
+        code.load(ASTORE, code.runtimeState);
+        callbacks(code, Kind.ENTRY, transition);
+        code.op(ARETURN);
+    }
+
+    /**
+     * The candidates of the state with id <code>stateId</code>, by event id, each returning its transition id as soon
+     * as its guard passes.  A candidate without a guard ends the search, unless its guard is timed.
+     */
+    private void find(Code code, int stateId) {
+        final SortedMap<Integer, int[]> candidates = table.candidates(stateId);
+        final Label none = new Label();
+
+        if (!candidates.isEmpty()) {
+            final int[] eventIds = new int[candidates.size()];
+            final Label[] cases = labels(candidates.size());
+
+            int index = 0;
+            for (Integer eventId : candidates.keySet()) {
+                eventIds[index] = eventId;
+                index += 1;
+            }
+
+            code.load(ILOAD, 2);
+            code.lookupSwitch(eventIds, cases, none);
+            for (int lp = 0; lp < eventIds.length; lp += 1) {
+                code.bind(cases[lp]);
+                candidates(code, candidates.get(eventIds[lp]));
+            }
+            code.bind(none);
+        }
+        code.op(ICONST_M1);
+        code.op(IRETURN);
+    }
+
+    private void candidates(Code code, int[] candidates) {
+        for (int transition : candidates) {
+            if (transitions.get(transition).guard.shape == Callback.Shape.NONE && hooks.latencies == null) {
+                code.pushInt(transition);
+                code.op(IRETURN);
+                return;
+            }
+
+            final Label next = new Label();
+            timed(code, Kind.GUARD, transition, ISTORE, ILOAD, () -> call(code, Kind.GUARD, transition));
+            code.jump(IFEQ, next);
+            code.pushInt(transition);
+            code.op(IRETURN);
+            code.bind(next);
+        }
+        code.op(ICONST_M1);
+        code.op(IRETURN);
+    }
+
+    private Code unmatched() {
+        final Code code = code(Layout.UNMATCHED);
+
+        if (hooks.metrics != null) {
+            code.op(ALOAD_0);
+            code.op(GETFIELD, field(Field.METRICS_FIELD));
+            code.load(ALOAD, 1);
+            code.load(ALOAD, 2);
+            code.op(INVOKEVIRTUAL, constants.methodRef(METRICS, "unmatched", UNMATCHED_DESCRIPTOR));
+        }
+        if (listener != null) {
+            code.op(ALOAD_0);
+            code.op(GETFIELD, field(Field.LISTENER_FIELD));
+            code.load(ALOAD, 1);
+            code.load(ALOAD, 2);
+            code.invokeInterface(constants.interfaceMethodRef(LISTENER, "unmatched", UNMATCHED_DESCRIPTOR), 3);
+        }
+        code.op(RETURN);
+        return code;
+    }
+
+    /**
+     * Leaves the result of the <code>kind</code> callback of <code>transition</code> on the stack, surrounded by the
+     * hooks in the order the decorators of an interpreted dispatcher call them.
+     */
+    private void callbacks(Code code, Kind kind, int transition) {
+        if (kind == Kind.EXIT && listener != null) {
+            notify(code, kind, transition, code.runtimeState);
+        }
+        if (hooks.metrics != null) {
+            code.op(ALOAD_0);
+            code.op(GETFIELD, field(Field.METRICS_FIELD));
+            code.pushInt(transition);
+            code.op(INVOKEVIRTUAL, constants.methodRef(METRICS, kind.counted, "(I)V"));
+        }
+        timed(code, kind, transition, ASTORE, ALOAD, () -> call(code, kind, transition));
+        if (kind != Kind.EXIT && listener != null) {
+            code.load(ASTORE, code.result);
+            notify(code, kind, transition, code.result);
+            code.load(ALOAD, code.result);
+        }
+    }
+
+    private void notify(Code code, Kind kind, int transition, int runtimeState) {
+        code.op(ALOAD_0);
+        code.op(GETFIELD, field(Field.LISTENER_FIELD));
+        code.op(ALOAD_0);
+        code.op(GETFIELD, field(Field.TRANSITIONS));
+        code.pushInt(transition);
+        code.op(AALOAD);
+        code.load(ALOAD, runtimeState);
+        code.load(ALOAD, code.event);
+        code.invokeInterface(constants.interfaceMethodRef(LISTENER, kind.notified, NOTIFY_DESCRIPTOR), 4);
+    }
+
+    /**
+     * Emits <code>body</code>, which leaves one value on the stack, timing it when the machine records latencies.  The
+     * time is recorded whether the callback returns or throws.
+     */
+    private void timed(Code code, Kind kind, int transition, int storeOp, int loadOp, Runnable body) {
+        if (hooks.latencies == null) {
+            body.run();
+            return;
+        }
+
+        final Label start = new Label();
+        final Label end = new Label();
+        code.op(INVOKESTATIC, constants.methodRef("java/lang/System", "nanoTime", "()J"));
+        code.load(LSTORE, code.start);
+        code.mark(start);
+        body.run();
+        code.mark(end);
+        code.load(storeOp, code.result);
+        recordLatency(code, kind, transition);
+        code.load(loadOp, code.result);
+
+        code.handler(start, end, () -> {
+            code.load(ASTORE, code.result);
+            recordLatency(code, kind, transition);
+            code.load(ALOAD, code.result);
+            code.op(ATHROW);
+        });
+    }
+
+    private void recordLatency(Code code, Kind kind, int transition) {
+        code.op(ALOAD_0);
+        code.op(GETFIELD, field(Field.LATENCIES_FIELD));
+        code.pushInt(transition);
+        code.op(INVOKESTATIC, constants.methodRef("java/lang/System", "nanoTime", "()J"));
+        code.load(LLOAD, code.start);
+        code.op(LSUB);
+        code.op(INVOKEVIRTUAL, constants.methodRef(LATENCIES, kind.timed, "(IJ)V"));
+    }
+
+    private void call(Code code, Kind kind, int transition) {
+        final Callback callback = kind.callback.apply(transitions.get(transition));
+
+        switch (callback.shape) {
+            case NONE:
+                if (kind == Kind.GUARD) {
+                    code.op(ICONST_1);
+                } else {
+                    code.load(ALOAD, code.runtimeState);
+                }
+                return;
+            case VOID_CONSUMER:
+                loadTarget(code, kind, transition, "playing/util/VoidConsumer");
+                code.invokeInterface(constants.interfaceMethodRef("playing/util/VoidConsumer", "accept", "()V"), 1);
+                code.load(ALOAD, code.runtimeState);
+                return;
+            case CONSUMER:
+                loadTarget(code, kind, transition, "java/util/function/Consumer");
+                code.load(ALOAD, code.event);
+                code.invokeInterface(constants.interfaceMethodRef("java/util/function/Consumer", "accept", "(Ljava/lang/Object;)V"), 2);
+                code.load(ALOAD, code.runtimeState);
+                return;
+            case PREDICATE:
+                loadTarget(code, kind, transition, "java/util/function/Predicate");
+                code.load(ALOAD, code.event);
+                code.invokeInterface(constants.interfaceMethodRef("java/util/function/Predicate", "test", "(Ljava/lang/Object;)Z"), 2);
+                return;
+            case BI_PREDICATE:
+                loadTarget(code, kind, transition, "java/util/function/BiPredicate");
+                code.load(ALOAD, code.runtimeState);
+                code.load(ALOAD, code.event);
+                code.invokeInterface(constants.interfaceMethodRef("java/util/function/BiPredicate", "test", "(Ljava/lang/Object;Ljava/lang/Object;)Z"), 3);
+                return;
+            case FUNCTION:
+                loadTarget(code, kind, transition, "java/util/function/Function");
+                code.load(ALOAD, code.runtimeState);
+                code.invokeInterface(constants.interfaceMethodRef("java/util/function/Function", "apply", "(Ljava/lang/Object;)Ljava/lang/Object;"), 2);
+                return;
+            case BI_FUNCTION:
+                loadTarget(code, kind, transition, "java/util/function/BiFunction");
+                code.load(ALOAD, code.runtimeState);
+                code.load(ALOAD, code.event);
+                code.invokeInterface(constants.interfaceMethodRef("java/util/function/BiFunction", "apply", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;"), 3);
+                return;
+            default:
+                throw new IllegalStateException("Unknown callback shape " + callback.shape);
+        }
+    }
+
+    private void loadTarget(Code code, Kind kind, int transition, String targetClass) {
+        code.op(ALOAD_0);
+        code.op(GETFIELD, field(kind.field));
+        code.pushInt(transition);
+        code.op(AALOAD);
+        code.op(CHECKCAST, constants.classRef(targetClass));
+    }
+
+    private void unchanged(Code code) {
+        code.load(ALOAD, code.runtimeState);
+    }
+
+    private int field(Field field) {
+        return constants.fieldRef(CLASS_NAME, field.fieldName, field.descriptor);
+    }
+
+    private Code code(Layout layout) {
+        final int[] locals = new int[1 + layout.ints.length];
+
+        locals[0] = object(CLASS_NAME);
+        for (int lp = 0; lp < layout.ints.length; lp += 1) {
+            locals[1 + lp] = layout.ints[lp] ? ITEM_INTEGER : object(OBJECT);
+        }
+        return new Code(locals, layout.runtimeState(), layout.event());
+    }
+
+    private int object(String className) {
+        return ITEM_OBJECT << 16 | constants.classRef(className);
+    }
+
+    private static Label[] labels(int count) {
+        final Label[] result = new Label[count];
+        for (int lp = 0; lp < count; lp += 1) {
+            result[lp] = new Label();
+        }
+        return result;
+    }
+
+    private static class Bytes {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void u1(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void u2(int value) {
+            try {
+                out.writeShort(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void u4(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void utf(String value) {
+            try {
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void bytes(byte[] value) {
+            try {
+                out.write(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static class Label {
+        private int offset = -1;
+    }
+
+    /**
+     * The code of one method.  Jumps are resolved once every label is bound, and every label a jump targets gets a
+     * full frame holding the method's parameters and an empty stack.  Exception handlers are emitted after the rest of
+     * the method, with the start time of the timed callback as an extra local and the exception on the stack.
+     */
+    private class Code extends Bytes {
+        final int maxLocals;
+        final int runtimeState;
+        final int event;
+        final int start;
+        final int result;
+        final List<Label[]> handlers = new ArrayList<>();
+        private final int[] locals;
+        private final List<int[]> fixups = new ArrayList<>();
+        private final List<Label> fixupTargets = new ArrayList<>();
+        private final SortedMap<Integer, int[][]> frames = new TreeMap<>();
+        private final List<Runnable> handlerCode = new ArrayList<>();
+        private boolean finished;
+
+        Code(int[] locals, int runtimeState, int event) {
+            this.locals = locals;
+            this.runtimeState = runtimeState;
+            this.event = event;
+            this.start = locals.length;
+            this.result = start + 2;
+            this.maxLocals = result + 1;
+        }
+
+        Code(int[] locals, int maxLocals) {
+            this.locals = locals;
+            this.runtimeState = -1;
+            this.event = -1;
+            this.start = -1;
+            this.result = -1;
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void op(int opcode, int constant) {
+            u1(opcode);
+            u2(constant);
+        }
+
+        void load(int opcode, int slot) {
+            u1(opcode);
+            u1(slot);
+        }
+
+        void invokeInterface(int method, int argumentSlots) {
+            u1(INVOKEINTERFACE);
+            u2(method);
+            u1(argumentSlots);
+            u1(0);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W, constants.integer(value));
+            }
+        }
+
+        void jump(int opcode, Label target) {
+            final int address = size();
+
+            u1(opcode);
+            offset(address, 2, target);
+        }
+
+        void tableSwitch(int low, Label[] cases, Label defaultCase) {
+            final int address = switchHeader(TABLESWITCH);
+
+            offset(address, 4, defaultCase);
+            u4(low);
+            u4(low + cases.length - 1);
+            for (Label label : cases) {
+                offset(address, 4, label);
+            }
+        }
+
+        void lookupSwitch(int[] keys, Label[] cases, Label defaultCase) {
+            final int address = switchHeader(LOOKUPSWITCH);
+
+            offset(address, 4, defaultCase);
+            u4(keys.length);
+            for (int lp = 0; lp < keys.length; lp += 1) {
+                u4(keys[lp]);
+                offset(address, 4, cases[lp]);
+            }
+        }
+
+        /**
+         * Binds <code>label</code> here as the target of a jump.
+         */
+        void bind(Label label) {
+            mark(label);
+            frames.putIfAbsent(label.offset, new int[][]{locals, new int[0]});
+        }
+
+        /**
+         * Binds <code>label</code> here as the bound of an exception handler's range.
+         */
+        void mark(Label label) {
+            label.offset = size();
+        }
+
+        void handler(Label from, Label to, Runnable code) {
+            final Label handler = new Label();
+
+            handlers.add(new Label[]{from, to, handler});
+            handlerCode.add(() -> {
+                final int[] handlerLocals = Arrays.copyOf(locals, locals.length + 1);
+
+                handlerLocals[locals.length] = ITEM_LONG;
+                mark(handler);
+                frames.putIfAbsent(handler.offset, new int[][]{handlerLocals, new int[]{object(THROWABLE)}});
+                code.run();
+            });
+        }
+
+        @Override
+        byte[] toByteArray() {
+            if (!finished) {
+                finished = true;
+                handlerCode.forEach(Runnable::run);
+            }
+
+            final byte[] code = super.toByteArray();
+            for (int lp = 0; lp < fixups.size(); lp += 1) {
+                final int[] fixup = fixups.get(lp);
+                final int value = fixupTargets.get(lp).offset - fixup[1];
+
+                for (int index = 0; index < fixup[2]; index += 1) {
+                    code[fixup[0] + index] = (byte) (value >> (8 * (fixup[2] - 1 - index)));
+                }
+            }
+            return code;
+        }
+
+        byte[] stackMapTable() {
+            if (frames.isEmpty()) {
+                return null;
+            }
+
+            final Bytes out = new Bytes();
+            int previous = -1;
+            out.u2(frames.size());
+            for (Map.Entry<Integer, int[][]> frame : frames.entrySet()) {
+                out.u1(FULL_FRAME);
+                out.u2(frame.getKey() - previous - 1);
+                verificationTypes(out, frame.getValue()[0]);
+                verificationTypes(out, frame.getValue()[1]);
+                previous = frame.getKey();
+            }
+            return out.toByteArray();
+        }
+
+        private void verificationTypes(Bytes out, int[] types) {
+            out.u2(types.length);
+            for (int type : types) {
+                out.u1(type >> 16 == 0 ? type : type >> 16);
+                if (type >> 16 != 0) {
+                    out.u2(type & 0xffff);
+                }
+            }
+        }
+
+        private int switchHeader(int opcode) {
+            final int address = size();
+
+            u1(opcode);
+            while (size() % 4 != 0) {
+                u1(0);
+            }
+            return address;
+        }
+
+        private void offset(int address, int width, Label target) {
+            fixups.add(new int[]{size(), address, width});
+            fixupTargets.add(target);
+            if (width == 2) {
+                u2(0);
+            } else {
+                u4(0);
+            }
+        }
+    }
+
+    private static class ConstantPool {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final Bytes entries = new Bytes();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, out -> {
+                out.u1(CONSTANT_UTF8);
+                out.utf(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, out -> {
+                out.u1(CONSTANT_INTEGER);
+                out.u4(value);
+            });
+        }
+
+        int classRef(String name) {
+            final int nameIndex = utf8(name);
+            return entry("C" + name, out -> {
+                out.u1(CONSTANT_CLASS);
+                out.u2(nameIndex);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(CONSTANT_FIELD_REF, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(CONSTANT_METHOD_REF, owner, name, descriptor);
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return memberRef(CONSTANT_INTERFACE_METHOD_REF, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            final int ownerIndex = classRef(owner);
+            final int nameAndTypeIndex = nameAndType(name, descriptor);
+            return entry("M" + tag + owner + "." + name + descriptor, out -> {
+                out.u1(tag);
+                out.u2(ownerIndex);
+                out.u2(nameAndTypeIndex);
+            });
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            return entry("N" + name + descriptor, out -> {
+                out.u1(CONSTANT_NAME_AND_TYPE);
+                out.u2(nameIndex);
+                out.u2(descriptorIndex);
+            });
+        }
+
+        private int entry(String key, Consumer<Bytes> writer) {
+            final Integer existing = indices.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            writer.accept(entries);
+            indices.put(key, count);
+            count += 1;
+            return count - 1;
+        }
+
+        void writeTo(Bytes out) {
+            out.u2(count);
+            out.bytes(entries.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package playing.statemachine;
+
+import java.util.List;
+
+public class Dispatchers {
+    public static Dispatcher interpret(List<TransitionCallbacks> transitions) {
+        return new InterpretedDispatcher(transitions);
+    }
+
+    /**
+     * Generates a dispatcher for the machine described by <code>table</code> that calls <code>transitions</code>,
+     * indexed by transition id, and <code>hooks</code> directly.
+     */
+    public static CompiledDispatcher compile(List<TransitionCallbacks> transitions, DispatchTable<?> table, DispatchHooks hooks) {
+        return DispatcherCompiler.compile(transitions, table, hooks);
+    }
+
+    public static Dispatcher withMetrics(Dispatcher dispatcher, MachineMetrics metrics) {
+        return new MetricsDispatcher(dispatcher, metrics);
+    }
+
+    /**
+     * Notifies <code>listeners</code> of every transition fired through <code>dispatcher</code>, where
+     * <code>transitions</code> is indexed by transition id.  Without listeners <code>dispatcher</code> is returned as
+     * is.
+     */
+    public static Dispatcher withListeners(Dispatcher dispatcher, List<? extends StateMachineTransition<?, ?>> transitions, List<TransitionListener> listeners) {
+        if (listeners.isEmpty()) {
+            return dispatcher;
+        }
+
+        final StateMachineTransition<?, ?>[] byId = transitions.toArray(new StateMachineTransition<?, ?>[0]);
+        return new ListenerDispatcher(dispatcher, byId, listeners.size() == 1 ? listeners.get(0) : composite(listeners));
+    }
+
+    static TransitionListener composite(List<TransitionListener> listeners) {
+        return new CompositeListener(listeners);
+    }
+
+    public static Dispatcher withLatencies(Dispatcher dispatcher, CallbackLatencies latencies) {
+        return new LatencyDispatcher(dispatcher, latencies);
+    }
+
+    private static class InterpretedDispatcher implements Dispatcher {
+        private final Callback[] guards;
+        private final Callback[] exits;
+        private final Callback[] actions;
+        private final Callback[] entries;
+
+        private InterpretedDispatcher(List<TransitionCallbacks> transitions) {
+            final int size = transitions.size();
+
+            guards = new Callback[size];
+            exits = new Callback[size];
+            actions = new Callback[size];
+            entries = new Callback[size];
+            for (int lp = 0; lp < size; lp += 1) {
+                final TransitionCallbacks transition = transitions.get(lp);
+
+                guards[lp] = transition.guard;
+                exits[lp] = transition.exit;
+                actions[lp] = transition.action;
+                entries[lp] = transition.entry;
+            }
+        }
+
+        @Override
+        public boolean guard(int transition, Object runtimeState, Object event) {
+            return guards[transition].test(runtimeState, event);
+        }
+
+        @Override
+        public Object exit(int transition, Object runtimeState, Object event) {
+            return exits[transition].apply(runtimeState, event);
+        }
+
+        @Override
+        public Object action(int transition, Object runtimeState, Object event) {
+            return actions[transition].apply(runtimeState, event);
+        }
+
+        @Override
+        public Object entry(int transition, Object runtimeState, Object event) {
+            return entries[transition].apply(runtimeState, event);
+        }
+    }
+
+    private static class MetricsDispatcher implements Dispatcher {
+        private final Dispatcher dispatcher;
+        private final MachineMetrics metrics;
+
+        private MetricsDispatcher(Dispatcher dispatcher, MachineMetrics metrics) {
+            this.dispatcher = dispatcher;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean guard(int transition, Object runtimeState, Object event) {
+            return dispatcher.guard(transition, runtimeState, event);
+        }
+
+        @Override
+        public Object exit(int transition, Object runtimeState, Object event) {
+            metrics.exited(transition);
+            return dispatcher.exit(transition, runtimeState, event);
+        }
+
+        @Override
+        public Object action(int transition, Object runtimeState, Object event) {
+            metrics.fired(transition);
+            return dispatcher.action(transition, runtimeState, event);
+        }
+
+        @Override
+        public Object entry(int transition, Object runtimeState, Object event) {
+            metrics.entered(transition);
+            return dispatcher.entry(transition, runtimeState, event);
+        }
+
+        @Override
+        public void unmatched(Object state, Object event) {
+            metrics.unmatched(state, event);
+            dispatcher.unmatched(state, event);
+        }
+    }
+
+    private static class LatencyDispatcher implements Dispatcher {
+        private final Dispatcher dispatcher;
+        private final CallbackLatencies latencies;
+
+        private LatencyDispatcher(Dispatcher dispatcher, CallbackLatencies latencies) {
+            this.dispatcher = dispatcher;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public boolean guard(int transition, Object runtimeState, Object event) {
+            final long start = System.nanoTime();
+            try {
+                return dispatcher.guard(transition, runtimeState, event);
+            } finally {
+                latencies.guardTimed(transition, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Object exit(int transition, Object runtimeState, Object event) {
+            final long start = System.nanoTime();
+            try {
+                return dispatcher.exit(transition, runtimeState, event);
+            } finally {
+                latencies.exitTimed(transition, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Object action(int transition, Object runtimeState, Object event) {
+            final long start = System.nanoTime();
+            try {
+                return dispatcher.action(transition, runtimeState, event);
+            } finally {
+                latencies.actionTimed(transition, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Object entry(int transition, Object runtimeState, Object event) {
+            final long start = System.nanoTime();
+            try {
+                return dispatcher.entry(transition, runtimeState, event);
+            } finally {
+                latencies.entryTimed(transition, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void unmatched(Object state, Object event) {
+            dispatcher.unmatched(state, event);
+        }
+    }
+
+    private static class ListenerDispatcher implements Dispatcher {
+        private final Dispatcher dispatcher;
+        private final StateMachineTransition<?, ?>[] transitions;
+        private final TransitionListener listener;
+
+        private ListenerDispatcher(Dispatcher dispatcher, StateMachineTransition<?, ?>[] transitions, TransitionListener listener) {
+            this.dispatcher = dispatcher;
+            this.transitions = transitions;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean guard(int transition, Object runtimeState, Object event) {
+            return dispatcher.guard(transition, runtimeState, event);
+        }
+
+        @Override
+        public Object exit(int transition, Object runtimeState, Object event) {
+            listener.beforeExit(transitions[transition], runtimeState, event);
+            return dispatcher.exit(transition, runtimeState, event);
+        }
+
+        @Override
+        public Object action(int transition, Object runtimeState, Object event) {
+            final Object result = dispatcher.action(transition, runtimeState, event);
+
+            listener.afterAction(transitions[transition], result, event);
+            return result;
+        }
+
+        @Override
+        public Object entry(int transition, Object runtimeState, Object event) {
+            final Object result = dispatcher.entry(transition, runtimeState, event);
+
+            listener.afterEntry(transitions[transition], result, event);
+            return result;
+        }
+
+        @Override
+        public void unmatched(Object state, Object event) {
+            dispatcher.unmatched(state, event);
+            listener.unmatched(state, event);
+        }
+    }
+
+    private static class CompositeListener implements TransitionListener {
+        private final TransitionListener[] listeners;
+
+        private CompositeListener(List<TransitionListener> listeners) {
+            this.listeners = listeners.toArray(new TransitionListener[0]);
+        }
+
+        @Override
+        public void beforeExit(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            for (TransitionListener listener : listeners) {
+                listener.beforeExit(transition, runtimeState, event);
+            }
+        }
+
+        @Override
+        public void afterAction(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            for (TransitionListener listener : listeners) {
+                listener.afterAction(transition, runtimeState, event);
+            }
+        }
+
+        @Override
+        public void afterEntry(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            for (TransitionListener listener : listeners) {
+                listener.afterEntry(transition, runtimeState, event);
+            }
+        }
+
+        @Override
+        public void unmatched(Object state, Object event) {
+            for (TransitionListener listener : listeners) {
+                listener.unmatched(state, event);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package playing.statemachine;
+
+import playing.util.LookupTable;
+import playing.util.MapUtil;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+public class EventClassIndex<STATE, T> {
+    private final LookupTable<STATE, ClassValue<T[]>> table;
+
+    private EventClassIndex(LookupTable<STATE, ClassValue<T[]>> table) {
+        this.table = table;
+    }
+
+    public T[] find(STATE state, Object event) {
+        final ClassValue<T[]> classTable = event == null ? null : table.get(state);
+
+        return classTable == null ? null : classTable.get(event.getClass());
+    }
+
+    public ClassValue<T[]> candidates(STATE state) {
+        return table.get(state);
+    }
+
+    public static <STATE, T> EventClassIndex<STATE, T> build(List<T> transitions, Function<T, STATE> fromState, Function<T, Class> eventClass, IntFunction<T[]> arrayConstructor) {
+        final Map<STATE, List<T>> grouped = new LinkedHashMap<>();
+        for (T transition : transitions) {
+            MapUtil.getOrElse(grouped, fromState.apply(transition), ArrayList::new).add(transition);
+        }
+
+        final Map<STATE, ClassValue<T[]>> classTables = new LinkedHashMap<>();
+        for (Map.Entry<STATE, List<T>> entry : grouped.entrySet()) {
+            classTables.put(entry.getKey(), new CandidatesByClass<>(entry.getValue(), eventClass, arrayConstructor));
+        }
+
+        return new EventClassIndex<>(LookupTable.of(classTables));
+    }
+
+    private static class CandidatesByClass<T> extends ClassValue<T[]> {
+        private final List<T> transitions;
+        private final Function<T, Class> eventClass;
+        private final IntFunction<T[]> arrayConstructor;
+
+        private CandidatesByClass(List<T> transitions, Function<T, Class> eventClass, IntFunction<T[]> arrayConstructor) {
+            this.transitions = transitions;
+            this.eventClass = eventClass;
+            this.arrayConstructor = arrayConstructor;
+        }
+
+        @Override
+        protected T[] computeValue(Class<?> type) {
+            final List<T> candidates = new ArrayList<>();
+            for (T transition : transitions) {
+                if (eventClass.apply(transition).isAssignableFrom(type)) {
+                    candidates.add(transition);
+                }
+            }
+            return candidates.toArray(arrayConstructor.apply(candidates.size()));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package playing.statemachine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of nanosecond latencies in the style of HdrHistogram.  Values below
+ * <code>2^SUB_BUCKET_BITS</code> are counted exactly; larger values fall into one of <code>2^SUB_BUCKET_BITS</code>
+ * linear sub-buckets per power of two, giving a relative error of about 3%.  Values beyond the highest trackable value
+ * are counted in the last bucket.  Recording is a single atomic increment and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HIGHEST_BIT = 36;
+    private static final int BUCKET_COUNT = (HIGHEST_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(index(nanos));
+    }
+
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int lp = 0; lp < BUCKET_COUNT; lp += 1) {
+            copy[lp] = counts.get(lp);
+        }
+        return new Snapshot(copy);
+    }
+
+    public Snapshot snapshotAndReset() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int lp = 0; lp < BUCKET_COUNT; lp += 1) {
+            copy[lp] = counts.getAndSet(lp, 0);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        final int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit > HIGHEST_BIT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        final int group = highestBit - SUB_BUCKET_BITS + 1;
+        final int subBucket = (int) (value >>> (group - 1)) & (SUB_BUCKET_COUNT - 1);
+        return group * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValue(int index) {
+        final int group = index / SUB_BUCKET_COUNT;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+
+        if (group == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (group - 1)) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        public final long count;
+
+        private Snapshot(long[] counts) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+
+            this.counts = counts;
+            this.count = total;
+        }
+
+        public long valueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int lp = 0; lp < counts.length; lp += 1) {
+                seen += counts[lp];
+                if (seen >= rank) {
+                    return highestValue(lp);
+                }
+            }
+            return highestValue(counts.length - 1);
+        }
+
+        public long p50() {
+            return valueAtPercentile(50.0);
+        }
+
+        public long p99() {
+            return valueAtPercentile(99.0);
+        }
+
+        public long p999() {
+            return valueAtPercentile(99.9);
+        }
+
+        public long max() {
+            return valueAtPercentile(100.0);
+        }
+    }
+}
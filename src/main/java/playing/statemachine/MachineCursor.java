@@ -0,0 +1,34 @@
+package playing.statemachine;
+
+import playing.util.Tuple;
+
+public class MachineCursor<STATE, RS> {
+    private STATE state;
+    private RS runtimeState;
+
+    public MachineCursor(STATE state, RS runtimeState) {
+        this.state = state;
+        this.runtimeState = runtimeState;
+    }
+
+    public STATE state() {
+        return state;
+    }
+
+    public RS runtimeState() {
+        return runtimeState;
+    }
+
+    public void moveTo(STATE state) {
+        this.state = state;
+    }
+
+    public void moveTo(STATE state, RS runtimeState) {
+        this.state = state;
+        this.runtimeState = runtimeState;
+    }
+
+    public Tuple<STATE, RS> toTuple() {
+        return new Tuple<>(state, runtimeState);
+    }
+}
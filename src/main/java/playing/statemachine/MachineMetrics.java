@@ -0,0 +1,261 @@
+package playing.statemachine;
+
+import playing.util.DenseIds;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Counts transition fires, state entries and exits, and unmatched events of a single machine.  Counters are
+ * {@link LongAdder}s indexed by transition id and dense state id so that counting does not contend between threads.
+ * Unmatched events are keyed by state and by the declared event for native machines or by the event's class for class
+ * machines.  Events a native machine never declared, and event classes beyond {@link #MAX_EVENT_KEYS} per state, are
+ * counted under a single <code>other</code> key so that the number of counters stays bounded whatever is fired.
+ * <p>
+ * A machine only carries metrics when its builder asks for them; otherwise its dispatcher is used as is.  Building a
+ * machine never touches JMX: call {@link #register()} to export the metrics and {@link #unregister()} to withdraw them.
+ */
+public class MachineMetrics implements MachineMetricsMXBean {
+    private static final String DOMAIN = "playing.statemachine";
+    private static final Object NULL_KEY = "null";
+    private static final Object OTHER_KEY = "other";
+    public static final int MAX_EVENT_KEYS = 64;
+
+    private final String name;
+    private final boolean eventsByClass;
+    private final String[] transitionLabels;
+    private final int[] fromStateIds;
+    private final int[] toStateIds;
+    private final DenseIds<Object> states;
+    private final Set<Object> declaredEvents;
+    private final LongAdder[] fires;
+    private final LongAdder[] entries;
+    private final LongAdder[] exits;
+    private final ConcurrentHashMap<Object, ConcurrentHashMap<Object, LongAdder>> unmatched = new ConcurrentHashMap<>();
+    private boolean registered;
+
+    private MachineMetrics(String name, List<? extends StateMachineTransition<?, ?>> transitions, boolean eventsByClass) {
+        final List<Object> stateValues = new ArrayList<>();
+        final Set<Object> eventValues = new HashSet<>();
+        for (StateMachineTransition<?, ?> transition : transitions) {
+            stateValues.add(transition.fromState());
+            stateValues.add(transition.toState());
+            eventValues.add(transition.event());
+        }
+
+        this.name = name;
+        this.eventsByClass = eventsByClass;
+        this.states = DenseIds.of(stateValues);
+        this.declaredEvents = eventValues;
+        this.transitionLabels = new String[transitions.size()];
+        this.fromStateIds = new int[transitions.size()];
+        this.toStateIds = new int[transitions.size()];
+        this.fires = adders(transitions.size());
+        this.entries = adders(states.size());
+        this.exits = adders(states.size());
+
+        for (int lp = 0; lp < transitions.size(); lp += 1) {
+            final StateMachineTransition<?, ?> transition = transitions.get(lp);
+
+            transitionLabels[lp] = "#" + lp + " " + transition.fromState() + " --" + transition.event() + "--> " + transition.toState();
+            fromStateIds[lp] = states.id(transition.fromState());
+            toStateIds[lp] = states.id(transition.toState());
+        }
+    }
+
+    public static MachineMetrics of(String name, List<? extends StateMachineTransition<?, ?>> transitions, boolean eventsByClass) {
+        return new MachineMetrics(name, transitions, eventsByClass);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public ObjectName objectName() {
+        try {
+            return new ObjectName(DOMAIN + ":type=StateMachine,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid metrics name " + name, e);
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server; registering them again is a no-op.  Names must be
+     * unique: metrics whose name is already registered by another machine fail rather than take over its view.
+     */
+    public synchronized MachineMetrics register() {
+        if (registered) {
+            return this;
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName());
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("Metrics " + name + " are already registered by another machine", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register metrics " + name, e);
+        }
+        registered = true;
+        return this;
+    }
+
+    /**
+     * Withdraws these metrics from the platform MBean server if they were registered.
+     */
+    public synchronized void unregister() {
+        if (!registered) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister metrics " + name, e);
+        }
+        registered = false;
+    }
+
+    public synchronized boolean isRegistered() {
+        return registered;
+    }
+
+    public long fireCount(int transition) {
+        return fires[transition].sum();
+    }
+
+    public long entryCount(Object state) {
+        final int stateId = states.id(state);
+
+        return stateId < 0 ? 0 : entries[stateId].sum();
+    }
+
+    public long exitCount(Object state) {
+        final int stateId = states.id(state);
+
+        return stateId < 0 ? 0 : exits[stateId].sum();
+    }
+
+    /**
+     * The number of unmatched events counted under the key <code>event</code> falls into in <code>state</code>; for an
+     * event counted under <code>other</code> this is the count of every event sharing that key.
+     */
+    public long unmatchedCount(Object state, Object event) {
+        final Map<Object, LongAdder> byEvent = unmatched.get(key(state));
+        if (byEvent == null) {
+            return 0;
+        }
+
+        LongAdder count = byEvent.get(eventKey(event));
+        if (count == null && byEvent.size() >= MAX_EVENT_KEYS) {
+            count = byEvent.get(OTHER_KEY);
+        }
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public Map<String, Long> getTransitionFireCounts() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (int lp = 0; lp < fires.length; lp += 1) {
+            result.put(transitionLabels[lp], fires[lp].sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getStateEntryCounts() {
+        return byState(entries);
+    }
+
+    @Override
+    public Map<String, Long> getStateExitCounts() {
+        return byState(exits);
+    }
+
+    @Override
+    public Map<String, Long> getUnmatchedEventCounts() {
+        final Map<String, Long> result = new TreeMap<>();
+        unmatched.forEach((state, byEvent) -> byEvent.forEach((event, count) -> result.put(state + " / " + event, count.sum())));
+        return result;
+    }
+
+    @Override
+    public long getUnmatchedEventCount() {
+        return unmatched.values().stream()
+                .flatMap(byEvent -> byEvent.values().stream())
+                .collect(Collectors.summingLong(LongAdder::sum));
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder[] adders : Arrays.asList(fires, entries, exits)) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+        unmatched.clear();
+    }
+
+    void fired(int transition) {
+        fires[transition].increment();
+    }
+
+    void exited(int transition) {
+        exits[fromStateIds[transition]].increment();
+    }
+
+    void entered(int transition) {
+        entries[toStateIds[transition]].increment();
+    }
+
+    void unmatched(Object state, Object event) {
+        final ConcurrentHashMap<Object, LongAdder> byEvent = unmatched.computeIfAbsent(key(state), key -> new ConcurrentHashMap<>());
+        final Object eventKey = eventKey(event);
+
+        LongAdder count = byEvent.get(eventKey);
+        if (count == null) {
+            count = byEvent.computeIfAbsent(byEvent.size() < MAX_EVENT_KEYS ? eventKey : OTHER_KEY, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private Object eventKey(Object event) {
+        if (event == null) {
+            return NULL_KEY;
+        }
+        if (eventsByClass) {
+            return event.getClass();
+        }
+        return declaredEvents.contains(event) ? event : OTHER_KEY;
+    }
+
+    private Object key(Object state) {
+        if (state == null) {
+            return NULL_KEY;
+        }
+        return states.id(state) < 0 ? OTHER_KEY : state;
+    }
+
+    private Map<String, Long> byState(LongAdder[] counts) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (int lp = 0; lp < counts.length; lp += 1) {
+            result.put(String.valueOf(states.value(lp)), counts[lp].sum());
+        }
+        return result;
+    }
+
+    private static LongAdder[] adders(int size) {
+        final LongAdder[] adders = new LongAdder[size];
+        for (int lp = 0; lp < size; lp += 1) {
+            adders[lp] = new LongAdder();
+        }
+        return adders;
+    }
+}
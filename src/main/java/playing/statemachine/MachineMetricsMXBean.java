@@ -0,0 +1,17 @@
+package playing.statemachine;
+
+import java.util.Map;
+
+public interface MachineMetricsMXBean {
+    Map<String, Long> getTransitionFireCounts();
+
+    Map<String, Long> getStateEntryCounts();
+
+    Map<String, Long> getStateExitCounts();
+
+    Map<String, Long> getUnmatchedEventCounts();
+
+    long getUnmatchedEventCount();
+
+    void reset();
+}
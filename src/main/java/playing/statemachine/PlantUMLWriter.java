@@ -5,6 +5,8 @@ import playing.util.StringUtil;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class PlantUMLWriter {
@@ -13,20 +15,71 @@ public class PlantUMLWriter {
     }
 
     public static <STATE, EVENT> void write(StateMachineWriter<STATE, EVENT> stateMachine, String fileName, int scale) throws IOException {
-        String eventNamePrefix = commonEventNamePrefix(stateMachine);
         try (PrintWriter pw = new PrintWriter(new FileWriter(fileName))) {
             pw.println("@startuml");
             pw.println("scale " + scale + " width");
-            pw.println("[*] --> " + stateMachine.initialState());
-            for (StateMachineTransition<STATE, EVENT> transition : stateMachine.transitions()) {
-                final String eventName = trimPrefix(eventNamePrefix, transition.event().toString());
-                pw.println("" + transition.fromState() + " --> " + transition.toState() + (eventName.equals("") ? "" : " : " + eventName));
-            }
+            writeMachine(pw, stateMachine, "");
+            pw.println("@enduml");
+        }
+    }
+
+    public static void write(String name, List<? extends StateMachineWriter<?, ?>> regions, String fileName) throws IOException {
+        write(name, regions, fileName, 1000);
+    }
 
+    /**
+     * Writes orthogonal regions as a single composite state called <code>name</code> with the regions separated by
+     * <code>--</code>.
+     */
+    public static void write(String name, List<? extends StateMachineWriter<?, ?>> regions, String fileName, int scale) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(fileName))) {
+            pw.println("@startuml");
+            pw.println("scale " + scale + " width");
+            pw.println("[*] --> " + name);
+            pw.println("state " + name + " {");
+            for (int lp = 0; lp < regions.size(); lp += 1) {
+                if (lp > 0) {
+                    pw.println("  --");
+                }
+                writeMachine(pw, regions.get(lp), "  ");
+            }
+            pw.println("}");
             pw.println("@enduml");
         }
     }
 
+    private static <STATE, EVENT> void writeMachine(PrintWriter pw, StateMachineWriter<STATE, EVENT> stateMachine, String indent) {
+        final String eventNamePrefix = commonEventNamePrefix(stateMachine);
+
+        writeNestedStates(pw, stateMachine.parents(), indent);
+        pw.println(indent + "[*] --> " + stateMachine.initialState());
+        for (StateMachineTransition<STATE, EVENT> transition : stateMachine.transitions()) {
+            final String eventName = trimPrefix(eventNamePrefix, transition.event().toString());
+            pw.println(indent + transition.fromState() + " --> " + transition.toState() + (eventName.equals("") ? "" : " : " + eventName));
+        }
+    }
+
+    private static <STATE> void writeNestedStates(PrintWriter pw, Map<STATE, STATE> parents, String indent) {
+        parents.values().stream()
+                .filter(state -> !parents.containsKey(state))
+                .distinct()
+                .forEach(state -> writeNestedState(pw, parents, state, indent));
+    }
+
+    private static <STATE> void writeNestedState(PrintWriter pw, Map<STATE, STATE> parents, STATE state, String indent) {
+        if (parents.containsValue(state)) {
+            pw.println(indent + "state " + state + " {");
+            parents.forEach((child, parent) -> {
+                if (parent.equals(state)) {
+                    writeNestedState(pw, parents, child, indent + "  ");
+                }
+            });
+            pw.println(indent + "}");
+        } else {
+            pw.println(indent + "state " + state);
+        }
+    }
+
     private static <STATE, EVENT> String commonEventNamePrefix(StateMachineWriter<STATE, EVENT> stateMachine) {
         Optional<String> commonPrefix = Optional.empty();
         for (StateMachineTransition<STATE, EVENT> transition: stateMachine.transitions()) {
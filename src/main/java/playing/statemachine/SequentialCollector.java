@@ -0,0 +1,36 @@
+package playing.statemachine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Collectors for streams whose elements have to be accumulated one at a time in encounter order, such as the events
+ * fired at a machine, and whose partial results can not be combined.  Such a collector supplies exactly one container:
+ * a parallel stream asks for one container per split and fails with an {@link IllegalStateException} as soon as it
+ * asks for the second.  Each collector is therefore good for a single stream; a parallel stream of events can instead
+ * be passed to a machine's <code>process</code>, which consumes it in order.
+ */
+public class SequentialCollector {
+    private static final String PARALLEL = "A machine collector accumulates events in order and only supports a single sequential stream; " +
+            "pass parallel streams to process(machineState, events) instead";
+
+    public static <T, A, R> Collector<T, A, R> of(Supplier<A> supplier, BiConsumer<A, T> accumulator, Function<A, R> finisher) {
+        final AtomicBoolean supplied = new AtomicBoolean();
+
+        return Collector.of(
+                () -> {
+                    if (!supplied.compareAndSet(false, true)) {
+                        throw new IllegalStateException(PARALLEL);
+                    }
+                    return supplier.get();
+                },
+                accumulator,
+                (left, right) -> {
+                    throw new IllegalStateException(PARALLEL);
+                },
+                finisher);
+    }
+}
@@ -1,7 +1,17 @@
 package playing.statemachine;
 
+import java.util.Collections;
+import java.util.Map;
+
 public interface StateMachineWriter<STATE, EVENT> {
     STATE initialState();
 
     Iterable<StateMachineTransition<STATE, EVENT>> transitions();
+
+    /**
+     * The parent of each nested state.  States without a parent are not keys.
+     */
+    default Map<STATE, STATE> parents() {
+        return Collections.emptyMap();
+    }
 }
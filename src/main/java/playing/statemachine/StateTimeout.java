@@ -0,0 +1,30 @@
+package playing.statemachine;
+
+import java.time.Duration;
+
+/**
+ * The event fired by a {@link TimedCursor} once its machine has stayed in a state for the duration of one of the
+ * state's <code>after</code> transitions.  Timeouts are matched by identity, each <code>after</code> declaring its own.
+ */
+public class StateTimeout {
+    private final Object state;
+    private final Duration after;
+
+    public StateTimeout(Object state, Duration after) {
+        this.state = state;
+        this.after = after;
+    }
+
+    public Object state() {
+        return state;
+    }
+
+    public Duration after() {
+        return after;
+    }
+
+    @Override
+    public String toString() {
+        return "StateTimeout(" + state + ", " + after + ")";
+    }
+}
@@ -0,0 +1,70 @@
+package playing.statemachine;
+
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * A cursor that keeps a timer pending on a {@link TimingWheel} for each <code>after</code> transition of its current
+ * state.  Every move, including a transition back into the same state, cancels the timers of the state being left
+ * and schedules those of the state entered, so an expiring timer always belongs to the state the cursor is in.  The
+ * timers are allocated once per cursor and reused.
+ */
+public class TimedCursor<STATE, RS> extends MachineCursor<STATE, RS> {
+    private final Function<STATE, StateTimeout[]> timeouts;
+    private final TimingWheel wheel;
+    private final TimingWheel.Timer[] timers;
+    private final StateTimeout[] pending;
+    private int armed;
+
+    /**
+     * @param timeouts        the timeouts of each state, which fire through <code>fire</code> when they expire
+     * @param maximumTimeouts the most timeouts any one state has
+     */
+    public TimedCursor(Function<STATE, StateTimeout[]> timeouts, BiPredicate<TimedCursor<STATE, RS>, StateTimeout> fire, TimingWheel wheel, STATE state, RS runtimeState, int maximumTimeouts) {
+        super(state, runtimeState);
+        this.timeouts = timeouts;
+        this.wheel = wheel;
+        this.timers = new TimingWheel.Timer[maximumTimeouts];
+        this.pending = new StateTimeout[maximumTimeouts];
+        for (int lp = 0; lp < maximumTimeouts; lp += 1) {
+            final int index = lp;
+            timers[lp] = new TimingWheel.Timer(() -> fire.test(this, pending[index]));
+        }
+        arm();
+    }
+
+    @Override
+    public void moveTo(STATE state) {
+        disarm();
+        super.moveTo(state);
+        arm();
+    }
+
+    @Override
+    public void moveTo(STATE state, RS runtimeState) {
+        disarm();
+        super.moveTo(state, runtimeState);
+        arm();
+    }
+
+    /**
+     * Cancels the pending timers, for a cursor that is no longer driven.
+     */
+    public void disarm() {
+        for (int lp = 0; lp < armed; lp += 1) {
+            timers[lp].cancel();
+            pending[lp] = null;
+        }
+        armed = 0;
+    }
+
+    private void arm() {
+        final StateTimeout[] stateTimeouts = timeouts.apply(state());
+
+        for (int lp = 0; lp < stateTimeouts.length; lp += 1) {
+            pending[lp] = stateTimeouts[lp];
+            wheel.schedule(timers[lp], stateTimeouts[lp].after());
+        }
+        armed = stateTimeouts.length;
+    }
+}
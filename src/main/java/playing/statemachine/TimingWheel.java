@@ -0,0 +1,179 @@
+package playing.statemachine;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A hierarchical timing wheel in the style of Varghese and Lauck.  Time is divided into ticks and each of
+ * {@link #LEVELS} wheels has {@link #WHEEL_SIZE} slots, a slot on level <code>n</code> spanning
+ * <code>WHEEL_SIZE^n</code> ticks.  A timer is linked into the slot of the lowest level whose span covers its delay,
+ * so scheduling and cancelling are both a constant time list operation however many timers are pending.  As the
+ * lower wheel wraps, the next slot of the wheel above is cascaded down.  Timers further away than the wheels span are
+ * parked in the top wheel and cascaded around it until they come within range.
+ * <p>
+ * The wheel is driven by calling {@link #advance()}, which reads the injected clock and runs the task of every timer
+ * that has expired on the calling thread.  It is not thread safe: like a {@link MachineCursor}, a wheel belongs to the
+ * thread that drives it.  {@link Timer}s may be rescheduled once they have run or been cancelled, so a fixed set of
+ * timers can be reused without allocating.
+ */
+public class TimingWheel {
+    public static final int WHEEL_BITS = 6;
+    public static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    public static final int LEVELS = 6;
+    private static final long HORIZON = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickNanos;
+    private final LongSupplier nanoClock;
+    private final long origin;
+    private final Timer[] slots = new Timer[LEVELS * WHEEL_SIZE];
+    private long currentTick;
+    private int pending;
+
+    public TimingWheel(Duration tick) {
+        this(tick, System::nanoTime);
+    }
+
+    public TimingWheel(Duration tick, LongSupplier nanoClock) {
+        if (tick.isZero() || tick.isNegative()) {
+            throw new IllegalArgumentException("The tick must be positive: " + tick);
+        }
+
+        this.tickNanos = tick.toNanos();
+        this.nanoClock = nanoClock;
+        this.origin = nanoClock.getAsLong();
+        for (int lp = 0; lp < slots.length; lp += 1) {
+            slots[lp] = new Timer(null);
+        }
+    }
+
+    public int pending() {
+        return pending;
+    }
+
+    public Timer schedule(Duration delay, Runnable task) {
+        final Timer timer = new Timer(task);
+        schedule(timer, delay);
+        return timer;
+    }
+
+    /**
+     * Schedules <code>timer</code> to run once <code>delay</code>, rounded up to a whole number of ticks and at least
+     * one, has passed.  A timer that is already pending is rescheduled.
+     */
+    public void schedule(Timer timer, Duration delay) {
+        final long delayNanos = delay.toNanos();
+        final long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+
+        timer.cancel();
+        timer.deadline = Math.max(currentTick, clockTick()) + ticks;
+        timer.wheel = this;
+        pending += 1;
+        insert(timer);
+    }
+
+    /**
+     * Moves the wheel up to the current time, running the task of every timer that expires on the way.
+     *
+     * @return the number of timers that expired
+     */
+    public int advance() {
+        final long targetTick = clockTick();
+        int expired = 0;
+
+        while (currentTick < targetTick) {
+            if (pending == 0) {
+                currentTick = targetTick;
+                break;
+            }
+            expired += tick();
+        }
+        return expired;
+    }
+
+    private int tick() {
+        currentTick += 1;
+
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+            level += 1;
+        }
+        for (int lp = level - 1; lp >= 1; lp -= 1) {
+            cascade(slots[slot(lp, currentTick)]);
+        }
+
+        final Timer expiring = slots[slot(0, currentTick)];
+        int expired = 0;
+        while (expiring.next != expiring) {
+            final Timer timer = expiring.next;
+
+            timer.cancel();
+            timer.task.run();
+            expired += 1;
+        }
+        return expired;
+    }
+
+    private void cascade(Timer head) {
+        while (head.next != head) {
+            final Timer timer = head.next;
+
+            timer.unlink();
+            insert(timer);
+        }
+    }
+
+    private void insert(Timer timer) {
+        final long delta = timer.deadline - currentTick;
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level += 1;
+        }
+        timer.linkBefore(slots[slot(level, Math.min(timer.deadline, currentTick + HORIZON - 1))]);
+    }
+
+    private long clockTick() {
+        return (nanoClock.getAsLong() - origin) / tickNanos;
+    }
+
+    private static int slot(int level, long tick) {
+        return level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1));
+    }
+
+    public static class Timer {
+        private final Runnable task;
+        private Timer previous = this;
+        private Timer next = this;
+        private long deadline;
+        private TimingWheel wheel;
+
+        public Timer(Runnable task) {
+            this.task = task;
+        }
+
+        public boolean isPending() {
+            return next != this;
+        }
+
+        public void cancel() {
+            if (isPending()) {
+                unlink();
+                wheel.pending -= 1;
+            }
+        }
+
+        private void linkBefore(Timer head) {
+            previous = head.previous;
+            next = head;
+            head.previous.next = this;
+            head.previous = this;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = this;
+            next = this;
+        }
+    }
+}
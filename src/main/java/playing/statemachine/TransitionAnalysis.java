@@ -0,0 +1,143 @@
+package playing.statemachine;
+
+import playing.util.MapUtil;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Build time analysis of a machine's transitions in declaration order.  A transition is shadowed when an earlier,
+ * unconditional transition from the same state accepts every event it accepts, so it can never fire.  A duplicate
+ * is a transition whose <code>(state, event)</code> pair was already declared; duplicates are legitimate when they
+ * are guarded.  States that can not be reached from the initial state through transitions that are not shadowed are
+ * unreachable.
+ * <p>
+ * In a machine with nested states a substate may redeclare an event its parent handles.  The copy of the parent's
+ * transition inherited by the substate is then covered by the substate's own transition; that is an override rather
+ * than a mistake, so such inherited transitions are pruned and reported as overridden instead of shadowed, and are
+ * never reported as duplicates.
+ */
+public class TransitionAnalysis<STATE, T extends StateMachineTransition<STATE, ?>> {
+    private final List<T> live;
+    private final List<T> shadowed;
+    private final List<T> duplicates;
+    private final List<T> overridden;
+    private final Set<STATE> unreachableStates;
+
+    private TransitionAnalysis(List<T> live, List<T> shadowed, List<T> duplicates, List<T> overridden, Set<STATE> unreachableStates) {
+        this.live = live;
+        this.shadowed = shadowed;
+        this.duplicates = duplicates;
+        this.overridden = overridden;
+        this.unreachableStates = unreachableStates;
+    }
+
+    /**
+     * @param unconditional whether a transition fires for every event it accepts
+     * @param covers        whether the first transition accepts every event that the second transition accepts
+     */
+    public static <STATE, T extends StateMachineTransition<STATE, ?>> TransitionAnalysis<STATE, T> of(STATE initialState, List<T> transitions, Predicate<T> unconditional, BiPredicate<T, T> covers) {
+        return of(initialState, transitions, unconditional, covers, transition -> false);
+    }
+
+    /**
+     * @param inherited whether a transition is a copy of one declared on a state that the transition's state is nested
+     *                  within
+     */
+    public static <STATE, T extends StateMachineTransition<STATE, ?>> TransitionAnalysis<STATE, T> of(STATE initialState, List<T> transitions, Predicate<T> unconditional, BiPredicate<T, T> covers, Predicate<T> inherited) {
+        final List<T> live = new ArrayList<>();
+        final List<T> shadowed = new ArrayList<>();
+        final List<T> duplicates = new ArrayList<>();
+        final List<T> overridden = new ArrayList<>();
+        final Map<STATE, List<T>> unconditionalByState = new HashMap<>();
+        final Map<STATE, Set<Object>> eventsByState = new HashMap<>();
+
+        for (T transition : transitions) {
+            final List<T> earlier = MapUtil.getOrElse(unconditionalByState, transition.fromState(), ArrayList::new);
+
+            final boolean isInherited = inherited.test(transition);
+
+            if (!MapUtil.getOrElse(eventsByState, transition.fromState(), HashSet::new).add(transition.event()) && !isInherited) {
+                duplicates.add(transition);
+            }
+            if (earlier.stream().anyMatch(e -> covers.test(e, transition))) {
+                (isInherited ? overridden : shadowed).add(transition);
+            } else {
+                live.add(transition);
+                if (unconditional.test(transition)) {
+                    earlier.add(transition);
+                }
+            }
+        }
+
+        return new TransitionAnalysis<>(live, shadowed, duplicates, overridden, unreachableStates(initialState, transitions, live));
+    }
+
+    public List<T> live() {
+        return live;
+    }
+
+    public List<T> shadowed() {
+        return shadowed;
+    }
+
+    public List<T> duplicates() {
+        return duplicates;
+    }
+
+    public List<T> overridden() {
+        return overridden;
+    }
+
+    public Set<STATE> unreachableStates() {
+        return unreachableStates;
+    }
+
+    public boolean isValid() {
+        return shadowed.isEmpty() && unreachableStates.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Shadowed transitions: " + describe(shadowed) +
+                ", duplicate transitions: " + describe(duplicates) +
+                ", unreachable states: " + unreachableStates;
+    }
+
+    private static <STATE, T extends StateMachineTransition<STATE, ?>> Set<STATE> unreachableStates(STATE initialState, List<T> transitions, List<T> live) {
+        final Set<STATE> states = new LinkedHashSet<>();
+        for (T transition : transitions) {
+            states.add(transition.fromState());
+            states.add(transition.toState());
+        }
+
+        final Map<STATE, List<STATE>> successors = new HashMap<>();
+        for (T transition : live) {
+            MapUtil.getOrElse(successors, transition.fromState(), ArrayList::new).add(transition.toState());
+        }
+
+        final Deque<STATE> pending = new ArrayDeque<>();
+        final Set<STATE> reached = new HashSet<>();
+        pending.add(initialState);
+        reached.add(initialState);
+        while (!pending.isEmpty()) {
+            for (STATE next : successors.getOrDefault(pending.remove(), Collections.emptyList())) {
+                if (reached.add(next)) {
+                    pending.add(next);
+                }
+            }
+        }
+
+        states.removeAll(reached);
+        return states;
+    }
+
+    private static String describe(List<? extends StateMachineTransition<?, ?>> transitions) {
+        final StringJoiner result = new StringJoiner(", ", "[", "]");
+        for (StateMachineTransition<?, ?> transition : transitions) {
+            result.add(transition.fromState() + " --" + transition.event() + "--> " + transition.toState());
+        }
+        return result.toString();
+    }
+}
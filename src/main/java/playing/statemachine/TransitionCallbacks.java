@@ -0,0 +1,15 @@
+package playing.statemachine;
+
+public class TransitionCallbacks {
+    final Callback guard;
+    final Callback exit;
+    final Callback action;
+    final Callback entry;
+
+    public TransitionCallbacks(Callback guard, Callback exit, Callback action, Callback entry) {
+        this.guard = guard;
+        this.exit = exit;
+        this.action = action;
+        this.entry = entry;
+    }
+}
@@ -0,0 +1,39 @@
+package playing.statemachine;
+
+import playing.util.LookupTable;
+import playing.util.MapUtil;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class TransitionIndex<STATE, EVENT, V> {
+    private final LookupTable<STATE, LookupTable<EVENT, V>> table;
+
+    private TransitionIndex(LookupTable<STATE, LookupTable<EVENT, V>> table) {
+        this.table = table;
+    }
+
+    public V find(STATE state, EVENT event) {
+        final LookupTable<EVENT, V> eventTable = table.get(state);
+
+        return eventTable == null ? null : eventTable.get(event);
+    }
+
+    public static <STATE, EVENT, T extends StateMachineTransition<STATE, EVENT>, V> TransitionIndex<STATE, EVENT, V> build(List<T> transitions, Function<List<T>, V> candidates) {
+        final Map<STATE, Map<EVENT, List<T>>> grouped = new LinkedHashMap<>();
+        for (T transition : transitions) {
+            MapUtil.getOrElse(MapUtil.getOrElse(grouped, transition.fromState(), LinkedHashMap::new), transition.event(), ArrayList::new).add(transition);
+        }
+
+        final Map<STATE, LookupTable<EVENT, V>> stateTables = new LinkedHashMap<>();
+        for (Map.Entry<STATE, Map<EVENT, List<T>>> stateEntry : grouped.entrySet()) {
+            final Map<EVENT, V> eventEntries = new LinkedHashMap<>();
+            for (Map.Entry<EVENT, List<T>> eventEntry : stateEntry.getValue().entrySet()) {
+                eventEntries.put(eventEntry.getKey(), candidates.apply(eventEntry.getValue()));
+            }
+            stateTables.put(stateEntry.getKey(), LookupTable.of(eventEntries));
+        }
+
+        return new TransitionIndex<>(LookupTable.of(stateTables));
+    }
+}
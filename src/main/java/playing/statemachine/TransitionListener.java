@@ -0,0 +1,24 @@
+package playing.statemachine;
+
+/**
+ * Observes the transitions of a machine without taking part in them.  Listeners are registered on a machine's builder
+ * and called around the exit, action and entry callbacks of every fired transition, and for every event that matched
+ * no transition.  The runtime state passed to {@link #beforeExit} is the one being left; the one passed to
+ * {@link #afterAction} and {@link #afterEntry} is the result of that callback.  Stateless machines pass
+ * <code>null</code>.
+ * <p>
+ * A machine built without listeners does not carry a listener decorator at all.
+ */
+public interface TransitionListener {
+    default void beforeExit(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+    }
+
+    default void afterAction(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+    }
+
+    default void afterEntry(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+    }
+
+    default void unmatched(Object state, Object event) {
+    }
+}
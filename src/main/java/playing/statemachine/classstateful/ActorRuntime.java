@@ -0,0 +1,246 @@
+package playing.statemachine.classstateful;
+
+import playing.statemachine.MachineCursor;
+import playing.util.Tuple;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs every machine instance as an actor: events are posted to a bounded per-instance mailbox and the mailbox is
+ * drained sequentially by a task on the runtime's executor.  A drain task is only scheduled while the mailbox is
+ * non-empty so that idle instances hold no thread, only their cursor.  An event whose guard or action throws is handed
+ * to the draining thread's uncaught exception handler and the instance carries on with the next event.
+ * <p>
+ * Mailboxes and cursors are guarded by {@link ReentrantLock}s rather than monitors so that a sender blocked on a full
+ * mailbox under {@link OverflowPolicy#BLOCK} parks its virtual thread instead of pinning the carrier.  An actor that
+ * posts to its own full mailbox while draining it would wait on itself forever, so under <code>BLOCK</code> such a
+ * self-post is enqueued past the capacity instead.
+ * <p>
+ * The default executor starts a virtual thread per drain task, which needs a Java 21 or later runtime.  The build
+ * targets Java 17, so the executor is looked up reflectively and on a Java 17 runtime an asynchronous
+ * {@link ForkJoinPool} is used instead; pass an executor explicitly to choose one regardless of the runtime.
+ */
+public class ActorRuntime<ID, STATE, RS> implements AutoCloseable {
+    public enum OverflowPolicy {BLOCK, DROP_OLDEST, REJECT}
+
+    private static final int INITIAL_MAILBOX_SIZE = 16;
+
+    private final StateMachine<STATE, RS> stateMachine;
+    private final int mailboxCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<ID, Actor> actors = new ConcurrentHashMap<>();
+
+    public ActorRuntime(StateMachine<STATE, RS> stateMachine, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+        this(stateMachine, mailboxCapacity, overflowPolicy, defaultExecutor());
+    }
+
+    public ActorRuntime(StateMachine<STATE, RS> stateMachine, int mailboxCapacity, OverflowPolicy overflowPolicy, ExecutorService executor) {
+        if (mailboxCapacity < 1) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + mailboxCapacity);
+        }
+
+        this.stateMachine = stateMachine;
+        this.mailboxCapacity = mailboxCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+    }
+
+    public boolean spawn(ID id, RS runtimeState) {
+        return actors.putIfAbsent(id, new Actor(stateMachine.cursor(runtimeState))) == null;
+    }
+
+    public boolean send(ID id, Object event) {
+        final Actor actor = actors.get(id);
+        if (actor == null) {
+            throw new IllegalArgumentException("Unknown instance " + id);
+        }
+
+        try {
+            return actor.offer(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public Optional<Tuple<STATE, RS>> state(ID id) {
+        final Actor actor = actors.get(id);
+
+        return actor == null ? Optional.empty() : Optional.of(actor.snapshot());
+    }
+
+    public Optional<Tuple<STATE, RS>> stop(ID id) {
+        final Actor actor = actors.remove(id);
+        if (actor == null) {
+            return Optional.empty();
+        }
+
+        actor.stop();
+        return Optional.of(actor.snapshot());
+    }
+
+    public int size() {
+        return actors.size();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        try {
+            awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService defaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+    }
+
+    private class Actor implements Runnable {
+        private final MachineCursor<STATE, RS> cursor;
+        private final ReentrantLock cursorLock = new ReentrantLock();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private ArrayDeque<Object> mailbox;
+        private Thread drainer;
+        private boolean scheduled;
+        private boolean stopped;
+
+        private Actor(MachineCursor<STATE, RS> cursor) {
+            this.cursor = cursor;
+        }
+
+        private boolean offer(Object event) throws InterruptedException {
+            lock.lock();
+            try {
+                if (stopped) {
+                    return false;
+                }
+                if (mailbox == null) {
+                    mailbox = new ArrayDeque<>(Math.min(mailboxCapacity, INITIAL_MAILBOX_SIZE));
+                }
+                while (mailbox.size() >= mailboxCapacity) {
+                    if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                        mailbox.poll();
+                    } else if (overflowPolicy == OverflowPolicy.REJECT) {
+                        return false;
+                    } else if (drainer == Thread.currentThread()) {
+                        break;
+                    } else {
+                        notFull.await();
+                        if (stopped) {
+                            return false;
+                        }
+                    }
+                }
+                mailbox.add(event);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                lock.lock();
+                try {
+                    scheduled = false;
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            Object event;
+
+            lock.lock();
+            try {
+                drainer = Thread.currentThread();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                while ((event = next()) != null) {
+                    cursorLock.lock();
+                    try {
+                        if (!stateMachine.isTerminal(cursor.state())) {
+                            stateMachine.fire(cursor, event);
+                        }
+                    } catch (RuntimeException e) {
+                        final Thread thread = Thread.currentThread();
+                        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                    } finally {
+                        cursorLock.unlock();
+                    }
+                }
+            } finally {
+                lock.lock();
+                try {
+                    if (drainer == Thread.currentThread()) {
+                        drainer = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private Object next() {
+            lock.lock();
+            try {
+                final Object event = stopped ? null : mailbox.poll();
+
+                if (event == null) {
+                    scheduled = false;
+                } else if (overflowPolicy == OverflowPolicy.BLOCK && mailbox.size() == mailboxCapacity - 1) {
+                    notFull.signalAll();
+                }
+                return event;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                mailbox = null;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Tuple<STATE, RS> snapshot() {
+            cursorLock.lock();
+            try {
+                return cursor.toTuple();
+            } finally {
+                cursorLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package playing.statemachine.classstateful;
+
+import playing.statemachine.MachineCursor;
+import playing.util.Tuple;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owns the machine state of many instances keyed by ID.  Events for a single instance are serialised through one of a
+ * fixed number of lock stripes while events for instances on different stripes proceed in parallel.  Instances are
+ * looked up under their stripe so that an event can not be applied to an instance that has just been removed.  Each instance is
+ * held as a mutable {@link MachineCursor} so that firing an event does not allocate a new machine state.
+ */
+public class MachineRegistry<ID, STATE, RS> {
+    private static final int STRIPES_PER_PROCESSOR = 16;
+
+    private final StateMachine<STATE, RS> stateMachine;
+    private final ConcurrentHashMap<ID, MachineCursor<STATE, RS>> instances;
+    private final Object[] stripes;
+    private final int stripeMask;
+
+    public MachineRegistry(StateMachine<STATE, RS> stateMachine) {
+        this(stateMachine, Runtime.getRuntime().availableProcessors() * STRIPES_PER_PROCESSOR, 16);
+    }
+
+    public MachineRegistry(StateMachine<STATE, RS> stateMachine, int stripeCount, int expectedInstances) {
+        final int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+
+        this.stateMachine = stateMachine;
+        this.instances = new ConcurrentHashMap<>(expectedInstances);
+        this.stripes = new Object[size];
+        this.stripeMask = size - 1;
+        for (int lp = 0; lp < size; lp += 1) {
+            stripes[lp] = new Object();
+        }
+    }
+
+    public boolean register(ID id, RS runtimeState) {
+        return instances.putIfAbsent(id, stateMachine.cursor(runtimeState)) == null;
+    }
+
+    public boolean register(ID id, Tuple<STATE, RS> machineState) {
+        return instances.putIfAbsent(id, new MachineCursor<>(machineState._1, machineState._2)) == null;
+    }
+
+    public boolean fire(ID id, Object event) {
+        synchronized (stripe(id)) {
+            final MachineCursor<STATE, RS> cursor = instances.get(id);
+            if (cursor == null) {
+                throw new IllegalArgumentException("Unknown instance " + id);
+            }
+
+            return stateMachine.fire(cursor, event);
+        }
+    }
+
+    public Optional<Tuple<STATE, RS>> get(ID id) {
+        synchronized (stripe(id)) {
+            return Optional.ofNullable(instances.get(id)).map(MachineCursor::toTuple);
+        }
+    }
+
+    public Optional<Tuple<STATE, RS>> remove(ID id) {
+        synchronized (stripe(id)) {
+            return Optional.ofNullable(instances.remove(id)).map(MachineCursor::toTuple);
+        }
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    private Object stripe(ID id) {
+        final int hash = id.hashCode();
+
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+}
@@ -0,0 +1,247 @@
+package playing.statemachine.classstateful;
+
+import playing.statemachine.MachineCursor;
+import playing.statemachine.StateMachineWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A composite state made of independent regions, each a {@link StateMachine} with its own state and runtime state,
+ * that all receive every event.  The composite's state is one {@link MachineCursor} per region, in the order the
+ * regions were declared.
+ * <p>
+ * Regions run one after the other on the calling thread unless a {@link ForkJoinPool} is given, in which case each
+ * region runs as its own task.  Either way every region receives the event, the call returns once all of them have
+ * processed it and, should any region fail, the failure of the first failing region in declaration order is thrown.
+ * Since regions share nothing, the resulting cursors are the same whichever way they are run.  Neither way allocates
+ * per event: the sequential path loops over the regions directly and the parallel path reuses one task per region.
+ */
+public class OrthogonalRegions {
+    private final String name;
+    private final List<Region<?, ?>> regions;
+    private final ForkJoinPool pool;
+    private final RegionTask[] tasks;
+    private final FanOut fanOut = new FanOut();
+    private final boolean[] matched;
+    private final RuntimeException[] failures;
+
+    private OrthogonalRegions(String name, List<Region<?, ?>> regions, ForkJoinPool pool) {
+        this.name = name;
+        this.regions = regions;
+        this.pool = pool;
+        this.tasks = new RegionTask[pool == null ? 0 : regions.size()];
+        this.matched = new boolean[tasks.length];
+        this.failures = new RuntimeException[tasks.length];
+        for (int lp = 0; lp < tasks.length; lp += 1) {
+            tasks[lp] = new RegionTask(lp);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public List<StateMachineWriter<?, String>> regions() {
+        final List<StateMachineWriter<?, String>> result = new ArrayList<>();
+        for (Region<?, ?> region : regions) {
+            result.add(region.stateMachine);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public List<MachineCursor<?, ?>> cursors(Object... runtimeStates) {
+        if (runtimeStates.length != regions.size()) {
+            throw new IllegalArgumentException("Expected " + regions.size() + " runtime states but received " + runtimeStates.length);
+        }
+
+        final List<MachineCursor<?, ?>> cursors = new ArrayList<>();
+        for (int lp = 0; lp < runtimeStates.length; lp += 1) {
+            cursors.add(regions.get(lp).cursor(runtimeStates[lp]));
+        }
+        return cursors;
+    }
+
+    /**
+     * Fires <code>event</code> in every region.
+     *
+     * @return whether any region had a transition for the event
+     */
+    public boolean fire(List<MachineCursor<?, ?>> cursors, Object event) {
+        if (pool != null) {
+            return fanOut(cursors, event, null);
+        }
+
+        boolean matched = false;
+        RuntimeException failure = null;
+        for (int lp = 0; lp < regions.size(); lp += 1) {
+            try {
+                matched |= regions.get(lp).fire(cursors.get(lp), event);
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return matched;
+    }
+
+    /**
+     * Processes <code>events</code> in order in every region.  When running on a pool each region processes the
+     * whole sequence as a single task rather than joining after every event.
+     */
+    public void process(List<MachineCursor<?, ?>> cursors, Object... events) {
+        if (pool != null) {
+            fanOut(cursors, null, events);
+            return;
+        }
+
+        RuntimeException failure = null;
+        for (int lp = 0; lp < regions.size(); lp += 1) {
+            try {
+                regions.get(lp).process(cursors.get(lp), events);
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public boolean isTerminal(List<MachineCursor<?, ?>> cursors) {
+        for (int lp = 0; lp < regions.size(); lp += 1) {
+            if (!regions.get(lp).isTerminal(cursors.get(lp))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs one task per region on the pool.  The tasks and their result arrays belong to this instance and are reused
+     * for every event, so callers sharing an instance take turns.
+     */
+    private synchronized boolean fanOut(List<MachineCursor<?, ?>> cursors, Object event, Object[] events) {
+        for (RegionTask task : tasks) {
+            task.reinitialize();
+            task.cursors = cursors;
+            task.event = event;
+            task.events = events;
+        }
+        fanOut.reinitialize();
+        pool.invoke(fanOut);
+
+        boolean anyMatched = false;
+        RuntimeException failure = null;
+        for (int lp = 0; lp < tasks.length; lp += 1) {
+            anyMatched |= matched[lp];
+            failure = failure == null ? failures[lp] : failure;
+            matched[lp] = false;
+            failures[lp] = null;
+            tasks[lp].cursors = null;
+            tasks[lp].event = null;
+            tasks[lp].events = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return anyMatched;
+    }
+
+    private class FanOut extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    private class RegionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private List<MachineCursor<?, ?>> cursors;
+        private Object event;
+        private Object[] events;
+
+        private RegionTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (events == null) {
+                    matched[index] = regions.get(index).fire(cursors.get(index), event);
+                } else {
+                    regions.get(index).process(cursors.get(index), events);
+                }
+            } catch (RuntimeException e) {
+                failures[index] = e;
+            }
+        }
+    }
+
+    private static class Region<STATE, RS> {
+        private final StateMachine<STATE, RS> stateMachine;
+
+        private Region(StateMachine<STATE, RS> stateMachine) {
+            this.stateMachine = stateMachine;
+        }
+
+        private MachineCursor<STATE, RS> cursor(Object runtimeState) {
+            return stateMachine.cursor((RS) runtimeState);
+        }
+
+        private boolean fire(MachineCursor<?, ?> cursor, Object event) {
+            return stateMachine.fire((MachineCursor<STATE, RS>) cursor, event);
+        }
+
+        private void process(MachineCursor<?, ?> cursor, Object[] events) {
+            for (Object event : events) {
+                stateMachine.fire((MachineCursor<STATE, RS>) cursor, event);
+            }
+        }
+
+        private boolean isTerminal(MachineCursor<?, ?> cursor) {
+            return stateMachine.isTerminal(((MachineCursor<STATE, RS>) cursor).state());
+        }
+    }
+
+    public static class Builder {
+        private final String name;
+        private final List<Region<?, ?>> regions = new ArrayList<>();
+        private ForkJoinPool pool;
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder region(StateMachine<?, ?> stateMachine) {
+            regions.add(new Region<>(stateMachine));
+            return this;
+        }
+
+        public Builder parallel() {
+            return parallel(ForkJoinPool.commonPool());
+        }
+
+        public Builder parallel(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public OrthogonalRegions build() {
+            if (regions.isEmpty()) {
+                throw new IllegalStateException("Orthogonal regions " + name + " declare no region");
+            }
+            return new OrthogonalRegions(name, new ArrayList<>(regions), pool);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package playing.statemachine.classstateful;
+
+import playing.statemachine.MachineCursor;
+
+import java.util.ArrayDeque;
+
+/**
+ * Run-to-completion processing of one machine instance.  Events posted while an event is being processed, typically
+ * by the actions of the transition it takes, are queued rather than fired re-entrantly, and are processed in order by
+ * the outermost {@link #post} once the current event has completed, so the stack does not grow however many
+ * follow-up events are raised.
+ * <p>
+ * Events the current state {@link StateMachine.Builder.OnStateBuilder#defer defers} are parked and offered again, in
+ * arrival order and ahead of any queued events, each time the machine enters a different state.  Both queues are
+ * array deques sized up front that only grow beyond their initial capacity, so steady state processing does not
+ * allocate.  Like a {@link MachineCursor}, a queue belongs to the thread that posts to it.
+ */
+public class RunToCompletionQueue<STATE, RS> {
+    private final StateMachine<STATE, RS> stateMachine;
+    private final MachineCursor<STATE, RS> cursor;
+    private final ArrayDeque<Object> queued;
+    private final ArrayDeque<Object> deferred;
+    private boolean processing;
+
+    public RunToCompletionQueue(StateMachine<STATE, RS> stateMachine, MachineCursor<STATE, RS> cursor, int capacity) {
+        this.stateMachine = stateMachine;
+        this.cursor = cursor;
+        this.queued = new ArrayDeque<>(capacity);
+        this.deferred = new ArrayDeque<>(capacity);
+    }
+
+    public MachineCursor<STATE, RS> cursor() {
+        return cursor;
+    }
+
+    public int deferredCount() {
+        return deferred.size();
+    }
+
+    /**
+     * Processes <code>event</code>, together with any follow-up events it raises.  When called from an action the
+     * event is queued behind the event being processed instead.  Should an action fail, the events still queued are
+     * kept and processed by the next call.
+     */
+    public void post(Object event) {
+        queued.addLast(event);
+        drain();
+    }
+
+    /**
+     * Processes a batch of <code>events</code> in order, as {@link #post(Object)} does for each of them.  Actions
+     * should post their follow-up events one at a time, which does not allocate.
+     */
+    public void post(Object... events) {
+        for (Object event : events) {
+            queued.addLast(event);
+        }
+        drain();
+    }
+
+    private void drain() {
+        if (processing) {
+            return;
+        }
+
+        processing = true;
+        try {
+            while (!queued.isEmpty()) {
+                process(queued.pollFirst());
+            }
+        } finally {
+            processing = false;
+        }
+    }
+
+    private void process(Object event) {
+        final STATE state = cursor.state();
+
+        if (stateMachine.isDeferred(state, event)) {
+            deferred.addLast(event);
+        } else if (stateMachine.fire(cursor, event) && !deferred.isEmpty() && !state.equals(cursor.state())) {
+            while (!deferred.isEmpty()) {
+                queued.addFirst(deferred.pollLast());
+            }
+        }
+    }
+}
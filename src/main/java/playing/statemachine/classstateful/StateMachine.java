@@ -1,56 +1,297 @@
 package playing.statemachine.classstateful;
 
-import playing.statemachine.StateMachineTransition;
-import playing.statemachine.StateMachineWriter;
+import playing.statemachine.*;
+import playing.util.DenseIds;
+import playing.util.LookupTable;
+import playing.util.MapUtil;
 import playing.util.Tuple;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.*;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String> {
+    private static final StateTimeout[] NO_TIMEOUTS = new StateTimeout[0];
+
     private final STATE initialState;
     private final List<Transition<STATE, RS>> transitions;
-    private final Map<STATE, Function<RS, RS>> onEntryActions;
-    private final Map<STATE, Function<RS, RS>> onExitActions;
-
-    private final Function<RS, RS> IDENTITY = x -> x;
-
-    private StateMachine(STATE initialState, List<Transition<STATE, RS>> transitions, Map<STATE, Function<RS, RS>> onEntryActions, Map<STATE, Function<RS, RS>> onExitActions) {
+    private final List<Transition<STATE, RS>> declaredTransitions;
+    private final Map<STATE, STATE> parents;
+    private final EventClassIndex<STATE, Transition<STATE, RS>> transitionIndex;
+    private final LookupTable<STATE, Boolean> terminalStates;
+    private final Dispatcher dispatcher;
+    private final DispatchTable<STATE> table;
+    private final CompiledDispatcher compiled;
+    private final Transition<STATE, RS>[] byId;
+    private final MachineMetrics metrics;
+    private final CallbackLatencies latencies;
+    private final LookupTable<STATE, ClassValue<AdaptiveCandidates<Transition<STATE, RS>>>> adaptiveIndex;
+    private final LongAdder guardsSaved = new LongAdder();
+    private final LookupTable<STATE, ClassValue<DiscriminatedCandidates<Transition<STATE, RS>>>> discriminatedIndex;
+    private final LookupTable<STATE, StateTimeout[]> timeouts;
+    private final LookupTable<STATE, ClassValue<Boolean>> deferrals;
+    private final int maximumTimeouts;
+
+    private StateMachine(STATE initialState, List<Transition<STATE, RS>> transitions, List<Transition<STATE, RS>> declaredTransitions, Map<STATE, STATE> parents, Set<STATE> terminalStates, Map<STATE, Set<Class>> exclusiveEvents, Map<STATE, Map<Class, Function<?, ?>>> discriminators, Map<STATE, Set<Class>> deferredEvents, Dispatcher dispatcher, DispatchTable<STATE> table, CompiledDispatcher compiled, MachineMetrics metrics, CallbackLatencies latencies) {
         this.initialState = initialState;
         this.transitions = transitions;
-        this.onEntryActions = onEntryActions;
-        this.onExitActions = onExitActions;
+        this.declaredTransitions = declaredTransitions;
+        this.parents = parents;
+        this.transitionIndex = EventClassIndex.build(transitions, Transition::fromState, Transition::eventClass, Transition[]::new);
+        this.adaptiveIndex = exclusiveEvents.isEmpty() ? null : adaptiveIndex(exclusiveEvents);
+        this.discriminatedIndex = discriminators.isEmpty() ? null : discriminatedIndex(discriminators);
+        this.timeouts = timeoutIndex(transitions);
+        this.deferrals = deferredEvents.isEmpty() ? null : deferralIndex(deferredEvents);
+        this.maximumTimeouts = transitions.stream().map(Transition::fromState).mapToInt(state -> timeouts(state).length).max().orElse(0);
+        this.terminalStates = LookupTable.ofKeys(terminalStates);
+        this.dispatcher = dispatcher;
+        this.table = table;
+        this.compiled = compiled;
+        this.byId = byId(transitions);
+        this.metrics = metrics;
+        this.latencies = latencies;
     }
 
     public Tuple<STATE, RS> start(RS runtimeState) {
         return new Tuple<>(initialState, runtimeState);
     }
 
+    public MachineCursor<STATE, RS> cursor(RS runtimeState) {
+        return new MachineCursor<>(initialState, runtimeState);
+    }
+
+    /**
+     * A cursor whose <code>after</code> transitions are timed on <code>wheel</code>: they fire on the thread that
+     * advances the wheel, which should be the thread that fires events through the cursor.
+     */
+    public TimedCursor<STATE, RS> cursor(RS runtimeState, TimingWheel wheel) {
+        return new TimedCursor<>(this::timeouts, this::fire, wheel, initialState, runtimeState, maximumTimeouts);
+    }
+
     public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Object... events) {
-        Tuple<STATE, RS> runningMachineState = machineState;
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
 
         for (Object event : events) {
-            final Optional<Transition<STATE, RS>> transitionOptional = findTransition(runningMachineState._1, runningMachineState._2, event);
+            fire(cursor, event);
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Iterator<?> events) {
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
+
+        while (!isTerminal(cursor.state()) && events.hasNext()) {
+            fire(cursor, events.next());
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Spliterator<?> events) {
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
+        final Consumer<Object> fireEvent = event -> fire(cursor, event);
+
+        while (!isTerminal(cursor.state())) {
+            if (!events.tryAdvance(fireEvent)) {
+                break;
+            }
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Stream<?> events) {
+        return process(machineState, events.spliterator());
+    }
+
+    /**
+     * Fires the events of a single sequential stream at a cursor starting from <code>machineState</code>, ignoring those
+     * after a terminal state; see {@link SequentialCollector}.
+     */
+    public Collector<Object, ?, Tuple<STATE, RS>> collector(Tuple<STATE, RS> machineState) {
+        return SequentialCollector.of(
+                () -> new MachineCursor<>(machineState._1, machineState._2),
+                (cursor, event) -> {
+                    if (!isTerminal(cursor.state())) {
+                        fire(cursor, event);
+                    }
+                },
+                MachineCursor::toTuple);
+    }
+
+    public List<Tuple<STATE, RS>> processAll(List<Tuple<STATE, RS>> instances, IntFunction<Object[]> eventsFor) {
+        return processAll(ForkJoinPool.commonPool(), instances, eventsFor);
+    }
+
+    public List<Tuple<STATE, RS>> processAll(ForkJoinPool pool, List<Tuple<STATE, RS>> instances, IntFunction<Object[]> eventsFor) {
+        return BulkProcessor.processAll(pool, instances, (index, instance) -> process(instance, eventsFor.apply(index)));
+    }
+
+    public Optional<MachineMetrics> metrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public Optional<CallbackLatencies> latencies() {
+        return Optional.ofNullable(latencies);
+    }
+
+    /**
+     * The number of guard evaluations that adaptive ordering of mutually exclusive guards has saved compared to
+     * evaluating them in declaration order.
+     */
+    public long guardEvaluationsSaved() {
+        return Math.max(0, guardsSaved.sum());
+    }
+
+    public boolean isTerminal(STATE state) {
+        return terminalStates.get(state) != null;
+    }
+
+    /**
+     * Whether <code>state</code>, or a state it is nested within, defers events of <code>event</code>'s class.
+     */
+    public boolean isDeferred(STATE state, Object event) {
+        if (deferrals == null || event == null) {
+            return false;
+        }
+
+        final ClassValue<Boolean> deferred = deferrals.get(state);
+        return deferred != null && deferred.get(event.getClass());
+    }
+
+    public boolean fire(MachineCursor<STATE, RS> cursor, Object event) {
+        final Transition<STATE, RS> transition = findTransition(cursor.state(), cursor.runtimeState(), event);
+
+        if (transition == null) {
+            dispatcher.unmatched(cursor.state(), event);
+            return false;
+        }
+
+        cursor.moveTo(transition.toState(), (RS) dispatcher.fire(transition.id(), cursor.runtimeState(), event));
+        return true;
+    }
+
+    private Transition<STATE, RS> findTransition(STATE state, RS runtimeState, Object event) {
+        if (discriminatedIndex != null && event != null) {
+            final ClassValue<DiscriminatedCandidates<Transition<STATE, RS>>> classTable = discriminatedIndex.get(state);
+            final DiscriminatedCandidates<Transition<STATE, RS>> discriminated = classTable == null ? null : classTable.get(event.getClass());
+
+            if (discriminated != null) {
+                return firstMatch(discriminated.candidates(event), runtimeState, event);
+            }
+        }
+        if (adaptiveIndex != null && event != null) {
+            final ClassValue<AdaptiveCandidates<Transition<STATE, RS>>> classTable = adaptiveIndex.get(state);
+            final AdaptiveCandidates<Transition<STATE, RS>> adaptive = classTable == null ? null : classTable.get(event.getClass());
+
+            if (adaptive != null) {
+                return findTransition(adaptive, runtimeState, event);
+            }
+        }
+        if (compiled != null) {
+            final int id = table.find(compiled, state, runtimeState, event);
 
-            if (transitionOptional.isPresent()) {
-                final Transition<STATE, RS> transition = transitionOptional.get();
-                final Function<RS, RS> onExitAction = onExitActions.getOrDefault(transition.fromState(), IDENTITY);
-                final Function<RS, RS> onEntryAction = onEntryActions.getOrDefault(transition.toState(), IDENTITY);
+            if (id != DispatchTable.UNRESOLVED) {
+                return id == DispatchTable.NO_TRANSITION ? null : byId[id];
+            }
+        }
+
+        final Transition<STATE, RS>[] candidates = transitionIndex.find(state, event);
+
+        return candidates == null ? null : firstMatch(candidates, runtimeState, event);
+    }
 
-                runningMachineState = new Tuple<>(transition.toState(),
-                        onEntryAction.apply(
-                                transition.applyAction(
-                                        onExitAction.apply(runningMachineState._2),
-                                        event)));
+    private Transition<STATE, RS> firstMatch(Transition<STATE, RS>[] candidates, RS runtimeState, Object event) {
+        for (Transition<STATE, RS> candidate : candidates) {
+            if (dispatcher.guard(candidate.id(), runtimeState, event)) {
+                return candidate;
             }
         }
+        return null;
+    }
+
+    private Transition<STATE, RS> findTransition(AdaptiveCandidates<Transition<STATE, RS>> adaptive, RS runtimeState, Object event) {
+        final AdaptiveCandidates.Ordering<Transition<STATE, RS>> ordering = adaptive.ordering();
+        final Transition<STATE, RS>[] candidates = ordering.candidates;
+
+        for (int lp = 0; lp < candidates.length; lp += 1) {
+            if (dispatcher.guard(candidates[lp].id(), runtimeState, event)) {
+                adaptive.hit(ordering, lp);
+                return candidates[lp];
+            }
+        }
+        return null;
+    }
+
+    private static <STATE, RS> Transition<STATE, RS>[] byId(List<Transition<STATE, RS>> transitions) {
+        final Transition<STATE, RS>[] result = new Transition[transitions.stream().mapToInt(Transition::id).max().orElse(-1) + 1];
+
+        for (Transition<STATE, RS> transition : transitions) {
+            result[transition.id()] = transition;
+        }
+        return result;
+    }
 
-        return runningMachineState;
+    private LookupTable<STATE, ClassValue<AdaptiveCandidates<Transition<STATE, RS>>>> adaptiveIndex(Map<STATE, Set<Class>> exclusiveEvents) {
+        final Map<STATE, ClassValue<AdaptiveCandidates<Transition<STATE, RS>>>> classTables = new HashMap<>();
+
+        for (STATE state : statesInheriting(exclusiveEvents.keySet())) {
+            classTables.put(state, new AdaptiveCandidatesByClass<>(transitionIndex.candidates(state), exclusiveEvents, guardsSaved));
+        }
+        return LookupTable.of(classTables);
     }
 
-    private Optional<Transition<STATE, RS>> findTransition(STATE state, RS runtimeState, Object event) {
-        return transitions.stream().filter(t -> t.canFire(state, runtimeState, event)).findFirst();
+    private LookupTable<STATE, ClassValue<DiscriminatedCandidates<Transition<STATE, RS>>>> discriminatedIndex(Map<STATE, Map<Class, Function<?, ?>>> discriminators) {
+        final Map<STATE, ClassValue<DiscriminatedCandidates<Transition<STATE, RS>>>> classTables = new HashMap<>();
+
+        for (STATE state : statesInheriting(discriminators.keySet())) {
+            classTables.put(state, new DiscriminatedCandidatesByClass<>(transitionIndex.candidates(state), discriminators));
+        }
+        return LookupTable.of(classTables);
+    }
+
+    StateTimeout[] timeouts(STATE state) {
+        final StateTimeout[] result = timeouts.get(state);
+        return result == null ? NO_TIMEOUTS : result;
+    }
+
+    private static <STATE, RS> LookupTable<STATE, StateTimeout[]> timeoutIndex(List<Transition<STATE, RS>> transitions) {
+        final Map<STATE, Set<StateTimeout>> byState = new LinkedHashMap<>();
+
+        for (Transition<STATE, RS> transition : transitions) {
+            if (transition.eventClass() == StateTimeout.class) {
+                MapUtil.getOrElse(byState, transition.fromState(), LinkedHashSet::new).add((StateTimeout) transition.key());
+            }
+        }
+
+        final Map<STATE, StateTimeout[]> result = new HashMap<>();
+        byState.forEach((state, stateTimeouts) -> result.put(state, stateTimeouts.toArray(new StateTimeout[0])));
+        return LookupTable.of(result);
+    }
+
+    private static <STATE> LookupTable<STATE, ClassValue<Boolean>> deferralIndex(Map<STATE, Set<Class>> deferredEvents) {
+        final Map<STATE, ClassValue<Boolean>> classTables = new HashMap<>();
+
+        deferredEvents.forEach((state, eventClasses) -> classTables.put(state, new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return eventClasses.stream().anyMatch(eventClass -> eventClass.isAssignableFrom(type));
+            }
+        }));
+        return LookupTable.of(classTables);
+    }
+
+    private Set<STATE> statesInheriting(Set<STATE> sources) {
+        return transitions.stream()
+                .filter(t -> sources.contains(t.source()))
+                .map(Transition::fromState)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
     }
 
     @Override
@@ -60,35 +301,259 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
 
     @Override
     public Iterable<StateMachineTransition<STATE, String>> transitions() {
-        return transitions.stream().collect(Collectors.toList());
+        return declaredTransitions.stream().collect(Collectors.toList());
+    }
+
+    @Override
+    public Map<STATE, STATE> parents() {
+        return Collections.unmodifiableMap(parents);
     }
 
     public static class Builder<STATE, RS> {
         private STATE initialState;
         private final List<Transition<STATE, RS>> transitions = new ArrayList<>();
+        private final Set<STATE> terminalStates = new HashSet<>();
+        private String metricsName;
+        private boolean strict;
+        private final List<TransitionListener> listeners = new ArrayList<>();
+        private boolean timeCallbacks;
         private final Map<STATE, Function<RS, RS>> onEntryActions = new HashMap<>();
         private final Map<STATE, Function<RS, RS>> onExitActions = new HashMap<>();
+        private final Map<STATE, Set<Class>> exclusiveEvents = new HashMap<>();
+        private final Map<STATE, Map<Class, Function<?, ?>>> discriminators = new HashMap<>();
+        private final Set<STATE> states = new LinkedHashSet<>();
+        private final Map<STATE, STATE> parents = new LinkedHashMap<>();
+        private final Map<STATE, STATE> initialSubstates = new HashMap<>();
+        private final Map<STATE, Set<Class>> deferredEvents = new HashMap<>();
 
         public Builder<STATE, RS> initialState(STATE initialState) {
             this.initialState = initialState;
             return this;
         }
 
+        public Builder<STATE, RS> terminalState(STATE terminalState) {
+            terminalStates.add(terminalState);
+            return this;
+        }
+
         public Builder<STATE, RS> onState(STATE state, Function<OnStateBuilder<STATE, RS>, OnStateBuilder<STATE, RS>> onStateBuilderFunction) {
+            states.add(state);
             onStateBuilderFunction.apply(new OnStateBuilder<>(this, state));
             return this;
         }
 
+        public Builder<STATE, RS> metrics(String name) {
+            this.metricsName = name;
+            return this;
+        }
+
+        public Builder<STATE, RS> listener(TransitionListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        public Builder<STATE, RS> latencies() {
+            this.timeCallbacks = true;
+            return this;
+        }
+
+        public Builder<STATE, RS> strict() {
+            this.strict = true;
+            return this;
+        }
+
+        public TransitionAnalysis<STATE, ? extends StateMachineTransition<STATE, String>> analyse() {
+            return analysis(resolvedTransitions());
+        }
+
         public StateMachine<STATE, RS> build() {
-            return new StateMachine<>(initialState, transitions, onEntryActions, onExitActions);
+            return create(false);
+        }
+
+        public StateMachine<STATE, RS> compile() {
+            return create(true);
+        }
+
+        private StateMachine<STATE, RS> create(boolean compile) {
+            final List<Transition<STATE, RS>> resolved = resolvedTransitions();
+            final MachineMetrics metrics = metricsName == null ? null : MachineMetrics.of(metricsName, resolved, true);
+            final CallbackLatencies latencies = timeCallbacks ? CallbackLatencies.of(resolved) : null;
+            final DispatchHooks hooks = new DispatchHooks(metrics, latencies, resolved, listeners);
+            final List<Transition<STATE, RS>> live = liveTransitions(resolved);
+            final DispatchTable<STATE> table = compile ? DispatchTable.byEventClass(DenseIds.of(live.stream().map(Transition::fromState).collect(Collectors.toList())), live, Transition::id, Transition::fromState, Transition::eventClass) : null;
+            final CompiledDispatcher compiled = compile ? Dispatchers.compile(callbacks(resolved), table, hooks) : null;
+            final Dispatcher dispatcher = compile ? compiled : hooks.decorate(Dispatchers.interpret(callbacks(resolved)));
+
+            return new StateMachine<>(resolve(initialState), live, parents.isEmpty() ? live : new ArrayList<>(transitions), new LinkedHashMap<>(parents), new HashSet<>(terminalStates), new HashMap<>(exclusiveEvents), new HashMap<>(discriminators), deferrals(), dispatcher, table, compiled, metrics, latencies);
+        }
+
+        private List<Transition<STATE, RS>> liveTransitions(List<Transition<STATE, RS>> resolved) {
+            final TransitionAnalysis<STATE, Transition<STATE, RS>> analysis = analysis(resolved);
+
+            if (strict && !analysis.isValid()) {
+                throw new IllegalStateException("Invalid state machine: " + analysis);
+            }
+            return analysis.live();
+        }
+
+        private TransitionAnalysis<STATE, Transition<STATE, RS>> analysis(List<Transition<STATE, RS>> resolved) {
+            return TransitionAnalysis.of(resolve(initialState), resolved, t -> t.condition() == null && t.key() == null, (earlier, later) -> earlier.eventClass().isAssignableFrom(later.eventClass()), t -> !t.source().equals(t.fromState()));
+        }
+
+        /**
+         * The event classes deferred in each state the machine can be in, including those deferred by the states it
+         * is nested within.
+         */
+        private Map<STATE, Set<Class>> deferrals() {
+            final Map<STATE, Set<Class>> result = new HashMap<>();
+
+            if (!deferredEvents.isEmpty()) {
+                for (STATE state : currentStates()) {
+                    final Set<Class> deferred = new HashSet<>();
+                    for (STATE ancestor : ancestry(state)) {
+                        deferred.addAll(deferredEvents.getOrDefault(ancestor, Collections.emptySet()));
+                    }
+                    if (!deferred.isEmpty()) {
+                        result.put(state, deferred);
+                    }
+                }
+            }
+            return result;
         }
 
-        private <EVENT> void addTransition(STATE fromState, Class eventClass, BiPredicate<RS, EVENT> condition, STATE toState, BiFunction<RS, EVENT, RS> action) {
-            transitions.add(new Transition<>(fromState, eventClass, condition, toState, action));
+        private List<TransitionCallbacks> callbacks(List<Transition<STATE, RS>> resolved) {
+            return resolved.stream().map(t -> new TransitionCallbacks(
+                    Callback.biPredicate(t.condition()),
+                    Callback.function(t.exit()),
+                    Callback.biFunction(t.action()),
+                    Callback.function(t.entry()))).collect(Collectors.toList());
+        }
+
+        /**
+         * Flattens the declared transitions into the transitions taken from each state the machine can be in: its
+         * own transitions followed by those inherited from its parent, its parent's parent and so on.  Each flattened
+         * transition carries its target resolved through initial substates and the exit and entry actions of the
+         * states it leaves and enters on the way through the lowest common ancestor, so nothing is walked at runtime.
+         * Without any parents declared this is the declared transitions in declaration order.
+         */
+        private List<Transition<STATE, RS>> resolvedTransitions() {
+            final Set<STATE> current = currentStates();
+            final List<Transition<STATE, RS>> resolved = new ArrayList<>();
+
+            for (int level = 0; ; level += 1) {
+                boolean deeper = false;
+
+                for (Transition<STATE, RS> transition : transitions) {
+                    for (STATE state : current) {
+                        final List<STATE> path = ancestry(state);
+
+                        deeper |= path.size() > level + 1;
+                        if (path.size() > level && path.get(level).equals(transition.fromState())) {
+                            resolved.add(resolve(resolved.size(), state, transition));
+                        }
+                    }
+                }
+                if (!deeper) {
+                    return resolved;
+                }
+            }
+        }
+
+        private Transition<STATE, RS> resolve(int id, STATE state, Transition<STATE, RS> transition) {
+            final STATE toState = resolve(transition.toState());
+            final List<STATE> targetPath = ancestry(toState);
+            final STATE ancestor = commonAncestor(transition.fromState(), transition.toState());
+
+            Function<RS, RS> exit = null;
+            for (STATE exited : ancestry(state)) {
+                if (exited.equals(ancestor)) {
+                    break;
+                }
+                exit = andThen(exit, onExitActions.get(exited));
+            }
+
+            Function<RS, RS> entry = null;
+            for (int lp = targetPath.indexOf(ancestor) == -1 ? targetPath.size() - 1 : targetPath.indexOf(ancestor) - 1; lp >= 0; lp -= 1) {
+                entry = andThen(entry, onEntryActions.get(targetPath.get(lp)));
+            }
+
+            return transition.resolve(id, state, toState, exit, entry);
         }
 
-        private <EVENT> void addTransitionConsumer(STATE state, Class eventClass, BiPredicate<RS, EVENT> condition, STATE toState, BiConsumer<RS, EVENT> consumer) {
-            addTransition(state, eventClass, condition, toState, (fromRuntimeState, event) -> {
+        /**
+         * The lowest state that strictly contains both <code>fromState</code> and <code>toState</code>, or
+         * <code>null</code> if they only share the root.  A transition from a state to itself or to one of its own
+         * substates is external: it leaves and re-enters <code>fromState</code>.
+         */
+        private STATE commonAncestor(STATE fromState, STATE toState) {
+            final List<STATE> fromPath = ancestry(fromState);
+            final List<STATE> toPath = ancestry(toState);
+
+            for (STATE ancestor : fromPath.subList(1, fromPath.size())) {
+                if (toPath.subList(1, toPath.size()).contains(ancestor)) {
+                    return ancestor;
+                }
+            }
+            return null;
+        }
+
+        private Function<RS, RS> andThen(Function<RS, RS> first, Function<RS, RS> second) {
+            return first == null ? second : second == null ? first : first.andThen(second);
+        }
+
+        private STATE resolve(STATE state) {
+            STATE result = state;
+            while (initialSubstates.containsKey(result)) {
+                result = initialSubstates.get(result);
+            }
+            return result;
+        }
+
+        private List<STATE> ancestry(STATE state) {
+            final List<STATE> path = new ArrayList<>();
+            for (STATE ancestor = state; ancestor != null; ancestor = parents.get(ancestor)) {
+                if (path.contains(ancestor)) {
+                    throw new IllegalStateException("The parents of " + state + " form a cycle: " + path);
+                }
+                path.add(ancestor);
+            }
+            return path;
+        }
+
+        /**
+         * The states the machine can be in: the initial state, the targets of transitions and every state without
+         * substates, each resolved through initial substates.  A superstate is only current if it is entered
+         * directly and has no initial substate.
+         */
+        private Set<STATE> currentStates() {
+            final Set<STATE> known = new LinkedHashSet<>();
+            known.add(initialState);
+            known.addAll(states);
+            for (Transition<STATE, RS> transition : transitions) {
+                known.add(transition.fromState());
+                known.add(transition.toState());
+            }
+            known.addAll(parents.values());
+
+            final Set<STATE> current = new LinkedHashSet<>();
+            current.add(resolve(initialState));
+            for (Transition<STATE, RS> transition : transitions) {
+                current.add(resolve(transition.toState()));
+            }
+            for (STATE state : known) {
+                if (!parents.containsValue(state)) {
+                    current.add(resolve(state));
+                }
+            }
+            return current;
+        }
+
+        private <EVENT> void addTransition(STATE fromState, Class eventClass, BiPredicate<RS, EVENT> condition, Object key, STATE toState, BiFunction<RS, EVENT, RS> action) {
+            transitions.add(new Transition<>(transitions.size(), fromState, eventClass, condition, key, toState, action));
+        }
+
+        private <EVENT> void addTransitionConsumer(STATE state, Class eventClass, BiPredicate<RS, EVENT> condition, Object key, STATE toState, BiConsumer<RS, EVENT> consumer) {
+            addTransition(state, eventClass, condition, key, toState, (fromRuntimeState, event) -> {
                 consumer.accept(fromRuntimeState, event);
                 return fromRuntimeState;
             });
@@ -102,6 +567,38 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
             onExitActions.put(state, action);
         }
 
+        private void addParent(STATE state, STATE parent) {
+            parents.put(state, parent);
+            ancestry(state);
+        }
+
+        private void addInitialSubstate(STATE state, STATE substate) {
+            initialSubstates.put(state, substate);
+        }
+
+        private StateTimeout addTimeout(STATE state, Duration duration) {
+            if (!isDiscriminated(state, StateTimeout.class)) {
+                addDiscriminator(state, StateTimeout.class, Function.identity());
+            }
+            return new StateTimeout(state, duration);
+        }
+
+        private void addDeferred(STATE state, Class eventClass) {
+            MapUtil.getOrElse(deferredEvents, state, HashSet::new).add(eventClass);
+        }
+
+        private void addMutuallyExclusive(STATE state, Class eventClass) {
+            MapUtil.getOrElse(exclusiveEvents, state, HashSet::new).add(eventClass);
+        }
+
+        private void addDiscriminator(STATE state, Class eventClass, Function<?, ?> discriminator) {
+            MapUtil.getOrElse(discriminators, state, HashMap::new).put(eventClass, discriminator);
+        }
+
+        private boolean isDiscriminated(STATE state, Class eventClass) {
+            return discriminators.getOrDefault(state, Collections.emptyMap()).containsKey(eventClass);
+        }
+
         public static class OnStateBuilder<STATE, RS> {
             private final Builder<STATE, RS> builder;
             private final STATE state;
@@ -118,6 +615,54 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
                 return new OnStateEventBuilder<>(this);
             }
 
+            /**
+             * Declares a transition taken once the machine has stayed in this state for <code>duration</code>.  It
+             * is only timed for cursors created with a {@link TimingWheel}, which cancel the timer as soon as the
+             * state is left.
+             */
+            public OnStateEventBuilder<STATE, StateTimeout, RS> after(Duration duration) {
+                final StateTimeout timeout = builder.addTimeout(state, duration);
+                return onEvent(StateTimeout.class).when(timeout);
+            }
+
+            /**
+             * Parks events of <code>eventClass</code> that arrive through a {@link RunToCompletionQueue} while the
+             * machine is in this state.  They are offered again, in arrival order, once the machine enters another
+             * state.
+             */
+            public OnStateBuilder<STATE, RS> defer(Class<?> eventClass) {
+                builder.addDeferred(state, eventClass);
+                return this;
+            }
+
+            /**
+             * Nests this state within <code>parent</code>.  Events this state has no transition for are handled by
+             * the transitions of its parent, and so on up to the outermost state.
+             */
+            public OnStateBuilder<STATE, RS> parent(STATE parent) {
+                builder.addParent(state, parent);
+                return this;
+            }
+
+            /**
+             * The substate entered when a transition targets this state.  Without one a transition to this state
+             * makes it the current state.
+             */
+            public OnStateBuilder<STATE, RS> initialSubstate(STATE substate) {
+                builder.addInitialSubstate(state, substate);
+                return this;
+            }
+
+            /**
+             * Declares that at most one guard of this state's transitions on <code>eventClass</code> holds for any
+             * runtime state and event, which allows the guards to be evaluated in order of how often they hold.  Only
+             * events whose candidate transitions were all declared on mutually exclusive event classes are reordered.
+             */
+            public OnStateBuilder<STATE, RS> mutuallyExclusive(Class<?> eventClass) {
+                builder.addMutuallyExclusive(state, eventClass);
+                return this;
+            }
+
             public OnStateBuilder<STATE, RS> onExitAction(Function<RS, RS> exitAction) {
                 builder.addOnStateExitAction(state, exitAction);
                 return this;
@@ -146,12 +691,22 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
             }
 
 
-            private <EVENT> void addAction(BiPredicate<RS, EVENT> condition, STATE toState, BiFunction<RS, EVENT, RS> action) {
-                builder.addTransition(state, eventClass, condition, toState == null ? state : toState, action);
+            private <EVENT> void addAction(BiPredicate<RS, EVENT> condition, Object key, STATE toState, BiFunction<RS, EVENT, RS> action) {
+                builder.addTransition(state, eventClass, condition, key, toState == null ? state : toState, action);
             }
 
-            private <EVENT> void addConsumer(BiPredicate<RS, EVENT> condition, STATE toState, BiConsumer<RS, EVENT> consumer) {
-                builder.addTransitionConsumer(state, eventClass, condition, toState == null ? state : toState, consumer);
+            private <EVENT> void addConsumer(BiPredicate<RS, EVENT> condition, Object key, STATE toState, BiConsumer<RS, EVENT> consumer) {
+                builder.addTransitionConsumer(state, eventClass, condition, key, toState == null ? state : toState, consumer);
+            }
+
+            private void addDiscriminator(Function<?, ?> discriminator) {
+                builder.addDiscriminator(state, eventClass, discriminator);
+            }
+
+            private void requireDiscriminator() {
+                if (!builder.isDiscriminated(state, eventClass)) {
+                    throw new IllegalStateException("No discriminator declared for " + state + " on " + eventClass);
+                }
             }
         }
 
@@ -159,11 +714,11 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
             private final OnStateBuilder<STATE, RS> onStateBuilder;
             private STATE toState;
             private BiPredicate<RS, EVENT> condition;
+            private Object key;
 
 
             private OnStateEventBuilder(OnStateBuilder<STATE, RS> onStateBuilder) {
                 this.onStateBuilder = onStateBuilder;
-                this.condition = (s, e) -> true;
             }
 
             public OnStateEventBuilder<STATE, EVENT, RS> condition(BiPredicate<RS, EVENT> condition) {
@@ -171,30 +726,100 @@ public class StateMachine<STATE, RS> implements StateMachineWriter<STATE, String
                 return this;
             }
 
+            /**
+             * Declares a discriminator for this state's transitions on this event class.  Transitions declared
+             * {@link #when} a key are then selected by looking up the discriminator's value for the event instead of by
+             * testing their guards in turn.
+             */
+            public OnStateEventBuilder<STATE, EVENT, RS> discriminateBy(Function<EVENT, ?> discriminator) {
+                onStateBuilder.addDiscriminator(discriminator);
+                return this;
+            }
+
+            public OnStateEventBuilder<STATE, EVENT, RS> when(Object key) {
+                if (key == null) {
+                    throw new IllegalArgumentException("A discriminator key can not be null");
+                }
+
+                onStateBuilder.requireDiscriminator();
+                this.key = key;
+                return this;
+            }
+
             public OnStateEventBuilder<STATE, EVENT, RS> changeTo(STATE toState) {
                 this.toState = toState;
                 return this;
             }
 
             public OnStateBuilder<STATE, RS> action(BiFunction<RS, EVENT, RS> action) {
-                onStateBuilder.addAction(condition, toState, action);
+                onStateBuilder.addAction(condition, key, toState, action);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, RS> noAction() {
-                onStateBuilder.addAction(condition, toState, (x, e) -> x);
+                onStateBuilder.addAction(condition, key, toState, (x, e) -> x);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, RS> consumer(BiConsumer<RS, EVENT> consumer) {
-                onStateBuilder.addConsumer(condition, toState, consumer);
+                onStateBuilder.addConsumer(condition, key, toState, consumer);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, RS> noConsumer() {
-                onStateBuilder.addAction(condition, toState, (x, e) -> x);
+                onStateBuilder.addAction(condition, key, toState, (x, e) -> x);
                 return onStateBuilder;
             }
         }
     }
+
+    private static class AdaptiveCandidatesByClass<STATE, RS> extends ClassValue<AdaptiveCandidates<Transition<STATE, RS>>> {
+        private final ClassValue<Transition<STATE, RS>[]> candidates;
+        private final Map<STATE, Set<Class>> exclusiveEvents;
+        private final LongAdder guardsSaved;
+
+        private AdaptiveCandidatesByClass(ClassValue<Transition<STATE, RS>[]> candidates, Map<STATE, Set<Class>> exclusiveEvents, LongAdder guardsSaved) {
+            this.candidates = candidates;
+            this.exclusiveEvents = exclusiveEvents;
+            this.guardsSaved = guardsSaved;
+        }
+
+        @Override
+        protected AdaptiveCandidates<Transition<STATE, RS>> computeValue(Class<?> type) {
+            final Transition<STATE, RS>[] declared = candidates.get(type);
+
+            for (Transition<STATE, RS> transition : declared) {
+                if (!exclusiveEvents.getOrDefault(transition.source(), Collections.emptySet()).contains(transition.eventClass())) {
+                    return null;
+                }
+            }
+            return declared.length < 2 ? null : new AdaptiveCandidates<>(declared, guardsSaved);
+        }
+    }
+
+    private static class DiscriminatedCandidatesByClass<STATE, RS> extends ClassValue<DiscriminatedCandidates<Transition<STATE, RS>>> {
+        private final ClassValue<Transition<STATE, RS>[]> candidates;
+        private final Map<STATE, Map<Class, Function<?, ?>>> discriminators;
+
+        private DiscriminatedCandidatesByClass(ClassValue<Transition<STATE, RS>[]> candidates, Map<STATE, Map<Class, Function<?, ?>>> discriminators) {
+            this.candidates = candidates;
+            this.discriminators = discriminators;
+        }
+
+        @Override
+        protected DiscriminatedCandidates<Transition<STATE, RS>> computeValue(Class<?> type) {
+            final Transition<STATE, RS>[] declared = candidates.get(type);
+
+            final Set<Function<?, ?>> keyedBy = new HashSet<>();
+            for (Transition<STATE, RS> transition : declared) {
+                if (transition.key() != null) {
+                    keyedBy.add(discriminators.get(transition.source()).get(transition.eventClass()));
+                }
+            }
+            if (keyedBy.size() > 1) {
+                throw new IllegalStateException("Events of " + type + " match transitions with different discriminators");
+            }
+            return keyedBy.isEmpty() ? null : DiscriminatedCandidates.of(keyedBy.iterator().next(), Arrays.asList(declared), Transition::key, Transition[]::new);
+        }
+    }
 }
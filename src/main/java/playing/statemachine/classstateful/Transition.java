@@ -4,36 +4,76 @@ import playing.statemachine.StateMachineTransition;
 
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 
 class Transition<STATE, RS> implements StateMachineTransition<STATE, String> {
+    private final int id;
     private final STATE fromState;
     private final Class eventClass;
     private final BiPredicate<RS, ?> condition;
+    private final Object key;
     private final STATE toState;
     private final BiFunction<RS, ?, RS> action;
+    private final STATE source;
+    private final Function<RS, RS> exit;
+    private final Function<RS, RS> entry;
 
-    Transition(STATE fromState, Class eventClass, BiPredicate<RS, ?> condition, STATE toState, BiFunction<RS, ?, RS> action) {
+    Transition(int id, STATE fromState, Class eventClass, BiPredicate<RS, ?> condition, Object key, STATE toState, BiFunction<RS, ?, RS> action) {
+        this(id, fromState, eventClass, condition, key, toState, action, fromState, null, null);
+    }
+
+    private Transition(int id, STATE fromState, Class eventClass, BiPredicate<RS, ?> condition, Object key, STATE toState, BiFunction<RS, ?, RS> action, STATE source, Function<RS, RS> exit, Function<RS, RS> entry) {
+        this.id = id;
         this.fromState = fromState;
         this.eventClass = eventClass;
         this.condition = condition;
+        this.key = key;
         this.toState = toState;
         this.action = action;
+        this.source = source;
+        this.exit = exit;
+        this.entry = entry;
+    }
+
+    /**
+     * A copy of this declared transition as taken from <code>fromState</code>, which is either the state the
+     * transition was declared on or one of its substates, running the composed <code>exit</code> and
+     * <code>entry</code> actions on its way to <code>toState</code>.
+     */
+    Transition<STATE, RS> resolve(int id, STATE fromState, STATE toState, Function<RS, RS> exit, Function<RS, RS> entry) {
+        return new Transition<>(id, fromState, eventClass, condition, key, toState, action, source, exit, entry);
+    }
+
+    int id() {
+        return id;
+    }
+
+    Class eventClass() {
+        return eventClass;
     }
 
-    boolean canFire(STATE currentState, RS runtimeState, Object event) {
-        if (currentState.equals(fromState) && eventClass.isInstance(event)) {
-            BiPredicate<RS, Object> objectCondition = (BiPredicate<RS, Object>) condition;
+    BiPredicate<RS, ?> condition() {
+        return condition;
+    }
+
+    Object key() {
+        return key;
+    }
+
+    BiFunction<RS, ?, RS> action() {
+        return action;
+    }
+
+    STATE source() {
+        return source;
+    }
 
-            if (objectCondition.test(runtimeState, event)) {
-                return true;
-            }
-        }
-        return false;
+    Function<RS, RS> exit() {
+        return exit;
     }
 
-    public RS applyAction(RS runtimeState, Object event) {
-        final BiFunction<RS, Object, RS> eventAction = (BiFunction<RS, Object, RS>) action;
-        return eventAction.apply(runtimeState, event);
+    Function<RS, RS> entry() {
+        return entry;
     }
 
     @Override
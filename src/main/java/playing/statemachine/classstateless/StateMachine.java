@@ -1,59 +1,247 @@
 package playing.statemachine.classstateless;
 
-import playing.statemachine.StateMachineTransition;
-import playing.statemachine.StateMachineWriter;
+import playing.statemachine.*;
+import playing.util.DenseIds;
+import playing.util.LookupTable;
+import playing.util.MapUtil;
 import playing.util.VoidConsumer;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
-    private static final VoidConsumer STATELESS_ACTION = () -> {
-    };
+    private static final StateTimeout[] NO_TIMEOUTS = new StateTimeout[0];
 
     private STATE initialState;
     private List<Transition<STATE>> transitions;
-    private Map<STATE, VoidConsumer> onEntryActions;
-    private Map<STATE, VoidConsumer> onExitActions;
-
-    private StateMachine(STATE initialState, List<Transition<STATE>> transitions, Map<STATE, VoidConsumer> onEntryActions, Map<STATE, VoidConsumer> onExitActions) {
+    private EventClassIndex<STATE, Transition<STATE>> transitionIndex;
+    private LookupTable<STATE, Boolean> terminalStates;
+    private Dispatcher dispatcher;
+    private DispatchTable<STATE> table;
+    private CompiledDispatcher compiled;
+    private Transition<STATE>[] byId;
+    private MachineMetrics metrics;
+    private DenseIds<STATE> stateIds;
+    private ClassValue<Transition<STATE>[]>[] candidatesByStateId;
+    private int[] toStateIds;
+    private boolean[] terminalStateIds;
+    private LookupTable<STATE, StateTimeout[]> timeouts;
+    private int maximumTimeouts;
+
+    private StateMachine(STATE initialState, List<Transition<STATE>> transitions, Set<STATE> terminalStates, Map<STATE, StateTimeout[]> timeouts, DenseIds<STATE> stateIds, Dispatcher dispatcher, DispatchTable<STATE> table, CompiledDispatcher compiled, MachineMetrics metrics) {
         this.initialState = initialState;
         this.transitions = transitions;
-        this.onEntryActions = onEntryActions;
-        this.onExitActions = onExitActions;
+        this.transitionIndex = EventClassIndex.build(transitions, Transition::fromState, Transition::eventClass, Transition[]::new);
+        this.terminalStates = LookupTable.ofKeys(terminalStates);
+        this.dispatcher = dispatcher;
+        this.table = table;
+        this.compiled = compiled;
+        this.metrics = metrics;
+        this.stateIds = stateIds;
+        this.candidatesByStateId = new ClassValue[stateIds.size()];
+        this.toStateIds = new int[transitions.stream().mapToInt(Transition::id).max().orElse(-1) + 1];
+        this.byId = new Transition[toStateIds.length];
+        this.terminalStateIds = new boolean[stateIds.size()];
+        this.timeouts = LookupTable.of(timeouts);
+        this.maximumTimeouts = timeouts.values().stream().mapToInt(stateTimeouts -> stateTimeouts.length).max().orElse(0);
+
+        for (int lp = 0; lp < stateIds.size(); lp += 1) {
+            candidatesByStateId[lp] = transitionIndex.candidates(stateIds.value(lp));
+        }
+        for (Transition<STATE> transition : transitions) {
+            toStateIds[transition.id()] = stateIds.id(transition.toState());
+            byId[transition.id()] = transition;
+        }
+        for (STATE terminalState : terminalStates) {
+            terminalStateIds[stateIds.id(terminalState)] = true;
+        }
     }
 
     public STATE start() {
         return initialState;
     }
 
+    public MachineCursor<STATE, Void> cursor() {
+        return new MachineCursor<>(initialState, null);
+    }
+
+    /**
+     * A cursor whose <code>after</code> transitions are timed on <code>wheel</code>: they fire on the thread that
+     * advances the wheel, which should be the thread that fires events through the cursor.
+     */
+    public TimedCursor<STATE, Void> cursor(TimingWheel wheel) {
+        return new TimedCursor<>(this::timeouts, this::fire, wheel, initialState, null, maximumTimeouts);
+    }
+
     public STATE process(STATE machineState, Object... events) {
-        STATE runningMachineState = machineState;
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
 
         for (Object event : events) {
-            final Optional<Transition<STATE>> transitionOptional = findTransition(runningMachineState, event);
+            fire(cursor, event);
+        }
+
+        return cursor.state();
+    }
 
-            if (transitionOptional.isPresent()) {
-                final Transition<STATE> transition = transitionOptional.get();
-                final VoidConsumer onExitAction = onExitActions.getOrDefault(transition.fromState(), STATELESS_ACTION);
-                final VoidConsumer onEntryAction = onEntryActions.getOrDefault(transition.toState(), STATELESS_ACTION);
+    public STATE process(STATE machineState, Iterator<?> events) {
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
 
-                onExitAction.accept();
-                transition.acceptAction(event);
-                onEntryAction.accept();
+        while (!isTerminal(cursor.state()) && events.hasNext()) {
+            fire(cursor, events.next());
+        }
 
-                runningMachineState = transition.toState();
+        return cursor.state();
+    }
+
+    public STATE process(STATE machineState, Spliterator<?> events) {
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
+        final Consumer<Object> fireEvent = event -> fire(cursor, event);
+
+        while (!isTerminal(cursor.state())) {
+            if (!events.tryAdvance(fireEvent)) {
+                break;
             }
         }
 
-        return runningMachineState;
+        return cursor.state();
+    }
+
+    public STATE process(STATE machineState, Stream<?> events) {
+        return process(machineState, events.spliterator());
+    }
+
+    /**
+     * Fires the events of a single sequential stream at a cursor starting from <code>machineState</code>, ignoring those
+     * after a terminal state; see {@link SequentialCollector}.
+     */
+    public Collector<Object, ?, STATE> collector(STATE machineState) {
+        return SequentialCollector.of(
+                () -> new MachineCursor<STATE, Void>(machineState, null),
+                (cursor, event) -> {
+                    if (!isTerminal(cursor.state())) {
+                        fire(cursor, event);
+                    }
+                },
+                MachineCursor::state);
+    }
+
+    public List<STATE> processAll(List<STATE> instances, IntFunction<Object[]> eventsFor) {
+        return processAll(ForkJoinPool.commonPool(), instances, eventsFor);
+    }
+
+    public List<STATE> processAll(ForkJoinPool pool, List<STATE> instances, IntFunction<Object[]> eventsFor) {
+        return BulkProcessor.processAll(pool, instances, (index, instance) -> process(instance, eventsFor.apply(index)));
+    }
+
+    public Optional<MachineMetrics> metrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public boolean isTerminal(STATE state) {
+        return terminalStates.get(state) != null;
+    }
+
+    public boolean fire(MachineCursor<STATE, ?> cursor, Object event) {
+        final Transition<STATE> transition = findTransition(cursor.state(), event);
+
+        if (transition == null) {
+            dispatcher.unmatched(cursor.state(), event);
+            return false;
+        }
+
+        dispatcher.fire(transition.id(), null, event);
+
+        cursor.moveTo(transition.toState());
+        return true;
+    }
+
+    /**
+     * Fires <code>event</code> against the state with id <code>stateId</code> and returns the resulting state id, which
+     * is <code>stateId</code> itself when no transition matches.  Ids are dense, assigned at build time and translated
+     * with {@link #stateId(Object)} and {@link #state(int)}.
+     */
+    public int fire(int stateId, Object event) {
+        if (compiled != null) {
+            final int id = table.find(compiled, stateId, null, event);
+
+            if (id >= 0) {
+                compiled.fire(id, null, event);
+                return toStateIds[id];
+            }
+            if (id == DispatchTable.NO_TRANSITION) {
+                compiled.unmatched(stateIds.value(stateId), event);
+                return stateId;
+            }
+        }
+
+        final ClassValue<Transition<STATE>[]> classTable = event == null ? null : candidatesByStateId[stateId];
+
+        if (classTable != null) {
+            for (Transition<STATE> candidate : classTable.get(event.getClass())) {
+                final int id = candidate.id();
+
+                if (dispatcher.guard(id, null, event)) {
+                    dispatcher.fire(id, null, event);
+                    return toStateIds[id];
+                }
+            }
+        }
+        dispatcher.unmatched(stateIds.value(stateId), event);
+        return stateId;
+    }
+
+    public int initialStateId() {
+        return stateIds.id(initialState);
+    }
+
+    public int stateId(STATE state) {
+        return stateIds.id(state);
+    }
+
+    public STATE state(int stateId) {
+        return stateIds.value(stateId);
     }
 
-    private Optional<Transition<STATE>> findTransition(STATE state, Object event) {
-        return transitions.stream().filter(t -> t.canFire(state, event)).findFirst();
+    public int stateCount() {
+        return stateIds.size();
+    }
+
+    public boolean isTerminalStateId(int stateId) {
+        return terminalStateIds[stateId];
+    }
+
+    private StateTimeout[] timeouts(STATE state) {
+        final StateTimeout[] result = timeouts.get(state);
+        return result == null ? NO_TIMEOUTS : result;
+    }
+
+    private Transition<STATE> findTransition(STATE state, Object event) {
+        if (compiled != null) {
+            final int id = table.find(compiled, state, null, event);
+
+            if (id != DispatchTable.UNRESOLVED) {
+                return id == DispatchTable.NO_TRANSITION ? null : byId[id];
+            }
+        }
+
+        final Transition<STATE>[] candidates = transitionIndex.find(state, event);
+
+        if (candidates != null) {
+            for (Transition<STATE> candidate : candidates) {
+                if (dispatcher.guard(candidate.id(), null, event)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
     }
 
     @Override
@@ -69,8 +257,13 @@ public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
     public static class Builder<STATE> {
         private STATE initialState;
         private final List<Transition<STATE>> transitions = new ArrayList<>();
+        private final Set<STATE> terminalStates = new HashSet<>();
+        private String metricsName;
+        private boolean strict;
+        private final List<TransitionListener> listeners = new ArrayList<>();
         private final Map<STATE, VoidConsumer> onEntryActions = new HashMap<>();
         private final Map<STATE, VoidConsumer> onExitActions = new HashMap<>();
+        private final Map<STATE, List<StateTimeout>> timeouts = new HashMap<>();
 
 
         public Builder<STATE> initialState(STATE initialState) {
@@ -78,18 +271,91 @@ public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
             return this;
         }
 
+        public Builder<STATE> terminalState(STATE terminalState) {
+            terminalStates.add(terminalState);
+            return this;
+        }
+
         public Builder<STATE> onState(STATE state, Function<OnStateBuilder<STATE>, OnStateBuilder<STATE>> onStateBuilderFunction) {
             onStateBuilderFunction.apply(new OnStateBuilder<>(this, state));
             return this;
         }
 
+        public Builder<STATE> metrics(String name) {
+            this.metricsName = name;
+            return this;
+        }
+
+        public Builder<STATE> listener(TransitionListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        public Builder<STATE> strict() {
+            this.strict = true;
+            return this;
+        }
+
+        public TransitionAnalysis<STATE, ? extends StateMachineTransition<STATE, String>> analyse() {
+            return analysis();
+        }
+
         public StateMachine<STATE> build() {
-            return new StateMachine<>(initialState, transitions, onEntryActions, onExitActions);
+            return create(false);
+        }
+
+        public StateMachine<STATE> compile() {
+            return create(true);
+        }
+
+        private StateMachine<STATE> create(boolean compile) {
+            final MachineMetrics metrics = metricsName == null ? null : MachineMetrics.of(metricsName, transitions, true);
+            final DispatchHooks hooks = new DispatchHooks(metrics, null, transitions, listeners);
+
+            final Map<STATE, StateTimeout[]> stateTimeouts = new HashMap<>();
+            timeouts.forEach((state, declared) -> stateTimeouts.put(state, declared.toArray(new StateTimeout[0])));
+
+            final List<Transition<STATE>> live = liveTransitions();
+            final DenseIds<STATE> stateIds = DenseIds.of(Stream.concat(
+                    Stream.concat(Stream.of(initialState), live.stream().flatMap(t -> Stream.of(t.fromState(), t.toState()))),
+                    terminalStates.stream()).collect(Collectors.toList()));
+            final DispatchTable<STATE> table = compile ? DispatchTable.byEventClass(stateIds, live, Transition::id, Transition::fromState, Transition::eventClass) : null;
+            final CompiledDispatcher compiled = compile ? Dispatchers.compile(callbacks(), table, hooks) : null;
+            final Dispatcher dispatcher = compile ? compiled : hooks.decorate(Dispatchers.interpret(callbacks()));
+
+            return new StateMachine<>(initialState, live, new HashSet<>(terminalStates), stateTimeouts, stateIds, dispatcher, table, compiled, metrics);
+        }
+
+        private List<Transition<STATE>> liveTransitions() {
+            final TransitionAnalysis<STATE, Transition<STATE>> analysis = analysis();
+
+            if (strict && !analysis.isValid()) {
+                throw new IllegalStateException("Invalid state machine: " + analysis);
+            }
+            return analysis.live();
+        }
+
+        private TransitionAnalysis<STATE, Transition<STATE>> analysis() {
+            return TransitionAnalysis.of(initialState, transitions, t -> t.condition() == null, (earlier, later) -> earlier.eventClass().isAssignableFrom(later.eventClass()));
         }
 
+        private List<TransitionCallbacks> callbacks() {
+            return transitions.stream().map(t -> new TransitionCallbacks(
+                    Callback.predicate(t.condition()),
+                    Callback.voidConsumer(onExitActions.get(t.fromState())),
+                    Callback.consumer(t.action()),
+                    Callback.voidConsumer(onEntryActions.get(t.toState())))).collect(Collectors.toList());
+        }
 
         private <EVENT> void addTransition(STATE fromState, Class eventClass, Predicate<EVENT> condition, STATE toState, Consumer<EVENT> action) {
-            transitions.add(new Transition<>(fromState, eventClass, condition, toState, action));
+            transitions.add(new Transition<>(transitions.size(), fromState, eventClass, condition, toState, action));
+        }
+
+        private StateTimeout addTimeout(STATE state, Duration duration) {
+            final StateTimeout timeout = new StateTimeout(state, duration);
+
+            MapUtil.getOrElse(timeouts, state, ArrayList::new).add(timeout);
+            return timeout;
         }
 
         private void addOnStateEntryAction(STATE state, VoidConsumer action) {
@@ -113,7 +379,17 @@ public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
 
             public <EVENT> OnStateEventBuilder<STATE, EVENT> onEvent(Class<EVENT> eventClass) {
                 this.eventClass = eventClass;
-                return new OnStateEventBuilder<>(this);
+                return new OnStateEventBuilder<>(this, null);
+            }
+
+            /**
+             * Declares a transition taken once the machine has stayed in this state for <code>duration</code>.  It
+             * is only timed for cursors created with a {@link TimingWheel}, which cancel the timer as soon as the
+             * state is left.
+             */
+            public OnStateEventBuilder<STATE, StateTimeout> after(Duration duration) {
+                this.eventClass = StateTimeout.class;
+                return new OnStateEventBuilder<>(this, builder.addTimeout(state, duration));
             }
 
             public OnStateBuilder<STATE> onExitAction(VoidConsumer exitAction) {
@@ -141,13 +417,23 @@ public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
 
         public static class OnStateEventBuilder<STATE, EVENT> {
             private final OnStateBuilder<STATE> onStateBuilder;
+            private final StateTimeout timeout;
             private STATE toState;
             private Predicate<EVENT> condition;
 
 
-            private OnStateEventBuilder(OnStateBuilder<STATE> onStateBuilder) {
+            private OnStateEventBuilder(OnStateBuilder<STATE> onStateBuilder, StateTimeout timeout) {
                 this.onStateBuilder = onStateBuilder;
-                this.condition = (e) -> true;
+                this.timeout = timeout;
+            }
+
+            private Predicate<EVENT> matching() {
+                if (timeout == null) {
+                    return condition;
+                }
+
+                final Predicate<EVENT> declared = condition;
+                return declared == null ? event -> event == timeout : event -> event == timeout && declared.test(event);
             }
 
             public OnStateEventBuilder<STATE, EVENT> condition(Predicate<EVENT> condition) {
@@ -161,23 +447,23 @@ public class StateMachine<STATE> implements StateMachineWriter<STATE, String> {
             }
 
             public OnStateBuilder<STATE> action(Consumer<EVENT> action) {
-                onStateBuilder.addAction(condition, toState, action);
+                onStateBuilder.addAction(matching(), toState, action);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE> noAction() {
-                onStateBuilder.addAction(condition, toState, (e) -> {
+                onStateBuilder.addAction(matching(), toState, (e) -> {
                 });
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE> consumer(Consumer<EVENT> consumer) {
-                onStateBuilder.addAction(condition, toState, consumer);
+                onStateBuilder.addAction(matching(), toState, consumer);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE> noConsumer() {
-                onStateBuilder.addAction(condition, toState, (e) -> {
+                onStateBuilder.addAction(matching(), toState, (e) -> {
                 });
                 return onStateBuilder;
             }
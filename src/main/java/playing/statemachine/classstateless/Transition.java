@@ -6,13 +6,15 @@ import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 class Transition<STATE> implements StateMachineTransition<STATE, String> {
+    private final int id;
     private final STATE fromState;
     private final Class eventClass;
     private final Predicate<?> condition;
     private final STATE toState;
     private final Consumer<?> action;
 
-    Transition(STATE fromState, Class eventClass, Predicate<?> condition, STATE toState, Consumer<?> action) {
+    Transition(int id, STATE fromState, Class eventClass, Predicate<?> condition, STATE toState, Consumer<?> action) {
+        this.id = id;
         this.fromState = fromState;
         this.eventClass = eventClass;
         this.condition = condition;
@@ -20,20 +22,20 @@ class Transition<STATE> implements StateMachineTransition<STATE, String> {
         this.action = action;
     }
 
-    boolean canFire(STATE currentState, Object event) {
-        if (currentState.equals(fromState) && eventClass.isInstance(event)) {
-            Predicate<Object> objectCondition = (Predicate<Object>) condition;
+    int id() {
+        return id;
+    }
+
+    Class eventClass() {
+        return eventClass;
+    }
 
-            if (objectCondition.test(event)) {
-                return true;
-            }
-        }
-        return false;
+    Predicate<?> condition() {
+        return condition;
     }
 
-    public void acceptAction(Object event) {
-        final Consumer<Object> eventStatelessAction = (Consumer<Object>) action;
-        eventStatelessAction.accept(event);
+    Consumer<?> action() {
+        return action;
     }
 
     @Override
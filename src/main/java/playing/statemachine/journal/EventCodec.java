@@ -0,0 +1,14 @@
+package playing.statemachine.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes events into, and decodes them from, journal records.  <code>encode</code> writes at the buffer's position
+ * and may throw {@link java.nio.BufferOverflowException} when the event does not fit; <code>decode</code> receives a
+ * buffer limited to exactly the bytes that were encoded.
+ */
+public interface EventCodec<E> {
+    void encode(E event, ByteBuffer buffer);
+
+    E decode(ByteBuffer buffer);
+}
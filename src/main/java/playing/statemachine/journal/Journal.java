@@ -0,0 +1,432 @@
+package playing.statemachine.journal;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of accepted events held in fixed size, memory-mapped segment files.  Each record is
+ * <code>[length][crc32][sequence][instanceId][stateId][event]</code> where the length is written last so that a
+ * record only becomes visible once complete.  Appends only copy into the mapped segment; a flusher thread forces the
+ * dirty segments every flush interval so that a single fsync covers every event appended since the previous one.
+ * <p>
+ * On open the segments are scanned and the journal is truncated at the first record whose length, sequence or
+ * checksum does not hold, discarding any later segments, so that a torn tail left by a crash is never replayed.
+ * <p>
+ * The position of every record is also indexed in memory by instance id, eight bytes per record, so that
+ * {@link #events(long)} reads only the records of that instance instead of scanning the whole journal.
+ */
+public class Journal<E> implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MICROS = 1_000;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int RECORD_FIXED_SIZE = 20;
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final Path directory;
+    private final EventCodec<E> codec;
+    private final int segmentSize;
+    private final long flushIntervalNanos;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Long, RecordPositions> positions = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final Object durability = new Object();
+    private final Thread flusher;
+    private Segment current;
+    private long nextSequence;
+    private int firstDirtySegment;
+    private volatile long durableSequence;
+    private volatile boolean closed;
+
+    private Journal(Path directory, EventCodec<E> codec, int segmentSize, long flushIntervalNanos) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.flushIntervalNanos = flushIntervalNanos;
+
+        recover();
+
+        this.flusher = new Thread(this::flushLoop, "journal-flusher-" + directory.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static <E> Journal<E> open(Path directory, EventCodec<E> codec) throws IOException {
+        return open(directory, codec, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    public static <E> Journal<E> open(Path directory, EventCodec<E> codec, int segmentSize, long flushInterval, TimeUnit unit) throws IOException {
+        if (segmentSize < RECORD_HEADER_SIZE + RECORD_FIXED_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+
+        Files.createDirectories(directory);
+        return new Journal<>(directory, codec, segmentSize, unit.toNanos(flushInterval));
+    }
+
+    public synchronized long append(long instanceId, int stateId, E event) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+
+        final long sequence = nextSequence;
+        int start = current.buffer.position();
+        if (!write(current.buffer, sequence, instanceId, stateId, event)) {
+            roll();
+            start = current.buffer.position();
+            if (!write(current.buffer, sequence, instanceId, stateId, event)) {
+                throw new IllegalArgumentException("Event does not fit into a journal segment: " + event);
+            }
+        }
+        index(instanceId, segments.size() - 1, start);
+        nextSequence = sequence + 1;
+
+        return sequence;
+    }
+
+    public synchronized long nextSequence() {
+        return nextSequence;
+    }
+
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    public void sync() {
+        synchronized (durability) {
+            final long target;
+            final List<Segment> dirty;
+
+            synchronized (this) {
+                target = nextSequence - 1;
+                if (target <= durableSequence) {
+                    return;
+                }
+                dirty = new ArrayList<>(segments.subList(firstDirtySegment, segments.size()));
+                firstDirtySegment = segments.size() - 1;
+            }
+
+            for (Segment segment : dirty) {
+                segment.force();
+            }
+
+            durableSequence = target;
+            durability.notifyAll();
+        }
+    }
+
+    public void awaitDurable(long sequence) throws InterruptedException {
+        synchronized (durability) {
+            while (durableSequence < sequence) {
+                durability.wait();
+            }
+        }
+    }
+
+    public Iterator<JournalRecord<E>> replay(long fromSequence) {
+        final List<ByteBuffer> buffers = new ArrayList<>();
+
+        synchronized (this) {
+            for (int lp = 0; lp < segments.size(); lp += 1) {
+                final Segment segment = segments.get(lp);
+
+                if (lp + 1 < segments.size() && segments.get(lp + 1).firstSequence <= fromSequence) {
+                    continue;
+                }
+
+                final ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.limit(segment == current ? current.buffer.position() : buffer.capacity());
+                buffer.position(0);
+                buffers.add(buffer);
+            }
+        }
+
+        return new RecordIterator(buffers.iterator(), fromSequence);
+    }
+
+    public Iterator<E> events(long instanceId) {
+        final long[] recorded;
+        final List<ByteBuffer> buffers = new ArrayList<>();
+
+        synchronized (this) {
+            final RecordPositions instance = positions.get(instanceId);
+            if (instance == null) {
+                return Collections.emptyIterator();
+            }
+
+            recorded = Arrays.copyOf(instance.positions, instance.size);
+            for (Segment segment : segments) {
+                buffers.add(segment.buffer.duplicate());
+            }
+        }
+
+        return new Iterator<E>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < recorded.length;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final long position = recorded[next];
+                final ByteBuffer buffer = buffers.get((int) (position >>> 32));
+                final int body = (int) position + RECORD_HEADER_SIZE;
+                final int length = buffer.clear().getInt((int) position);
+
+                next += 1;
+                buffer.limit(body + length).position(body + RECORD_FIXED_SIZE);
+                return codec.decode(buffer);
+            }
+        };
+    }
+
+    public Stream<JournalRecord<E>> records() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(replay(0), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sync();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(flushIntervalNanos);
+            sync();
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(Segment::isSegment).sorted().collect(Collectors.toList());
+        }
+
+        long expected = paths.isEmpty() ? 0 : Segment.firstSequence(paths.get(0));
+        boolean truncated = false;
+        boolean deleted = false;
+        for (Path path : paths) {
+            if (truncated || Segment.firstSequence(path) != expected) {
+                truncated = true;
+                deleted = true;
+                Files.delete(path);
+                continue;
+            }
+
+            final Segment segment = Segment.open(directory, expected, segmentSize);
+            expected = scan(segment.buffer, segments.size(), expected);
+            if (!isZero(segment.buffer, segment.buffer.position())) {
+                zero(segment.buffer, segment.buffer.position());
+                truncated = true;
+            }
+            segments.add(segment);
+        }
+        if (deleted) {
+            Segment.syncDirectory(directory);
+        }
+
+        nextSequence = expected;
+        durableSequence = expected - 1;
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            current = segments.get(segments.size() - 1);
+            firstDirtySegment = segments.size() - 1;
+        }
+    }
+
+    private long scan(MappedByteBuffer buffer, int segment, long expected) {
+        final int capacity = buffer.capacity();
+
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE + RECORD_FIXED_SIZE <= capacity) {
+            final int length = buffer.getInt(position);
+            final int body = position + RECORD_HEADER_SIZE;
+
+            if (length < RECORD_FIXED_SIZE || length > capacity - body) {
+                break;
+            }
+            if (buffer.getLong(body) != expected || checksum(buffer, body, body + length) != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            index(buffer.getLong(body + 8), segment, position);
+            expected += 1;
+            position = body + length;
+        }
+
+        buffer.position(position);
+        return expected;
+    }
+
+    private boolean write(MappedByteBuffer buffer, long sequence, long instanceId, int stateId, E event) {
+        final int start = buffer.position();
+        final int body = start + RECORD_HEADER_SIZE;
+
+        if (body + RECORD_FIXED_SIZE > buffer.capacity()) {
+            return false;
+        }
+
+        try {
+            buffer.position(body);
+            buffer.putLong(sequence).putLong(instanceId).putInt(stateId);
+            codec.encode(event, buffer);
+        } catch (BufferOverflowException e) {
+            zero(buffer, body);
+            buffer.position(start);
+            return false;
+        }
+
+        final int end = buffer.position();
+        buffer.putInt(start + 4, checksum(buffer, body, end));
+        buffer.putInt(start, end - body);
+        buffer.position(end);
+        return true;
+    }
+
+    private void index(long instanceId, int segment, int position) {
+        positions.computeIfAbsent(instanceId, id -> new RecordPositions()).add((long) segment << 32 | position);
+    }
+
+    private void roll() throws IOException {
+        current = Segment.open(directory, nextSequence, segmentSize);
+        segments.add(current);
+    }
+
+    private int checksum(ByteBuffer buffer, int from, int to) {
+        final int limit = buffer.limit();
+        final int position = buffer.position();
+
+        crc.reset();
+        buffer.limit(to).position(from);
+        crc.update(buffer);
+        buffer.limit(limit).position(position);
+
+        return (int) crc.getValue();
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int from) {
+        final int capacity = buffer.capacity();
+
+        int position = from;
+        for (; position + Long.BYTES <= capacity; position += Long.BYTES) {
+            if (buffer.getLong(position) != 0) {
+                return false;
+            }
+        }
+        for (; position < capacity; position += 1) {
+            if (buffer.get(position) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void zero(ByteBuffer buffer, int from) {
+        final int capacity = buffer.capacity();
+
+        for (int position = from; position < capacity; position += ZEROS.length) {
+            buffer.put(position, ZEROS, 0, Math.min(ZEROS.length, capacity - position));
+        }
+    }
+
+    private static class RecordPositions {
+        private long[] positions = new long[4];
+        private int size;
+
+        private void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size] = position;
+            size += 1;
+        }
+    }
+
+    private class RecordIterator implements Iterator<JournalRecord<E>> {
+        private final Iterator<ByteBuffer> buffers;
+        private final long fromSequence;
+        private ByteBuffer buffer;
+        private JournalRecord<E> next;
+
+        private RecordIterator(Iterator<ByteBuffer> buffers, long fromSequence) {
+            this.buffers = buffers;
+            this.fromSequence = fromSequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public JournalRecord<E> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final JournalRecord<E> record = next;
+            next = null;
+            return record;
+        }
+
+        private JournalRecord<E> advance() {
+            while (true) {
+                if (buffer == null || buffer.remaining() < RECORD_HEADER_SIZE + RECORD_FIXED_SIZE || buffer.getInt(buffer.position()) == 0) {
+                    if (!buffers.hasNext()) {
+                        return null;
+                    }
+                    buffer = buffers.next();
+                    continue;
+                }
+
+                final int limit = buffer.limit();
+                final int body = buffer.position() + RECORD_HEADER_SIZE;
+                final int end = body + buffer.getInt(buffer.position());
+                final long sequence = buffer.getLong(body);
+
+                if (sequence < fromSequence) {
+                    buffer.position(end);
+                    continue;
+                }
+
+                buffer.limit(end).position(body + RECORD_FIXED_SIZE);
+                final E event = codec.decode(buffer);
+                buffer.limit(limit).position(end);
+
+                return new JournalRecord<>(sequence, buffer.getLong(body + 8), buffer.getInt(body + 16), event);
+            }
+        }
+    }
+}
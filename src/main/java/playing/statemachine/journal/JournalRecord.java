@@ -0,0 +1,15 @@
+package playing.statemachine.journal;
+
+public class JournalRecord<E> {
+    public final long sequence;
+    public final long instanceId;
+    public final int stateId;
+    public final E event;
+
+    public JournalRecord(long sequence, long instanceId, int stateId, E event) {
+        this.sequence = sequence;
+        this.instanceId = instanceId;
+        this.stateId = stateId;
+        this.event = event;
+    }
+}
@@ -0,0 +1,14 @@
+package playing.statemachine.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes runtime states into, and decodes them from, snapshots.  <code>encode</code> may throw
+ * {@link java.nio.BufferOverflowException}, in which case it is retried with a larger buffer; <code>decode</code>
+ * receives a buffer holding exactly the bytes that were encoded.
+ */
+public interface RuntimeStateCodec<RS> {
+    void encode(RS runtimeState, ByteBuffer buffer);
+
+    RS decode(ByteBuffer buffer);
+}
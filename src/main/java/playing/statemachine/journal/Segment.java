@@ -0,0 +1,76 @@
+package playing.statemachine.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class Segment {
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+
+    final long firstSequence;
+    final Path path;
+    final MappedByteBuffer buffer;
+    private final FileChannel channel;
+
+    private Segment(long firstSequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.firstSequence = firstSequence;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static Segment open(Path directory, long firstSequence, int size) throws IOException {
+        final Path path = directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+        final boolean created = !Files.exists(path);
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long length = Math.max(size, channel.size());
+
+        if (created) {
+            syncDirectory(directory);
+        }
+        return new Segment(firstSequence, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+    }
+
+    /**
+     * Forces the directory entry of a created or deleted segment to disk, so that a crash cannot lose a segment whose
+     * records were already forced.  Platforms that cannot open a directory, such as Windows, skip this.
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static boolean isSegment(Path path) {
+        final String name = path.getFileName().toString();
+
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long firstSequence(Path path) {
+        final String name = path.getFileName().toString();
+
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,18 @@
+package playing.statemachine.journal;
+
+import playing.util.Tuple;
+
+import java.util.Map;
+
+/**
+ * The machine state of every instance after the journal record <code>sequence</code> was applied.
+ */
+public class Snapshot<STATE, RS> {
+    public final long sequence;
+    public final Map<Long, Tuple<STATE, RS>> instances;
+
+    public Snapshot(long sequence, Map<Long, Tuple<STATE, RS>> instances) {
+        this.sequence = sequence;
+        this.instances = instances;
+    }
+}
@@ -0,0 +1,261 @@
+package playing.statemachine.journal;
+
+import playing.statemachine.MachineCursor;
+import playing.util.Tuple;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores snapshots of every instance's <code>(STATE, RS)</code> next to a {@link Journal}.  A snapshot records the
+ * journal sequence it covers so that recovery loads the latest valid snapshot and only replays the journal records
+ * after it.  Snapshots are written to a temporary file, forced and then atomically renamed, and carry a CRC32 so that
+ * a damaged snapshot is skipped in favour of the one before it.
+ * <p>
+ * Runtime states are expected to be immutable values, as elsewhere in this library.  The processing thread records
+ * each instance in a {@link VersionedInstances} as it goes, so taking a snapshot only pins the journal sequence;
+ * collecting, encoding and writing the instances as of that sequence happen on a background thread while processing
+ * continues.
+ */
+public class SnapshotStore<STATE, RS> implements AutoCloseable {
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int MAGIC = 0x534e4150;
+    private static final int RETAINED_SNAPSHOTS = 2;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final Path directory;
+    private final ToIntFunction<STATE> stateIds;
+    private final IntFunction<STATE> states;
+    private final RuntimeStateCodec<RS> codec;
+    private final long snapshotInterval;
+    private final ExecutorService writer;
+    private long lastSnapshotSequence = -1;
+    private CompletableFuture<Path> pending = CompletableFuture.completedFuture(null);
+
+    public SnapshotStore(Path directory, ToIntFunction<STATE> stateIds, IntFunction<STATE> states, RuntimeStateCodec<RS> codec, long snapshotInterval) throws IOException {
+        this.directory = directory;
+        this.stateIds = stateIds;
+        this.states = states;
+        this.codec = codec;
+        this.snapshotInterval = snapshotInterval;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "snapshot-writer-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Starts writing a snapshot of <code>instances</code> as of <code>sequence</code> once the snapshot interval has
+     * passed and the previous snapshot has been written.  Every record up to <code>sequence</code> must already have
+     * been applied to <code>instances</code>.
+     */
+    public synchronized Optional<CompletableFuture<Path>> maybeSnapshot(long sequence, VersionedInstances<STATE, RS> instances) {
+        if (sequence - lastSnapshotSequence < snapshotInterval || !pending.isDone()) {
+            return Optional.empty();
+        }
+
+        instances.pin(sequence);
+        return Optional.of(writeAsync(sequence, () -> {
+            try {
+                return new Snapshot<>(sequence, instances.at(sequence));
+            } finally {
+                instances.unpin();
+            }
+        }));
+    }
+
+    public CompletableFuture<Path> writeAsync(Snapshot<STATE, RS> snapshot) {
+        return writeAsync(snapshot.sequence, () -> snapshot);
+    }
+
+    private synchronized CompletableFuture<Path> writeAsync(long sequence, Supplier<Snapshot<STATE, RS>> snapshot) {
+        lastSnapshotSequence = sequence;
+        pending = CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(snapshot.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, writer);
+
+        return pending;
+    }
+
+    public Path write(Snapshot<STATE, RS> snapshot) throws IOException {
+        final Path path = directory.resolve(String.format("%s%020d%s", PREFIX, snapshot.sequence, SUFFIX));
+        final Path temporary = directory.resolve(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            final DataOutputStream output = new DataOutputStream(checked);
+            ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+            output.writeInt(MAGIC);
+            output.writeLong(snapshot.sequence);
+            output.writeInt(snapshot.instances.size());
+            for (Map.Entry<Long, Tuple<STATE, RS>> instance : snapshot.instances.entrySet()) {
+                buffer = encode(instance.getValue()._2, buffer);
+
+                output.writeLong(instance.getKey());
+                output.writeInt(stateIds.applyAsInt(instance.getValue()._1));
+                output.writeInt(buffer.remaining());
+                output.write(buffer.array(), 0, buffer.remaining());
+            }
+            output.flush();
+            new DataOutputStream(Channels.newOutputStream(channel)).writeInt((int) checked.getChecksum().getValue());
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        deleteAllBut(RETAINED_SNAPSHOTS);
+
+        return path;
+    }
+
+    public Optional<Snapshot<STATE, RS>> latest() throws IOException {
+        final List<Path> snapshots = snapshots();
+
+        for (int lp = snapshots.size() - 1; lp >= 0; lp -= 1) {
+            final Optional<Snapshot<STATE, RS>> snapshot = read(snapshots.get(lp));
+
+            if (snapshot.isPresent()) {
+                return snapshot;
+            }
+        }
+        return Optional.empty();
+    }
+
+    public <EVENT> Map<Long, MachineCursor<STATE, RS>> recover(Journal<EVENT> journal, BiPredicate<MachineCursor<STATE, RS>, EVENT> fire, LongFunction<MachineCursor<STATE, RS>> newInstance) throws IOException {
+        final Map<Long, MachineCursor<STATE, RS>> instances = new HashMap<>();
+        final Optional<Snapshot<STATE, RS>> snapshot = latest();
+
+        long from = 0;
+        if (snapshot.isPresent()) {
+            for (Map.Entry<Long, Tuple<STATE, RS>> instance : snapshot.get().instances.entrySet()) {
+                instances.put(instance.getKey(), new MachineCursor<>(instance.getValue()._1, instance.getValue()._2));
+            }
+            from = snapshot.get().sequence + 1;
+            synchronized (this) {
+                lastSnapshotSequence = snapshot.get().sequence;
+            }
+        }
+
+        final Iterator<JournalRecord<EVENT>> tail = journal.replay(from);
+        while (tail.hasNext()) {
+            final JournalRecord<EVENT> record = tail.next();
+
+            fire.test(instances.computeIfAbsent(record.instanceId, newInstance::apply), record.event);
+        }
+
+        return instances;
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        pending.join();
+    }
+
+    private ByteBuffer encode(RS runtimeState, ByteBuffer buffer) {
+        while (true) {
+            try {
+                buffer.clear();
+                codec.encode(runtimeState, buffer);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private Optional<Snapshot<STATE, RS>> read(Path path) throws IOException {
+        final long size = Files.size(path);
+
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)), new CRC32())) {
+            final DataInputStream input = new DataInputStream(checked);
+
+            if (size < 20 || input.readInt() != MAGIC) {
+                return Optional.empty();
+            }
+
+            final long sequence = input.readLong();
+            final int count = input.readInt();
+            if (count < 0 || count > size / 16) {
+                return Optional.empty();
+            }
+
+            final Map<Long, Tuple<STATE, RS>> instances = new HashMap<>();
+            final List<byte[]> runtimeStates = new ArrayList<>(count);
+            final long[] instanceIds = new long[count];
+            final int[] stateIds = new int[count];
+            for (int lp = 0; lp < count; lp += 1) {
+                instanceIds[lp] = input.readLong();
+                stateIds[lp] = input.readInt();
+
+                final int length = input.readInt();
+                if (length < 0 || length > size) {
+                    return Optional.empty();
+                }
+
+                final byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                runtimeStates.add(bytes);
+            }
+
+            final int expected = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(checked).readInt() != expected) {
+                return Optional.empty();
+            }
+
+            for (int lp = 0; lp < count; lp += 1) {
+                instances.put(instanceIds[lp], new Tuple<>(states.apply(stateIds[lp]), codec.decode(ByteBuffer.wrap(runtimeStates.get(lp)))));
+            }
+            return Optional.of(new Snapshot<>(sequence, instances));
+        } catch (EOFException e) {
+            return Optional.empty();
+        }
+    }
+
+    private List<Path> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(PREFIX) && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void deleteAllBut(int retained) throws IOException {
+        final List<Path> snapshots = snapshots();
+
+        for (int lp = 0; lp < snapshots.size() - retained; lp += 1) {
+            Files.deleteIfExists(snapshots.get(lp));
+        }
+    }
+}
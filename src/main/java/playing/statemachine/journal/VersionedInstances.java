@@ -0,0 +1,86 @@
+package playing.statemachine.journal;
+
+import playing.util.Tuple;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>(STATE, RS)</code> of every instance as last recorded by the thread processing events, readable by a
+ * snapshot writer as of an earlier journal sequence while processing continues.  Pinning a sequence is a single
+ * volatile write; afterwards the first update of each instance keeps the value it replaces, so the writer sees every
+ * instance as it was at the pinned sequence without the processing thread ever copying the whole map.
+ */
+public class VersionedInstances<STATE, RS> {
+    private static final long UNPINNED = -1;
+
+    private final ConcurrentHashMap<Long, Instance<STATE, RS>> instances = new ConcurrentHashMap<>();
+    private volatile long pinned = UNPINNED;
+
+    /**
+     * Records that <code>instanceId</code> reached <code>(state, runtimeState)</code> with the journal record at
+     * <code>sequence</code>.  Sequences must increase.
+     */
+    public void update(long instanceId, long sequence, STATE state, RS runtimeState) {
+        Instance<STATE, RS> instance = instances.get(instanceId);
+        if (instance == null) {
+            instance = instances.computeIfAbsent(instanceId, id -> new Instance<>());
+        }
+        instance.update(sequence, state, runtimeState, pinned);
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    void pin(long sequence) {
+        pinned = sequence;
+    }
+
+    void unpin() {
+        pinned = UNPINNED;
+    }
+
+    /**
+     * The instances as they were at the pinned <code>sequence</code>, leaving out those first recorded after it.
+     */
+    Map<Long, Tuple<STATE, RS>> at(long sequence) {
+        final Map<Long, Tuple<STATE, RS>> result = new HashMap<>();
+
+        instances.forEach((id, instance) -> {
+            final Tuple<STATE, RS> value = instance.at(sequence);
+            if (value != null) {
+                result.put(id, value);
+            }
+        });
+        return result;
+    }
+
+    private static class Instance<STATE, RS> {
+        private long sequence = UNPINNED;
+        private STATE state;
+        private RS runtimeState;
+        private long keptFor = UNPINNED;
+        private STATE keptState;
+        private RS keptRuntimeState;
+
+        private synchronized void update(long sequence, STATE state, RS runtimeState, long pinned) {
+            if (pinned != UNPINNED && keptFor != pinned && this.sequence != UNPINNED && this.sequence <= pinned) {
+                keptFor = pinned;
+                keptState = this.state;
+                keptRuntimeState = this.runtimeState;
+            }
+            this.sequence = sequence;
+            this.state = state;
+            this.runtimeState = runtimeState;
+        }
+
+        private synchronized Tuple<STATE, RS> at(long pinned) {
+            if (keptFor == pinned) {
+                return new Tuple<>(keptState, keptRuntimeState);
+            }
+            return sequence != UNPINNED && sequence <= pinned ? new Tuple<>(state, runtimeState) : null;
+        }
+    }
+}
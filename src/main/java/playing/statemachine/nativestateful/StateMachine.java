@@ -1,57 +1,206 @@
 package playing.statemachine.nativestateful;
 
-import playing.statemachine.StateMachineTransition;
-import playing.statemachine.StateMachineWriter;
+import playing.statemachine.*;
+import playing.util.DenseIds;
+import playing.util.LookupTable;
+import playing.util.MapUtil;
 import playing.util.Tuple;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE, EVENT> {
     private final STATE initialState;
     private final List<Transition<STATE, EVENT, RS>> transitions;
-    private final Map<STATE, Function<RS, RS>> onEntryActions;
-    private final Map<STATE, Function<RS, RS>> onExitActions;
-
-    private final Function<RS, RS> IDENTITY = x -> x;
-
-    private StateMachine(STATE initialState, List<Transition<STATE, EVENT, RS>> transitions, Map<STATE, Function<RS, RS>> onEntryActions, Map<STATE, Function<RS, RS>> onExitActions) {
+    private final TransitionIndex<STATE, EVENT, Transition<STATE, EVENT, RS>[]> transitionIndex;
+    private final LookupTable<STATE, Boolean> terminalStates;
+    private final Dispatcher dispatcher;
+    private final DispatchTable<STATE> table;
+    private final CompiledDispatcher compiled;
+    private final Transition<STATE, EVENT, RS>[] byId;
+    private final MachineMetrics metrics;
+    private final CallbackLatencies latencies;
+    private final TransitionIndex<STATE, EVENT, AdaptiveCandidates<Transition<STATE, EVENT, RS>>> adaptiveIndex;
+    private final LongAdder guardsSaved = new LongAdder();
+    private final TransitionIndex<STATE, EVENT, DiscriminatedCandidates<Transition<STATE, EVENT, RS>>> discriminatedIndex;
+
+    private StateMachine(STATE initialState, List<Transition<STATE, EVENT, RS>> transitions, Set<STATE> terminalStates, Map<STATE, Set<EVENT>> exclusiveEvents, Map<STATE, Map<EVENT, Function<RS, ?>>> discriminators, Dispatcher dispatcher, DispatchTable<STATE> table, CompiledDispatcher compiled, MachineMetrics metrics, CallbackLatencies latencies) {
         this.initialState = initialState;
         this.transitions = transitions;
-        this.onEntryActions = onEntryActions;
-        this.onExitActions = onExitActions;
+        this.transitionIndex = TransitionIndex.build(transitions, candidates -> candidates.toArray(new Transition[candidates.size()]));
+        this.adaptiveIndex = exclusiveEvents.isEmpty() ? null : TransitionIndex.build(
+                transitions.stream().filter(t -> exclusiveEvents.getOrDefault(t.fromState(), Collections.emptySet()).contains(t.event())).collect(Collectors.toList()),
+                candidates -> candidates.size() < 2 ? null : new AdaptiveCandidates<>(candidates.toArray(new Transition[candidates.size()]), guardsSaved));
+        this.discriminatedIndex = discriminators.isEmpty() ? null : TransitionIndex.build(
+                transitions.stream().filter(t -> discriminators.getOrDefault(t.fromState(), Collections.emptyMap()).containsKey(t.event())).collect(Collectors.toList()),
+                candidates -> DiscriminatedCandidates.of(discriminators.get(candidates.get(0).fromState()).get(candidates.get(0).event()), candidates, Transition::key, Transition[]::new));
+        this.terminalStates = LookupTable.ofKeys(terminalStates);
+        this.dispatcher = dispatcher;
+        this.table = table;
+        this.compiled = compiled;
+        this.byId = new Transition[transitions.stream().mapToInt(Transition::id).max().orElse(-1) + 1];
+        this.metrics = metrics;
+        this.latencies = latencies;
+
+        for (Transition<STATE, EVENT, RS> transition : transitions) {
+            byId[transition.id()] = transition;
+        }
     }
 
     public Tuple<STATE, RS> start(RS runtimeState) {
         return new Tuple<>(initialState, runtimeState);
     }
 
+    public MachineCursor<STATE, RS> cursor(RS runtimeState) {
+        return new MachineCursor<>(initialState, runtimeState);
+    }
+
     public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, EVENT... events) {
-        Tuple<STATE, RS> runningMachineState = machineState;
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
 
         for (EVENT event : events) {
-            final Optional<Transition<STATE, EVENT, RS>> transitionOptional = findTransition(runningMachineState._1, runningMachineState._2, event);
+            fire(cursor, event);
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Iterator<? extends EVENT> events) {
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
+
+        while (!isTerminal(cursor.state()) && events.hasNext()) {
+            fire(cursor, events.next());
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Spliterator<? extends EVENT> events) {
+        final MachineCursor<STATE, RS> cursor = new MachineCursor<>(machineState._1, machineState._2);
+        final Consumer<EVENT> fireEvent = event -> fire(cursor, event);
+
+        while (!isTerminal(cursor.state())) {
+            if (!events.tryAdvance(fireEvent)) {
+                break;
+            }
+        }
+
+        return cursor.toTuple();
+    }
+
+    public Tuple<STATE, RS> process(Tuple<STATE, RS> machineState, Stream<? extends EVENT> events) {
+        return process(machineState, events.spliterator());
+    }
+
+    /**
+     * Fires the events of a single sequential stream at a cursor starting from <code>machineState</code>, ignoring those
+     * after a terminal state; see {@link SequentialCollector}.
+     */
+    public Collector<EVENT, ?, Tuple<STATE, RS>> collector(Tuple<STATE, RS> machineState) {
+        return SequentialCollector.of(
+                () -> new MachineCursor<>(machineState._1, machineState._2),
+                (cursor, event) -> {
+                    if (!isTerminal(cursor.state())) {
+                        fire(cursor, event);
+                    }
+                },
+                MachineCursor::toTuple);
+    }
+
+    public List<Tuple<STATE, RS>> processAll(List<Tuple<STATE, RS>> instances, IntFunction<EVENT[]> eventsFor) {
+        return processAll(ForkJoinPool.commonPool(), instances, eventsFor);
+    }
+
+    public List<Tuple<STATE, RS>> processAll(ForkJoinPool pool, List<Tuple<STATE, RS>> instances, IntFunction<EVENT[]> eventsFor) {
+        return BulkProcessor.processAll(pool, instances, (index, instance) -> process(instance, eventsFor.apply(index)));
+    }
+
+    public Optional<MachineMetrics> metrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public Optional<CallbackLatencies> latencies() {
+        return Optional.ofNullable(latencies);
+    }
+
+    /**
+     * The number of guard evaluations that adaptive ordering of mutually exclusive guards has saved compared to
+     * evaluating them in declaration order.
+     */
+    public long guardEvaluationsSaved() {
+        return Math.max(0, guardsSaved.sum());
+    }
+
+    public boolean isTerminal(STATE state) {
+        return terminalStates.get(state) != null;
+    }
+
+    public boolean fire(MachineCursor<STATE, RS> cursor, EVENT event) {
+        final Transition<STATE, EVENT, RS> transition = findTransition(cursor.state(), cursor.runtimeState(), event);
+
+        if (transition == null) {
+            dispatcher.unmatched(cursor.state(), event);
+            return false;
+        }
+
+        cursor.moveTo(transition.toState(), (RS) dispatcher.fire(transition.id(), cursor.runtimeState(), event));
+        return true;
+    }
+
+    private Transition<STATE, EVENT, RS> findTransition(STATE state, RS runtimeState, EVENT event) {
+        if (discriminatedIndex != null) {
+            final DiscriminatedCandidates<Transition<STATE, EVENT, RS>> discriminated = discriminatedIndex.find(state, event);
 
-            if (transitionOptional.isPresent()) {
-                final Transition<STATE, EVENT, RS> transition = transitionOptional.get();
-                final Function<RS, RS> onExitAction = onExitActions.getOrDefault(transition.fromState(), IDENTITY);
-                final Function<RS, RS> onEntryAction = onEntryActions.getOrDefault(transition.toState(), IDENTITY);
+            if (discriminated != null) {
+                return firstMatch(discriminated.candidates(runtimeState), runtimeState, event);
+            }
+        }
+        if (adaptiveIndex != null) {
+            final AdaptiveCandidates<Transition<STATE, EVENT, RS>> adaptive = adaptiveIndex.find(state, event);
 
-                runningMachineState = new Tuple<>(transition.toState(),
-                        onEntryAction.apply(
-                                transition.actionApply(
-                                        onExitAction.apply(runningMachineState._2))));
+            if (adaptive != null) {
+                return findTransition(adaptive, runtimeState, event);
             }
         }
+        if (compiled != null) {
+            final int id = table.find(compiled, state, runtimeState, event);
+
+            return id == DispatchTable.NO_TRANSITION ? null : byId[id];
+        }
+
+        final Transition<STATE, EVENT, RS>[] candidates = transitionIndex.find(state, event);
 
-        return runningMachineState;
+        return candidates == null ? null : firstMatch(candidates, runtimeState, event);
     }
 
-    private Optional<Transition<STATE, EVENT, RS>> findTransition(STATE state, RS runtimeState, EVENT event) {
-        return transitions.stream().filter(t -> t.canFire(state, runtimeState, event)).findFirst();
+    private Transition<STATE, EVENT, RS> firstMatch(Transition<STATE, EVENT, RS>[] candidates, RS runtimeState, EVENT event) {
+        for (Transition<STATE, EVENT, RS> candidate : candidates) {
+            if (dispatcher.guard(candidate.id(), runtimeState, event)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Transition<STATE, EVENT, RS> findTransition(AdaptiveCandidates<Transition<STATE, EVENT, RS>> adaptive, RS runtimeState, EVENT event) {
+        final AdaptiveCandidates.Ordering<Transition<STATE, EVENT, RS>> ordering = adaptive.ordering();
+        final Transition<STATE, EVENT, RS>[] candidates = ordering.candidates;
+
+        for (int lp = 0; lp < candidates.length; lp += 1) {
+            if (dispatcher.guard(candidates[lp].id(), runtimeState, event)) {
+                adaptive.hit(ordering, lp);
+                return candidates[lp];
+            }
+        }
+        return null;
     }
 
     @Override
@@ -67,29 +216,102 @@ public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE,
     public static class Builder<STATE, EVENT, RS> {
         private STATE initialState;
         private final List<Transition<STATE, EVENT, RS>> transitions = new ArrayList<>();
+        private final Set<STATE> terminalStates = new HashSet<>();
+        private String metricsName;
+        private boolean strict;
+        private final List<TransitionListener> listeners = new ArrayList<>();
+        private boolean timeCallbacks;
         private final Map<STATE, Function<RS, RS>> onEntryActions = new HashMap<>();
         private final Map<STATE, Function<RS, RS>> onExitActions = new HashMap<>();
+        private final Map<STATE, Set<EVENT>> exclusiveEvents = new HashMap<>();
+        private final Map<STATE, Map<EVENT, Function<RS, ?>>> discriminators = new HashMap<>();
 
         public Builder<STATE, EVENT, RS> initialState(STATE initialState) {
             this.initialState = initialState;
             return this;
         }
 
+        public Builder<STATE, EVENT, RS> terminalState(STATE terminalState) {
+            terminalStates.add(terminalState);
+            return this;
+        }
+
         public Builder<STATE, EVENT, RS> onState(STATE state, Function<OnStateBuilder<STATE, EVENT, RS>, OnStateBuilder<STATE, EVENT, RS>> onStateBuilderFunction) {
             onStateBuilderFunction.apply(new OnStateBuilder<>(this, state));
             return this;
         }
 
+        public Builder<STATE, EVENT, RS> metrics(String name) {
+            this.metricsName = name;
+            return this;
+        }
+
+        public Builder<STATE, EVENT, RS> listener(TransitionListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        public Builder<STATE, EVENT, RS> latencies() {
+            this.timeCallbacks = true;
+            return this;
+        }
+
+        public Builder<STATE, EVENT, RS> strict() {
+            this.strict = true;
+            return this;
+        }
+
+        public TransitionAnalysis<STATE, ? extends StateMachineTransition<STATE, EVENT>> analyse() {
+            return analysis();
+        }
+
         public StateMachine<STATE, EVENT, RS> build() {
-            return new StateMachine<>(initialState, transitions, onEntryActions, onExitActions);
+            return create(false);
         }
 
-        private void addTransition(STATE fromState, EVENT event, BiPredicate<RS, EVENT> condition, STATE toState, Function<RS, RS> action) {
-            transitions.add(new Transition<>(fromState, event, condition, toState, action));
+        public StateMachine<STATE, EVENT, RS> compile() {
+            return create(true);
         }
 
-        private void addTransitionConsumer(STATE state, EVENT event, BiPredicate<RS, EVENT> condition, STATE toState, Consumer<RS> consumer) {
-            addTransition(state, event, condition, toState, (fromRuntimeState) -> {
+        private StateMachine<STATE, EVENT, RS> create(boolean compile) {
+            final MachineMetrics metrics = metricsName == null ? null : MachineMetrics.of(metricsName, transitions, false);
+            final CallbackLatencies latencies = timeCallbacks ? CallbackLatencies.of(transitions) : null;
+            final DispatchHooks hooks = new DispatchHooks(metrics, latencies, transitions, listeners);
+            final List<Transition<STATE, EVENT, RS>> live = liveTransitions();
+            final DispatchTable<STATE> table = compile ? DispatchTable.byEvent(DenseIds.of(live.stream().map(Transition::fromState).collect(Collectors.toList())), DenseIds.of(live.stream().map(Transition::event).collect(Collectors.toList())), live, Transition::id, Transition::fromState, Transition::event) : null;
+            final CompiledDispatcher compiled = compile ? Dispatchers.compile(callbacks(), table, hooks) : null;
+            final Dispatcher dispatcher = compile ? compiled : hooks.decorate(Dispatchers.interpret(callbacks()));
+
+            return new StateMachine<>(initialState, live, new HashSet<>(terminalStates), new HashMap<>(exclusiveEvents), new HashMap<>(discriminators), dispatcher, table, compiled, metrics, latencies);
+        }
+
+        private List<Transition<STATE, EVENT, RS>> liveTransitions() {
+            final TransitionAnalysis<STATE, Transition<STATE, EVENT, RS>> analysis = analysis();
+
+            if (strict && !analysis.isValid()) {
+                throw new IllegalStateException("Invalid state machine: " + analysis);
+            }
+            return analysis.live();
+        }
+
+        private TransitionAnalysis<STATE, Transition<STATE, EVENT, RS>> analysis() {
+            return TransitionAnalysis.of(initialState, transitions, t -> t.condition() == null && t.key() == null, (earlier, later) -> Objects.equals(earlier.event(), later.event()));
+        }
+
+        private List<TransitionCallbacks> callbacks() {
+            return transitions.stream().map(t -> new TransitionCallbacks(
+                    Callback.biPredicate(t.condition()),
+                    Callback.function(onExitActions.get(t.fromState())),
+                    Callback.function(t.action()),
+                    Callback.function(onEntryActions.get(t.toState())))).collect(Collectors.toList());
+        }
+
+        private void addTransition(STATE fromState, EVENT event, BiPredicate<RS, EVENT> condition, Object key, STATE toState, Function<RS, RS> action) {
+            transitions.add(new Transition<>(transitions.size(), fromState, event, condition, key, toState, action));
+        }
+
+        private void addTransitionConsumer(STATE state, EVENT event, BiPredicate<RS, EVENT> condition, Object key, STATE toState, Consumer<RS> consumer) {
+            addTransition(state, event, condition, key, toState, (fromRuntimeState) -> {
                 consumer.accept(fromRuntimeState);
                 return fromRuntimeState;
             });
@@ -103,6 +325,18 @@ public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE,
             onExitActions.put(state, action);
         }
 
+        private void addMutuallyExclusive(STATE state, EVENT event) {
+            MapUtil.getOrElse(exclusiveEvents, state, HashSet::new).add(event);
+        }
+
+        private void addDiscriminator(STATE state, EVENT event, Function<RS, ?> discriminator) {
+            MapUtil.getOrElse(discriminators, state, HashMap::new).put(event, discriminator);
+        }
+
+        private boolean isDiscriminated(STATE state, EVENT event) {
+            return discriminators.getOrDefault(state, Collections.emptyMap()).containsKey(event);
+        }
+
         public static class OnStateBuilder<STATE, EVENT, RS> {
             private final Builder<STATE, EVENT, RS> builder;
             private final STATE state;
@@ -132,6 +366,15 @@ public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE,
                 return this;
             }
 
+            /**
+             * Declares that at most one guard of this state's transitions on <code>event</code> holds for any runtime
+             * state, which allows the guards to be evaluated in order of how often they hold.
+             */
+            public OnStateBuilder<STATE, EVENT, RS> mutuallyExclusive(EVENT event) {
+                builder.addMutuallyExclusive(state, event);
+                return this;
+            }
+
             public OnStateBuilder<STATE, EVENT, RS> onExitAction(Function<RS, RS> exitAction) {
                 builder.addOnStateExitAction(state, exitAction);
                 return this;
@@ -145,19 +388,30 @@ public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE,
                 return this;
             }
 
-            private void addAction(BiPredicate<RS, EVENT> condition, STATE toState, Function<RS, RS> action) {
-                builder.addTransition(state, event, condition, toState == null ? state : toState, action);
+            private void addAction(BiPredicate<RS, EVENT> condition, Object key, STATE toState, Function<RS, RS> action) {
+                builder.addTransition(state, event, condition, key, toState == null ? state : toState, action);
+            }
+
+            private void addConsumer(BiPredicate<RS, EVENT> condition, Object key, STATE toState, Consumer<RS> consumer) {
+                builder.addTransitionConsumer(state, event, condition, key, toState == null ? state : toState, consumer);
             }
 
-            private void addConsumer(BiPredicate<RS, EVENT> condition, STATE toState, Consumer<RS> consumer) {
-                builder.addTransitionConsumer(state, event, condition, toState == null ? state : toState, consumer);
+            private void addDiscriminator(Function<RS, ?> discriminator) {
+                builder.addDiscriminator(state, event, discriminator);
+            }
+
+            private void requireDiscriminator() {
+                if (!builder.isDiscriminated(state, event)) {
+                    throw new IllegalStateException("No discriminator declared for " + state + " on " + event);
+                }
             }
         }
 
         public static class OnStateEventBuilder<STATE, EVENT, RS> {
             private final OnStateBuilder<STATE, EVENT, RS> onStateBuilder;
             private STATE toState;
-            private BiPredicate<RS, EVENT> condition = (s, e) -> true;
+            private BiPredicate<RS, EVENT> condition;
+            private Object key;
 
 
             private OnStateEventBuilder(OnStateBuilder<STATE, EVENT, RS> onStateBuilder) {
@@ -174,23 +428,43 @@ public class StateMachine<STATE, EVENT, RS> implements StateMachineWriter<STATE,
                 return this;
             }
 
+            /**
+             * Declares a discriminator for this state's transitions on this event.  Transitions declared
+             * {@link #when} a key are then selected by looking up the discriminator's value for the runtime state
+             * instead of by testing their guards in turn.
+             */
+            public OnStateEventBuilder<STATE, EVENT, RS> discriminateBy(Function<RS, ?> discriminator) {
+                onStateBuilder.addDiscriminator(discriminator);
+                return this;
+            }
+
+            public OnStateEventBuilder<STATE, EVENT, RS> when(Object key) {
+                if (key == null) {
+                    throw new IllegalArgumentException("A discriminator key can not be null");
+                }
+
+                onStateBuilder.requireDiscriminator();
+                this.key = key;
+                return this;
+            }
+
             public OnStateBuilder<STATE, EVENT, RS> action(Function<RS, RS> action) {
-                onStateBuilder.addAction(condition, toState, action);
+                onStateBuilder.addAction(condition, key, toState, action);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, EVENT, RS> noAction() {
-                onStateBuilder.addAction(condition, toState, (x) -> x);
+                onStateBuilder.addAction(condition, key, toState, (x) -> x);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, EVENT, RS> consumer(Consumer<RS> consumer) {
-                onStateBuilder.addConsumer(condition, toState, consumer);
+                onStateBuilder.addConsumer(condition, key, toState, consumer);
                 return onStateBuilder;
             }
 
             public OnStateBuilder<STATE, EVENT, RS> noConsumer() {
-                onStateBuilder.addAction(condition, toState, (x) -> x);
+                onStateBuilder.addAction(condition, key, toState, (x) -> x);
                 return onStateBuilder;
             }
         }
@@ -6,16 +6,20 @@ import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 class Transition<STATE, EVENT, RS> implements StateMachineTransition<STATE, EVENT> {
+    private final int id;
     private final STATE fromState;
     private final EVENT event;
     private final STATE toState;
     private final BiPredicate<RS, EVENT> condition;
+    private final Object key;
     private final Function<RS, RS> action;
 
-    public Transition(STATE fromState, EVENT event, BiPredicate<RS, EVENT> condition, STATE toState, Function<RS, RS> action) {
+    public Transition(int id, STATE fromState, EVENT event, BiPredicate<RS, EVENT> condition, Object key, STATE toState, Function<RS, RS> action) {
+        this.id = id;
         this.fromState = fromState;
         this.event = event;
         this.condition = condition;
+        this.key = key;
         this.toState = toState;
         this.action = action;
     }
@@ -35,11 +39,19 @@ class Transition<STATE, EVENT, RS> implements StateMachineTransition<STATE, EVEN
         return event;
     }
 
-    boolean canFire(STATE state, RS runtimeState, EVENT event) {
-        return fromState.equals(state) && this.event.equals(event) && condition.test(runtimeState, event);
+    int id() {
+        return id;
     }
 
-    RS actionApply(RS runtimeState) {
-        return action.apply(runtimeState);
+    BiPredicate<RS, EVENT> condition() {
+        return condition;
+    }
+
+    Object key() {
+        return key;
+    }
+
+    Function<RS, RS> action() {
+        return action;
     }
 }
@@ -0,0 +1,231 @@
+package playing.statemachine.nativestateless;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the current state id of every instance off-heap, four bytes per instance, in direct buffers indexed by the
+ * instance id.  Buffers are allocated a chunk at a time as ids in their range are registered, so sparse id spaces
+ * only pay for the chunks they touch.  A slot holds <code>stateId + 1</code>, leaving zero to mark an absent
+ * instance.
+ * <p>
+ * Slots are updated with a compare-and-set so that different instances can be fired concurrently without locks.
+ * Firing an instance sets the slot's {@link #BUSY} bit together with the new state id and clears it once the exit,
+ * action and entry callbacks have run; other events for that instance spin until the bit is clear, so transitions of
+ * one instance run to completion one at a time.  Callbacks must therefore not fire or remove their own instance.
+ */
+public class OffHeapStateStore<STATE, EVENT> {
+    public static final int DEFAULT_INSTANCES_PER_CHUNK = 1 << 20;
+
+    private static final int BUSY = 1 << 31;
+    private static final int SPINS_BEFORE_YIELD = 64;
+    private static final VarHandle SLOTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final StateMachine<STATE, EVENT> stateMachine;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final long maxInstances;
+    private final AtomicReferenceArray<ByteBuffer> chunks;
+    private final LongAdder allocatedChunks = new LongAdder();
+    private final LongAdder used = new LongAdder();
+
+    public OffHeapStateStore(StateMachine<STATE, EVENT> stateMachine, long maxInstances) {
+        this(stateMachine, maxInstances, DEFAULT_INSTANCES_PER_CHUNK);
+    }
+
+    public OffHeapStateStore(StateMachine<STATE, EVENT> stateMachine, long maxInstances, int instancesPerChunk) {
+        if (instancesPerChunk < 1 || Integer.bitCount(instancesPerChunk) != 1 || instancesPerChunk > (1 << 28)) {
+            throw new IllegalArgumentException("Instances per chunk must be a power of two no larger than 2^28: " + instancesPerChunk);
+        }
+
+        final long chunkCount = (maxInstances + instancesPerChunk - 1) / instancesPerChunk;
+        if (maxInstances < 1 || chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported number of instances: " + maxInstances);
+        }
+
+        this.stateMachine = stateMachine;
+        this.chunkShift = Integer.numberOfTrailingZeros(instancesPerChunk);
+        this.chunkMask = instancesPerChunk - 1;
+        this.maxInstances = maxInstances;
+        this.chunks = new AtomicReferenceArray<>((int) chunkCount);
+    }
+
+    public boolean register(long instanceId) {
+        return register(instanceId, stateMachine.initialStateId());
+    }
+
+    public boolean register(long instanceId, int stateId) {
+        final ByteBuffer chunk = chunk(instanceId, true);
+
+        if (SLOTS.compareAndSet(chunk, slot(instanceId), 0, stateId + 1)) {
+            used.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean remove(long instanceId) {
+        final ByteBuffer chunk = chunk(instanceId, false);
+        if (chunk == null) {
+            return false;
+        }
+
+        final int slot = slot(instanceId);
+        int spins = 0;
+        while (true) {
+            final int stored = (int) SLOTS.getVolatile(chunk, slot);
+
+            if (stored == 0) {
+                return false;
+            }
+            if ((stored & BUSY) != 0) {
+                spins = awaitIdle(spins);
+                continue;
+            }
+            if (SLOTS.compareAndSet(chunk, slot, stored, 0)) {
+                used.decrement();
+                return true;
+            }
+        }
+    }
+
+    public int stateId(long instanceId) {
+        final ByteBuffer chunk = chunk(instanceId, false);
+
+        return chunk == null ? -1 : ((int) SLOTS.getVolatile(chunk, slot(instanceId)) & ~BUSY) - 1;
+    }
+
+    public STATE state(long instanceId) {
+        final int stateId = stateId(instanceId);
+
+        return stateId < 0 ? null : stateMachine.state(stateId);
+    }
+
+    public boolean fire(long instanceId, EVENT event) {
+        final ByteBuffer chunk = chunk(instanceId, false);
+        final int eventId = stateMachine.eventId(event);
+
+        if (chunk == null || !fire(chunk, slot(instanceId), eventId, event)) {
+            if (stateId(instanceId) < 0) {
+                throw new IllegalArgumentException("Unknown instance " + instanceId);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fires <code>event</code> against every registered instance with an id in
+     * <code>[fromInstanceId, toInstanceId)</code> and returns the number of transitions taken.  Unallocated chunks and
+     * absent instances are skipped.
+     */
+    public long fireRange(long fromInstanceId, long toInstanceId, EVENT event) {
+        final int eventId = stateMachine.eventId(event);
+
+        long fired = 0;
+        long instanceId = Math.max(0, fromInstanceId);
+        final long to = Math.min(toInstanceId, maxInstances);
+        while (instanceId < to) {
+            final ByteBuffer chunk = chunks.get((int) (instanceId >>> chunkShift));
+            final long chunkEnd = Math.min(to, ((instanceId >>> chunkShift) + 1) << chunkShift);
+
+            if (chunk != null) {
+                for (long id = instanceId; id < chunkEnd; id += 1) {
+                    if (fire(chunk, slot(id), eventId, event)) {
+                        fired += 1;
+                    }
+                }
+            }
+            instanceId = chunkEnd;
+        }
+        return fired;
+    }
+
+    public Stats stats() {
+        final long chunkCount = allocatedChunks.sum();
+        final long capacity = chunkCount << chunkShift;
+        final long usedSlots = used.sum();
+
+        return new Stats(capacity, usedSlots, capacity * Integer.BYTES, capacity == 0 ? 0.0 : 1.0 - (double) usedSlots / capacity);
+    }
+
+    private boolean fire(ByteBuffer chunk, int slot, int eventId, EVENT event) {
+        int spins = 0;
+        while (true) {
+            final int stored = (int) SLOTS.getVolatile(chunk, slot);
+            if (stored == 0) {
+                return false;
+            }
+            if ((stored & BUSY) != 0) {
+                spins = awaitIdle(spins);
+                continue;
+            }
+
+            final int transitionId = eventId < 0 ? -1 : stateMachine.transitionId(stored - 1, eventId);
+            if (transitionId < 0) {
+                stateMachine.unmatched(stored - 1, event);
+                return false;
+            }
+
+            final int next = stateMachine.toStateId(transitionId) + 1;
+            if (SLOTS.compareAndSet(chunk, slot, stored, next | BUSY)) {
+                try {
+                    stateMachine.dispatch(transitionId, event);
+                } finally {
+                    SLOTS.setVolatile(chunk, slot, next);
+                }
+                return true;
+            }
+        }
+    }
+
+    private static int awaitIdle(int spins) {
+        if (spins < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return spins + 1;
+    }
+
+    private ByteBuffer chunk(long instanceId, boolean allocate) {
+        if (instanceId < 0 || instanceId >= maxInstances) {
+            throw new IndexOutOfBoundsException("Instance id " + instanceId + " outside of [0, " + maxInstances + ")");
+        }
+
+        final int index = (int) (instanceId >>> chunkShift);
+        final ByteBuffer chunk = chunks.get(index);
+        if (chunk != null || !allocate) {
+            return chunk;
+        }
+
+        final ByteBuffer allocated = ByteBuffer.allocateDirect((chunkMask + 1) * Integer.BYTES).order(ByteOrder.nativeOrder());
+        if (chunks.compareAndSet(index, null, allocated)) {
+            allocatedChunks.increment();
+            return allocated;
+        }
+        return chunks.get(index);
+    }
+
+    private int slot(long instanceId) {
+        return ((int) instanceId & chunkMask) * Integer.BYTES;
+    }
+
+    public static class Stats {
+        public final long capacity;
+        public final long used;
+        public final long offHeapBytes;
+        public final double fragmentation;
+
+        private Stats(long capacity, long used, long offHeapBytes, double fragmentation) {
+            this.capacity = capacity;
+            this.used = used;
+            this.offHeapBytes = offHeapBytes;
+            this.fragmentation = fragmentation;
+        }
+    }
+}
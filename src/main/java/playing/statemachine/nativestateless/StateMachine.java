@@ -1,57 +1,272 @@
 package playing.statemachine.nativestateless;
 
-import playing.statemachine.StateMachineTransition;
-import playing.statemachine.StateMachineWriter;
+import playing.statemachine.*;
+import playing.util.DenseIds;
+import playing.util.LookupTable;
 import playing.util.VoidConsumer;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class StateMachine<STATE, EVENT> implements StateMachineWriter<STATE, EVENT> {
     private final STATE initialState;
     private final List<Transition<STATE, EVENT>> transitions;
-    private final Map<STATE, VoidConsumer> onEntryActions;
-    private final Map<STATE, VoidConsumer> onExitActions;
+    private final TransitionIndex<STATE, EVENT, Transition<STATE, EVENT>> transitionIndex;
+    private final LookupTable<STATE, Boolean> terminalStates;
+    private final Dispatcher dispatcher;
+    private final DispatchTable<STATE> table;
+    private final CompiledDispatcher compiled;
+    private final MachineMetrics metrics;
+    private final DenseIds<STATE> stateIds;
+    private final DenseIds<EVENT> eventIds;
+    private final int[][] transitionIdRows;
+    private final int[] toStateIds;
+    private final boolean[] terminalStateIds;
 
     private final static VoidConsumer IDENTITY = () -> {
     };
 
-    private StateMachine(STATE initialState, List<Transition<STATE, EVENT>> transitions, Map<STATE, VoidConsumer> onEntryActions, Map<STATE, VoidConsumer> onExitActions) {
+    private StateMachine(STATE initialState, List<Transition<STATE, EVENT>> transitions, Set<STATE> terminalStates, DenseIds<STATE> stateIds, DenseIds<EVENT> eventIds, Dispatcher dispatcher, DispatchTable<STATE> table, CompiledDispatcher compiled, MachineMetrics metrics) {
         this.initialState = initialState;
         this.transitions = transitions;
-        this.onEntryActions = onEntryActions;
-        this.onExitActions = onExitActions;
+        this.transitionIndex = TransitionIndex.build(transitions, candidates -> candidates.get(0));
+        this.terminalStates = LookupTable.ofKeys(terminalStates);
+        this.dispatcher = dispatcher;
+        this.table = table;
+        this.compiled = compiled;
+        this.metrics = metrics;
+        this.stateIds = stateIds;
+        this.eventIds = eventIds;
+        this.transitionIdRows = transitionIdRows(transitions, stateIds, eventIds);
+        this.toStateIds = new int[transitions.stream().mapToInt(Transition::id).max().orElse(-1) + 1];
+        this.terminalStateIds = new boolean[stateIds.size()];
+
+        for (Transition<STATE, EVENT> transition : transitions) {
+            toStateIds[transition.id()] = stateIds.id(transition.toState());
+        }
+        for (STATE terminalState : terminalStates) {
+            terminalStateIds[stateIds.id(terminalState)] = true;
+        }
+    }
+
+    /**
+     * A row of transition ids by event id for each state with transitions, as long as the largest event id the state
+     * reacts to.  States without transitions have no row, so the table grows with the transitions rather than with
+     * states times events.
+     */
+    private static <STATE, EVENT> int[][] transitionIdRows(List<Transition<STATE, EVENT>> transitions, DenseIds<STATE> stateIds, DenseIds<EVENT> eventIds) {
+        final int[] lengths = new int[stateIds.size()];
+        for (Transition<STATE, EVENT> transition : transitions) {
+            final int stateId = stateIds.id(transition.fromState());
+
+            lengths[stateId] = Math.max(lengths[stateId], eventIds.id(transition.event()) + 1);
+        }
+
+        final int[][] rows = new int[stateIds.size()][];
+        for (Transition<STATE, EVENT> transition : transitions) {
+            final int stateId = stateIds.id(transition.fromState());
+            final int eventId = eventIds.id(transition.event());
+
+            if (rows[stateId] == null) {
+                rows[stateId] = new int[lengths[stateId]];
+                Arrays.fill(rows[stateId], -1);
+            }
+            if (rows[stateId][eventId] < 0) {
+                rows[stateId][eventId] = transition.id();
+            }
+        }
+        return rows;
     }
 
     public STATE start() {
         return initialState;
     }
 
+    public MachineCursor<STATE, Void> cursor() {
+        return new MachineCursor<>(initialState, null);
+    }
+
     public STATE process(STATE machineState, EVENT... events) {
-        STATE runningMachineState = machineState;
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
 
         for (EVENT event : events) {
-            final Optional<Transition<STATE, EVENT>> transitionOptional = findTransition(runningMachineState, event);
+            fire(cursor, event);
+        }
+
+        return cursor.state();
+    }
+
+    public STATE process(STATE machineState, Iterator<? extends EVENT> events) {
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
+
+        while (!isTerminal(cursor.state()) && events.hasNext()) {
+            fire(cursor, events.next());
+        }
+
+        return cursor.state();
+    }
+
+    public STATE process(STATE machineState, Spliterator<? extends EVENT> events) {
+        final MachineCursor<STATE, Void> cursor = new MachineCursor<>(machineState, null);
+        final Consumer<EVENT> fireEvent = event -> fire(cursor, event);
+
+        while (!isTerminal(cursor.state())) {
+            if (!events.tryAdvance(fireEvent)) {
+                break;
+            }
+        }
+
+        return cursor.state();
+    }
+
+    public STATE process(STATE machineState, Stream<? extends EVENT> events) {
+        return process(machineState, events.spliterator());
+    }
 
-            if (transitionOptional.isPresent()) {
-                final Transition<STATE, EVENT> transition = transitionOptional.get();
-                final VoidConsumer onExitAction = onExitActions.getOrDefault(transition.fromState(), IDENTITY);
-                final VoidConsumer onEntryAction = onEntryActions.getOrDefault(transition.toState(), IDENTITY);
+    /**
+     * Fires the events of a single sequential stream at a cursor starting from <code>machineState</code>, ignoring those
+     * after a terminal state; see {@link SequentialCollector}.
+     */
+    public Collector<EVENT, ?, STATE> collector(STATE machineState) {
+        return SequentialCollector.of(
+                () -> new MachineCursor<STATE, Void>(machineState, null),
+                (cursor, event) -> {
+                    if (!isTerminal(cursor.state())) {
+                        fire(cursor, event);
+                    }
+                },
+                MachineCursor::state);
+    }
 
-                onExitAction.accept();
-                transition.actionAccept();
-                onEntryAction.accept();
+    public List<STATE> processAll(List<STATE> instances, IntFunction<EVENT[]> eventsFor) {
+        return processAll(ForkJoinPool.commonPool(), instances, eventsFor);
+    }
+
+    public List<STATE> processAll(ForkJoinPool pool, List<STATE> instances, IntFunction<EVENT[]> eventsFor) {
+        return BulkProcessor.processAll(pool, instances, (index, instance) -> process(instance, eventsFor.apply(index)));
+    }
 
-                runningMachineState = transition.toState();
+    public Optional<MachineMetrics> metrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public boolean isTerminal(STATE state) {
+        return terminalStates.get(state) != null;
+    }
+
+    public boolean fire(MachineCursor<STATE, ?> cursor, EVENT event) {
+        if (compiled != null) {
+            final int id = table.find(compiled, cursor.state(), null, event);
+
+            if (id < 0) {
+                compiled.unmatched(cursor.state(), event);
+                return false;
             }
+
+            compiled.fire(id, null, event);
+            cursor.moveTo(stateIds.value(toStateIds[id]));
+            return true;
         }
 
-        return runningMachineState;
+        final Transition<STATE, EVENT> transition = transitionIndex.find(cursor.state(), event);
+
+        if (transition == null) {
+            dispatcher.unmatched(cursor.state(), event);
+            return false;
+        }
+
+        dispatch(transition.id(), event);
+
+        cursor.moveTo(transition.toState());
+        return true;
     }
 
-    private Optional<Transition<STATE, EVENT>> findTransition(STATE state, EVENT event) {
-        return transitions.stream().filter(t -> t.canFire(state, event)).findFirst();
+    /**
+     * Fires the event with id <code>eventId</code> against the state with id <code>stateId</code> and returns the
+     * resulting state id, which is <code>stateId</code> itself when the state does not react to the event.  Ids are
+     * dense, assigned at build time and translated with {@link #stateId(Object)}, {@link #state(int)},
+     * {@link #eventId(Object)} and {@link #event(int)}.  A negative <code>eventId</code>, as returned for an event no
+     * state reacts to, is unmatched; any other id outside of those assigned throws
+     * {@link IndexOutOfBoundsException}.
+     */
+    public int fire(int stateId, int eventId) {
+        if (stateId < 0 || stateId >= stateIds.size()) {
+            throw new IndexOutOfBoundsException("State id " + stateId + " outside of [0, " + stateIds.size() + ")");
+        }
+        if (eventId >= eventIds.size()) {
+            throw new IndexOutOfBoundsException("Event id " + eventId + " outside of [0, " + eventIds.size() + ")");
+        }
+
+        final int id = transitionId(stateId, eventId);
+        final EVENT event = eventId < 0 ? null : eventIds.value(eventId);
+
+        if (id < 0) {
+            dispatcher.unmatched(stateIds.value(stateId), event);
+            return stateId;
+        }
+
+        dispatch(id, event);
+        return toStateIds[id];
+    }
+
+    /**
+     * The id of the transition the state with id <code>stateId</code> takes on the event with id
+     * <code>eventId</code>, or <code>-1</code> when there is none or either id is out of range.
+     */
+    int transitionId(int stateId, int eventId) {
+        final int[] row = stateId < 0 || stateId >= transitionIdRows.length ? null : transitionIdRows[stateId];
+
+        return row == null || eventId < 0 || eventId >= row.length ? -1 : row[eventId];
+    }
+
+    int toStateId(int transitionId) {
+        return toStateIds[transitionId];
+    }
+
+    void unmatched(int stateId, EVENT event) {
+        dispatcher.unmatched(stateIds.value(stateId), event);
+    }
+
+    void dispatch(int transitionId, EVENT event) {
+        dispatcher.fire(transitionId, null, event);
+    }
+
+    public int initialStateId() {
+        return stateIds.id(initialState);
+    }
+
+    public int stateId(STATE state) {
+        return stateIds.id(state);
+    }
+
+    public STATE state(int stateId) {
+        return stateIds.value(stateId);
+    }
+
+    public int stateCount() {
+        return stateIds.size();
+    }
+
+    public int eventId(EVENT event) {
+        return eventIds.id(event);
+    }
+
+    public EVENT event(int eventId) {
+        return eventIds.value(eventId);
+    }
+
+    public int eventCount() {
+        return eventIds.size();
+    }
+
+    public boolean isTerminalStateId(int stateId) {
+        return terminalStateIds[stateId];
     }
 
     @Override
@@ -67,6 +282,10 @@ public class StateMachine<STATE, EVENT> implements StateMachineWriter<STATE, EVE
     public static class Builder<STATE, EVENT> {
         private STATE initialState;
         private final List<Transition<STATE, EVENT>> transitions = new ArrayList<>();
+        private final Set<STATE> terminalStates = new HashSet<>();
+        private String metricsName;
+        private boolean strict;
+        private final List<TransitionListener> listeners = new ArrayList<>();
         private final Map<STATE, VoidConsumer> onEntryActions = new HashMap<>();
         private final Map<STATE, VoidConsumer> onExitActions = new HashMap<>();
 
@@ -75,17 +294,81 @@ public class StateMachine<STATE, EVENT> implements StateMachineWriter<STATE, EVE
             return this;
         }
 
+        public Builder<STATE, EVENT> terminalState(STATE terminalState) {
+            terminalStates.add(terminalState);
+            return this;
+        }
+
         public Builder<STATE, EVENT> onState(STATE state, Function<OnStateBuilder<STATE, EVENT>, OnStateBuilder<STATE, EVENT>> onStateBuilderFunction) {
             onStateBuilderFunction.apply(new OnStateBuilder<>(this, state));
             return this;
         }
 
+        public Builder<STATE, EVENT> metrics(String name) {
+            this.metricsName = name;
+            return this;
+        }
+
+        public Builder<STATE, EVENT> listener(TransitionListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        public Builder<STATE, EVENT> strict() {
+            this.strict = true;
+            return this;
+        }
+
+        public TransitionAnalysis<STATE, ? extends StateMachineTransition<STATE, EVENT>> analyse() {
+            return analysis();
+        }
+
         public StateMachine<STATE, EVENT> build() {
-            return new StateMachine<>(initialState, transitions, onEntryActions, onExitActions);
+            return create(false);
+        }
+
+        public StateMachine<STATE, EVENT> compile() {
+            return create(true);
+        }
+
+        private StateMachine<STATE, EVENT> create(boolean compile) {
+            final MachineMetrics metrics = metricsName == null ? null : MachineMetrics.of(metricsName, transitions, false);
+            final DispatchHooks hooks = new DispatchHooks(metrics, null, transitions, listeners);
+            final List<Transition<STATE, EVENT>> live = liveTransitions();
+            final DenseIds<STATE> stateIds = DenseIds.of(Stream.concat(
+                    Stream.concat(Stream.of(initialState), live.stream().flatMap(t -> Stream.of(t.fromState(), t.toState()))),
+                    terminalStates.stream()).collect(Collectors.toList()));
+            final DenseIds<EVENT> eventIds = DenseIds.of(live.stream().map(Transition::event).collect(Collectors.toList()));
+            final DispatchTable<STATE> table = compile ? DispatchTable.byEvent(stateIds, eventIds, live, Transition::id, Transition::fromState, Transition::event) : null;
+            final CompiledDispatcher compiled = compile ? Dispatchers.compile(callbacks(), table, hooks) : null;
+            final Dispatcher dispatcher = compile ? compiled : hooks.decorate(Dispatchers.interpret(callbacks()));
+
+            return new StateMachine<>(initialState, live, new HashSet<>(terminalStates), stateIds, eventIds, dispatcher, table, compiled, metrics);
+        }
+
+        private List<Transition<STATE, EVENT>> liveTransitions() {
+            final TransitionAnalysis<STATE, Transition<STATE, EVENT>> analysis = analysis();
+
+            if (strict && !analysis.isValid()) {
+                throw new IllegalStateException("Invalid state machine: " + analysis);
+            }
+            return analysis.live();
+        }
+
+        private TransitionAnalysis<STATE, Transition<STATE, EVENT>> analysis() {
+            return TransitionAnalysis.of(initialState, transitions, t -> true, (earlier, later) -> Objects.equals(earlier.event(), later.event()));
+        }
+
+        private List<TransitionCallbacks> callbacks() {
+            return transitions.stream().map(t -> new TransitionCallbacks(
+                    Callback.none(),
+                    Callback.voidConsumer(onExitActions.get(t.fromState())),
+                    Callback.voidConsumer(t.action()),
+                    Callback.voidConsumer(onEntryActions.get(t.toState())))).collect(Collectors.toList());
         }
 
         private void addTransition(STATE fromState, EVENT event, STATE toState, VoidConsumer action) {
-            transitions.add(new Transition<>(fromState, event, toState, action));
+            transitions.add(new Transition<>(transitions.size(), fromState, event, toState, action));
         }
 
         private void addOnStateEntryAction(STATE state, VoidConsumer action) {
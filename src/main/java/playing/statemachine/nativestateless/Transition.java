@@ -4,24 +4,26 @@ import playing.statemachine.StateMachineTransition;
 import playing.util.VoidConsumer;
 
 class Transition<STATE, EVENT> implements StateMachineTransition<STATE, EVENT> {
+    private final int id;
     private final STATE fromState;
     private final EVENT event;
     private final STATE toState;
     private final VoidConsumer action;
 
-    Transition(STATE fromState, EVENT event, STATE toState, VoidConsumer action) {
+    Transition(int id, STATE fromState, EVENT event, STATE toState, VoidConsumer action) {
+        this.id = id;
         this.fromState = fromState;
         this.event = event;
         this.toState = toState;
         this.action = action;
     }
 
-    boolean canFire(STATE state, EVENT event) {
-        return fromState.equals(state) && this.event.equals(event);
+    int id() {
+        return id;
     }
 
-    void actionAccept() {
-        action.accept();
+    VoidConsumer action() {
+        return action;
     }
 
     @Override
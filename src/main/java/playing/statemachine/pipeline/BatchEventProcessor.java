@@ -0,0 +1,41 @@
+package playing.statemachine.pipeline;
+
+/**
+ * The single consumer of a {@link RingBuffer}: drains published batches into a handler until halted, idling with its
+ * wait strategy only when a poll finds nothing so that a wakeup is paid once per batch rather than once per event.
+ * Events published before {@link #halt()} are still drained before {@link #run()} returns.
+ */
+public class BatchEventProcessor<E> implements Runnable {
+    private final RingBuffer<E> ringBuffer;
+    private final EventHandler<? super E> handler;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean running = true;
+
+    public BatchEventProcessor(RingBuffer<E> ringBuffer, EventHandler<? super E> handler, WaitStrategy waitStrategy) {
+        this.ringBuffer = ringBuffer;
+        this.handler = handler;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public void run() {
+        int attempt = 0;
+
+        while (true) {
+            final boolean halted = !running;
+
+            if (ringBuffer.drain(handler) > 0) {
+                attempt = 0;
+            } else if (halted) {
+                return;
+            } else {
+                waitStrategy.idle(attempt);
+                attempt += 1;
+            }
+        }
+    }
+
+    public void halt() {
+        running = false;
+    }
+}
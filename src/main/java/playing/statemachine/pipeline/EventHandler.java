@@ -0,0 +1,5 @@
+package playing.statemachine.pipeline;
+
+public interface EventHandler<E> {
+    void onEvent(E event, long sequence, boolean endOfBatch);
+}
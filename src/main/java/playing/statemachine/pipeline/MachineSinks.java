@@ -0,0 +1,25 @@
+package playing.statemachine.pipeline;
+
+import playing.statemachine.MachineCursor;
+
+/**
+ * Event handlers that fire drained events into a machine cursor.  As with <code>process</code>, events arriving once
+ * the cursor is in a terminal state are ignored.
+ */
+public class MachineSinks {
+    public static <STATE, EVENT, RS> EventHandler<EVENT> into(playing.statemachine.nativestateful.StateMachine<STATE, EVENT, RS> stateMachine, MachineCursor<STATE, RS> cursor) {
+        return (event, sequence, endOfBatch) -> {
+            if (!stateMachine.isTerminal(cursor.state())) {
+                stateMachine.fire(cursor, event);
+            }
+        };
+    }
+
+    public static <STATE, RS> EventHandler<Object> into(playing.statemachine.classstateful.StateMachine<STATE, RS> stateMachine, MachineCursor<STATE, RS> cursor) {
+        return (event, sequence, endOfBatch) -> {
+            if (!stateMachine.isTerminal(cursor.state())) {
+                stateMachine.fire(cursor, event);
+            }
+        };
+    }
+}
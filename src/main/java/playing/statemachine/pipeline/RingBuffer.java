@@ -0,0 +1,119 @@
+package playing.statemachine.pipeline;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated multi-producer, single-consumer ring of event references.  Producers claim a sequence, store the
+ * event in its slot and then publish the slot by recording the sequence's lap around the ring; the consumer drains
+ * every contiguously published sequence as one batch and releases the slots with a single sequence update.  Neither
+ * side takes a lock or allocates per event.
+ */
+public class RingBuffer<E> {
+    private final Object[] entries;
+    private final int mask;
+    private final int indexShift;
+    private final AtomicIntegerArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final WaitStrategy producerWaitStrategy;
+
+    public RingBuffer(int size, WaitStrategy producerWaitStrategy) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a power of two: " + size);
+        }
+
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(size);
+        this.published = new AtomicIntegerArray(size);
+        this.producerWaitStrategy = producerWaitStrategy;
+        for (int lp = 0; lp < size; lp += 1) {
+            published.set(lp, -1);
+        }
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    public long publish(E event) {
+        final long sequence = claimed.incrementAndGet();
+
+        int attempt = 0;
+        while (sequence - entries.length > consumed.get()) {
+            producerWaitStrategy.idle(attempt);
+            attempt += 1;
+        }
+
+        write(sequence, event);
+        return sequence;
+    }
+
+    public boolean tryPublish(E event) {
+        long current;
+
+        do {
+            current = claimed.get();
+            if (current + 1 - entries.length > consumed.get()) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(current, current + 1));
+
+        write(current + 1, event);
+        return true;
+    }
+
+    public long remaining() {
+        return entries.length - (claimed.get() - consumed.get());
+    }
+
+    public int drain(EventHandler<? super E> handler) {
+        final long next = consumed.get() + 1;
+        final long available = highestPublished(next, claimed.get());
+
+        if (available < next) {
+            return 0;
+        }
+
+        long sequence = next;
+        try {
+            while (sequence <= available) {
+                final int index = index(sequence);
+                final E event = (E) entries[index];
+
+                entries[index] = null;
+                handler.onEvent(event, sequence, sequence == available);
+                sequence += 1;
+            }
+        } finally {
+            consumed.lazySet(Math.min(sequence, available));
+        }
+
+        return (int) (available - next + 1);
+    }
+
+    private void write(long sequence, E event) {
+        final int index = index(sequence);
+
+        entries[index] = event;
+        published.lazySet(index, lap(sequence));
+    }
+
+    private long highestPublished(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence += 1) {
+            if (published.get(index(sequence)) != lap(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return to;
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    private int lap(long sequence) {
+        return (int) (sequence >>> indexShift);
+    }
+}
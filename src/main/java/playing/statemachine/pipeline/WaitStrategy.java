@@ -0,0 +1,41 @@
+package playing.statemachine.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what a thread does while it waits on the ring buffer: a consumer waiting for events to be published or a
+ * producer waiting for the consumer to free a slot.  <code>attempt</code> counts the consecutive unsuccessful polls
+ * and is reset once progress is made.
+ */
+public interface WaitStrategy {
+    int SPIN_TRIES = 100;
+    int YIELD_TRIES = 200;
+
+    void idle(int attempt);
+
+    static WaitStrategy busySpin() {
+        return attempt -> Thread.onSpinWait();
+    }
+
+    static WaitStrategy yielding() {
+        return attempt -> {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        };
+    }
+
+    static WaitStrategy parking(long parkNanos) {
+        return attempt -> {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (attempt < YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+            }
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package playing.util;
+
+import java.util.*;
+
+/**
+ * Assigns the dense ids <code>0 .. size() - 1</code> to distinct values in order of first appearance so that values
+ * can be stored as ints and mapped back at API boundaries.
+ */
+public class DenseIds<T> {
+    private final Object[] values;
+    private final LookupTable<T, Integer> ids;
+
+    private DenseIds(List<T> values) {
+        final Map<T, Integer> ids = new HashMap<>();
+        for (int lp = 0; lp < values.size(); lp += 1) {
+            ids.put(values.get(lp), lp);
+        }
+
+        this.values = values.toArray();
+        this.ids = LookupTable.of(ids);
+    }
+
+    public static <T> DenseIds<T> of(Collection<T> values) {
+        return new DenseIds<>(new ArrayList<>(new LinkedHashSet<>(values)));
+    }
+
+    public int id(T value) {
+        final Integer id = ids.get(value);
+
+        return id == null ? -1 : id;
+    }
+
+    public T value(int id) {
+        return (T) values[id];
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
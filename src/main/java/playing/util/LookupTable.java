@@ -0,0 +1,80 @@
+package playing.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+public abstract class LookupTable<K, V> {
+    public abstract V get(K key);
+
+    public static <K, V> LookupTable<K, V> of(Map<K, V> entries) {
+        final Class enumClass = commonEnumClass(entries);
+
+        return enumClass == null ? new HashLookupTable<>(entries) : new EnumLookupTable<>(enumClass, entries);
+    }
+
+    public static <K> LookupTable<K, Boolean> ofKeys(Collection<K> keys) {
+        final Map<K, Boolean> entries = new HashMap<>();
+        for (K key : keys) {
+            entries.put(key, Boolean.TRUE);
+        }
+        return of(entries);
+    }
+
+    private static <K, V> Class commonEnumClass(Map<K, V> entries) {
+        Class enumClass = null;
+        for (K key : entries.keySet()) {
+            if (!(key instanceof Enum)) {
+                return null;
+            }
+            final Class keyClass = ((Enum) key).getDeclaringClass();
+            if (enumClass == null) {
+                enumClass = keyClass;
+            } else if (enumClass != keyClass) {
+                return null;
+            }
+        }
+        return enumClass;
+    }
+
+    private static class HashLookupTable<K, V> extends LookupTable<K, V> {
+        private final Map<K, V> entries;
+
+        private HashLookupTable(Map<K, V> entries) {
+            this.entries = new HashMap<>(entries);
+        }
+
+        @Override
+        public V get(K key) {
+            return entries.get(key);
+        }
+    }
+
+    private static class EnumLookupTable<K, V> extends LookupTable<K, V> {
+        private final Object[] keys;
+        private final Object[] values;
+
+        private EnumLookupTable(Class enumClass, Map<K, V> entries) {
+            final int size = enumClass.getEnumConstants().length;
+
+            this.keys = new Object[size];
+            this.values = new Object[size];
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                final int ordinal = ((Enum) entry.getKey()).ordinal();
+                keys[ordinal] = entry.getKey();
+                values[ordinal] = entry.getValue();
+            }
+        }
+
+        @Override
+        public V get(K key) {
+            if (key instanceof Enum) {
+                final int ordinal = ((Enum) key).ordinal();
+                if (ordinal < keys.length && keys[ordinal] == key) {
+                    return (V) values[ordinal];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package playing.statemachine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveCandidatesTest {
+    private static final int THREADS = 4;
+
+    @Test
+    public void given_concurrent_hits_should_reorder_by_the_most_frequent_candidate() throws Exception {
+        final LongAdder guardsSaved = new LongAdder();
+        final AdaptiveCandidates<String> adaptive = new AdaptiveCandidates<>(new String[]{"first", "second", "third"}, guardsSaved);
+        final int hitsPerThread = AdaptiveCandidates.SAMPLE_INTERVAL * AdaptiveCandidates.REORDER_INTERVAL;
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int lp = 0; lp < THREADS; lp += 1) {
+            threads.add(new Thread(() -> {
+                for (int hit = 0; hit < hitsPerThread; hit += 1) {
+                    final AdaptiveCandidates.Ordering<String> ordering = adaptive.ordering();
+                    adaptive.hit(ordering, position(ordering, "third"));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("third", adaptive.ordering().candidates[0]);
+        assertTrue(guardsSaved.sum() > 0);
+    }
+
+    private static int position(AdaptiveCandidates.Ordering<String> ordering, String candidate) {
+        for (int lp = 0; lp < ordering.candidates.length; lp += 1) {
+            if (ordering.candidates[lp].equals(candidate)) {
+                return lp;
+            }
+        }
+        throw new IllegalArgumentException(candidate);
+    }
+}
@@ -0,0 +1,35 @@
+package playing.statemachine;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Allocations {
+    public static final int EVENTS = 100_000;
+
+    private static final int WARMUPS = 3;
+    private static final long ALLOWED_BYTES = 1024;
+
+    public static long allocatedBytes(Runnable events) {
+        final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        final long threadId = Thread.currentThread().getId();
+        for (int lp = 0; lp < WARMUPS; lp += 1) {
+            events.run();
+        }
+
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        events.run();
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    public static void assertNoAllocationPerEvent(Runnable events) {
+        final long allocated = allocatedBytes(events);
+
+        assertTrue("Allocated " + allocated + " bytes for " + EVENTS + " events", allocated >= 0 && allocated < ALLOWED_BYTES);
+    }
+}
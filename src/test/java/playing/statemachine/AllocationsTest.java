@@ -0,0 +1,35 @@
+package playing.statemachine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.Allocations.EVENTS;
+
+public class AllocationsTest {
+    private static volatile Object sink;
+
+    @Test
+    public void given_events_that_allocate_an_object_each_should_fail_the_assertion() throws Exception {
+        try {
+            Allocations.assertNoAllocationPerEvent(() -> {
+                for (int lp = 0; lp < EVENTS; lp += 1) {
+                    sink = new Object();
+                }
+            });
+            fail("Expected an allocation per event to be detected");
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage().startsWith("Allocated "));
+        }
+    }
+
+    @Test
+    public void given_events_that_do_not_allocate_should_pass_the_assertion() throws Exception {
+        final Object shared = new Object();
+
+        Allocations.assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                sink = shared;
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package playing.statemachine;
+
+import org.junit.Test;
+import playing.util.DenseIds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchersTest {
+    private static final int TRANSITIONS = 1000;
+    private static final int EVENTS = 10;
+
+    private final List<String> trace = new ArrayList<>();
+
+    private List<TransitionCallbacks> transitions() {
+        final List<TransitionCallbacks> result = new ArrayList<>();
+        for (int lp = 0; lp < TRANSITIONS; lp += 1) {
+            final int id = lp;
+            final BiPredicate<Integer, Integer> guard = (runtimeState, event) -> event % (id + 1) == 0;
+            final Function<Integer, Integer> exit = runtimeState -> runtimeState + 1;
+            final BiFunction<Integer, Integer, Integer> action = (runtimeState, event) -> runtimeState * 1000 + id;
+
+            result.add(new TransitionCallbacks(
+                    id % 2 == 0 ? Callback.biPredicate(guard) : Callback.none(),
+                    id % 3 == 0 ? Callback.function(exit) : Callback.none(),
+                    Callback.biFunction(action),
+                    Callback.voidConsumer(() -> trace.add("entry " + id))));
+        }
+        return result;
+    }
+
+    private DispatchTable<String> table(int transitions) {
+        final List<Integer> ids = new ArrayList<>();
+        final List<Integer> events = new ArrayList<>();
+        for (int lp = 0; lp < transitions; lp += 1) {
+            ids.add(lp);
+        }
+        for (int lp = 0; lp < EVENTS; lp += 1) {
+            events.add(lp);
+        }
+        return DispatchTable.byEvent(DenseIds.of(Collections.singletonList("S")), DenseIds.of(events), ids, id -> id, id -> "S", id -> id % EVENTS);
+    }
+
+    private CompiledDispatcher compile(List<TransitionCallbacks> transitions) {
+        return Dispatchers.compile(transitions, table(transitions.size()), new DispatchHooks(null, null, new ArrayList<>(), new ArrayList<>()));
+    }
+
+    @Test
+    public void given_a_compiled_dispatcher_should_behave_like_the_interpreted_dispatcher() throws Exception {
+        final Dispatcher interpreted = Dispatchers.interpret(transitions());
+        final Dispatcher compiled = compile(transitions());
+
+        for (int transition = 0; transition < TRANSITIONS; transition += 1) {
+            for (int event = 1; event < 10; event += 1) {
+                assertEquals(interpreted.guard(transition, 0, event), compiled.guard(transition, 0, event));
+            }
+            assertEquals(interpreted.exit(transition, 7, 1), compiled.exit(transition, 7, 1));
+            assertEquals(interpreted.action(transition, 7, 1), compiled.action(transition, 7, 1));
+            assertEquals(interpreted.entry(transition, 7, 1), compiled.entry(transition, 7, 1));
+            assertEquals(interpreted.fire(transition, 7, 1), compiled.fire(transition, 7, 1));
+        }
+        assertEquals(4 * TRANSITIONS, trace.size());
+        assertEquals("entry " + (TRANSITIONS - 1), trace.get(trace.size() - 1));
+    }
+
+    @Test
+    public void given_a_compiled_dispatcher_should_find_the_first_candidate_whose_guard_passes() throws Exception {
+        final Dispatcher interpreted = Dispatchers.interpret(transitions());
+        final DispatchTable<String> table = table(TRANSITIONS);
+        final CompiledDispatcher compiled = compile(transitions());
+
+        for (int event = 0; event < EVENTS; event += 1) {
+            int expected = DispatchTable.NO_TRANSITION;
+            for (int transition = event; transition < TRANSITIONS; transition += EVENTS) {
+                if (interpreted.guard(transition, 0, event)) {
+                    expected = transition;
+                    break;
+                }
+            }
+            assertEquals(expected, table.find(compiled, "S", 0, event));
+        }
+        assertEquals(DispatchTable.NO_TRANSITION, table.find(compiled, "S", 0, EVENTS));
+        assertEquals(DispatchTable.NO_TRANSITION, table.find(compiled, "T", 0, 1));
+    }
+
+    @Test
+    public void given_an_unknown_transition_should_not_fire_and_leave_the_runtime_state_unchanged() throws Exception {
+        final Dispatcher compiled = compile(transitions());
+
+        assertFalse(compiled.guard(TRANSITIONS, 0, 1));
+        assertEquals(7, compiled.action(TRANSITIONS, 7, 1));
+        assertTrue(compile(new ArrayList<>()).exit(0, "state", 1).equals("state"));
+    }
+
+    @Test
+    public void given_no_listeners_should_leave_the_dispatcher_undecorated() throws Exception {
+        final Dispatcher dispatcher = Dispatchers.interpret(transitions());
+
+        assertTrue(dispatcher == Dispatchers.withListeners(dispatcher, new ArrayList<>(), new ArrayList<>()));
+    }
+}
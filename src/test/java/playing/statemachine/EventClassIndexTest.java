@@ -0,0 +1,66 @@
+package playing.statemachine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EventClassIndexTest {
+    private static class Declared {
+        final String state;
+        final Class eventClass;
+
+        Declared(String state, Class eventClass) {
+            this.state = state;
+            this.eventClass = eventClass;
+        }
+    }
+
+    private final Declared onNumber = new Declared("A", Number.class);
+    private final Declared onInteger = new Declared("A", Integer.class);
+    private final Declared onObject = new Declared("A", Object.class);
+    private final Declared onLong = new Declared("B", Long.class);
+
+    private final EventClassIndex<String, Declared> index = EventClassIndex.build(
+            Arrays.asList(onNumber, onInteger, onObject, onLong), d -> d.state, d -> d.eventClass, Declared[]::new);
+
+    @Test
+    public void given_an_event_should_return_candidates_matching_subclasses_in_declaration_order() throws Exception {
+        assertArrayEquals(new Declared[]{onNumber, onInteger, onObject}, index.find("A", 1));
+        assertArrayEquals(new Declared[]{onNumber, onObject}, index.find("A", 1L));
+        assertArrayEquals(new Declared[]{onObject}, index.find("A", "text"));
+        assertArrayEquals(new Declared[]{onLong}, index.find("B", 1L));
+        assertArrayEquals(new Declared[]{}, index.find("B", 1));
+    }
+
+    @Test
+    public void given_an_unknown_state_or_null_event_should_return_no_candidates() throws Exception {
+        assertNull(index.find("C", 1));
+        assertNull(index.find("A", null));
+    }
+
+    @Test
+    public void given_concurrent_readers_should_resolve_a_single_candidate_array() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Declared[]>> results = new ArrayList<>();
+            for (int lp = 0; lp < 64; lp += 1) {
+                results.add(executor.submit(() -> index.find("A", 2.0)));
+            }
+
+            final Declared[] first = results.get(0).get();
+            assertArrayEquals(new Declared[]{onNumber, onObject}, first);
+            for (Future<Declared[]> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
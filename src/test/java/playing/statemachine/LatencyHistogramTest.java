@@ -0,0 +1,52 @@
+package playing.statemachine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void given_uniform_latencies_should_report_percentiles_within_the_bucket_precision() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long lp = 1; lp <= 100_000; lp += 1) {
+            histogram.record(lp * 1000);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count);
+        assertWithin(50_000_000, snapshot.p50());
+        assertWithin(99_000_000, snapshot.p99());
+        assertWithin(99_900_000, snapshot.p999());
+        assertWithin(100_000_000, snapshot.max());
+    }
+
+    @Test
+    public void given_small_latencies_should_count_them_exactly() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int lp = 0; lp < 32; lp += 1) {
+            histogram.record(lp);
+        }
+
+        assertEquals(15, histogram.snapshot().p50());
+        assertEquals(31, histogram.snapshot().max());
+    }
+
+    @Test
+    public void given_a_snapshot_and_reset_should_start_the_next_interval_empty() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(500);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.snapshotAndReset().count);
+        assertEquals(0, histogram.snapshot().count);
+        assertEquals(0, histogram.snapshot().p99());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,87 @@
+package playing.statemachine;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    private final AtomicLong now = new AtomicLong();
+    private final TimingWheel wheel = new TimingWheel(Duration.ofMillis(1), now::get);
+
+    private void advanceBy(Duration duration) {
+        now.addAndGet(duration.toNanos());
+        wheel.advance();
+    }
+
+    @Test
+    public void given_timers_should_run_each_once_its_delay_has_passed() throws Exception {
+        final List<String> expired = new ArrayList<>();
+        wheel.schedule(Duration.ofMillis(5), () -> expired.add("5ms"));
+        wheel.schedule(Duration.ofSeconds(30), () -> expired.add("30s"));
+        wheel.schedule(Duration.ofHours(5), () -> expired.add("5h"));
+
+        advanceBy(Duration.ofMillis(4));
+        assertEquals(Arrays.asList(), expired);
+        advanceBy(Duration.ofMillis(1));
+        assertEquals(Arrays.asList("5ms"), expired);
+        advanceBy(Duration.ofSeconds(30).minusMillis(6));
+        assertEquals(Arrays.asList("5ms"), expired);
+        advanceBy(Duration.ofMillis(1));
+        assertEquals(Arrays.asList("5ms", "30s"), expired);
+        advanceBy(Duration.ofHours(5).minusSeconds(30).minusMillis(1));
+        assertEquals(Arrays.asList("5ms", "30s"), expired);
+        advanceBy(Duration.ofMillis(1));
+        assertEquals(Arrays.asList("5ms", "30s", "5h"), expired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void given_a_cancelled_timer_should_not_run_it() throws Exception {
+        final List<String> expired = new ArrayList<>();
+        final TimingWheel.Timer cancelled = wheel.schedule(Duration.ofMillis(100), () -> expired.add("cancelled"));
+        wheel.schedule(Duration.ofMillis(100), () -> expired.add("kept"));
+
+        cancelled.cancel();
+        advanceBy(Duration.ofSeconds(1));
+
+        assertEquals(Arrays.asList("kept"), expired);
+        assertFalse(cancelled.isPending());
+    }
+
+    @Test
+    public void given_a_rescheduled_timer_should_run_it_at_its_new_deadline() throws Exception {
+        final int[] runs = {0};
+        final TimingWheel.Timer timer = new TimingWheel.Timer(() -> runs[0] += 1);
+
+        wheel.schedule(timer, Duration.ofMillis(10));
+        advanceBy(Duration.ofMillis(8));
+        wheel.schedule(timer, Duration.ofMillis(10));
+        advanceBy(Duration.ofMillis(9));
+        assertEquals(0, runs[0]);
+        advanceBy(Duration.ofMillis(1));
+        assertEquals(1, runs[0]);
+        assertEquals(1, wheel.pending() + runs[0]);
+    }
+
+    @Test
+    public void given_many_timers_should_run_every_one_in_deadline_order() throws Exception {
+        final List<Long> expired = new ArrayList<>();
+        for (long delay = 4096 * 3; delay > 0; delay -= 7) {
+            final long deadline = delay;
+            wheel.schedule(Duration.ofMillis(delay), () -> expired.add(deadline));
+        }
+
+        advanceBy(Duration.ofMillis(4096 * 3));
+
+        assertEquals((4096 * 3 + 6) / 7, expired.size());
+        for (int lp = 1; lp < expired.size(); lp += 1) {
+            assertTrue(expired.get(lp - 1) < expired.get(lp));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package playing.statemachine.classstateful.coincount;
+
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.classstateful.ActorRuntime;
+import playing.statemachine.classstateful.ActorRuntime.OverflowPolicy;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.classstateful.coincount.State.*;
+
+public class ActorRuntimeTest {
+    private static final int INSTANCES = 10_000;
+    private static final int TOSSES = 20;
+
+    private StateMachine<State, RuntimeState> stateMachine;
+    private CountDownLatch gate;
+    private ExecutorService gatedExecutor;
+
+    @Before
+    public void before() {
+        stateMachine = new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .terminalState(FINAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).action(RuntimeState::toss)
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HeadsToss.class).action(RuntimeState::incHeads)
+                        .onEvent(TailsToss.class).action(RuntimeState::incTails)
+                        .onEvent(MiracleToss.class).changeTo(FINAL).action(RuntimeState::toss))
+                .build();
+
+        gate = new CountDownLatch(1);
+        gatedExecutor = Executors.newSingleThreadExecutor();
+        gatedExecutor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    public void given_many_instances_should_process_each_mailbox_in_order() throws Exception {
+        final ActorRuntime<Integer, State, RuntimeState> runtime = new ActorRuntime<>(stateMachine, 4, OverflowPolicy.BLOCK);
+
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            runtime.spawn(lp, new RuntimeState());
+        }
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            runtime.send(lp, new MiracleToss(1));
+        }
+        for (int toss = 0; toss < TOSSES; toss += 1) {
+            for (int lp = 0; lp < INSTANCES; lp += 1) {
+                runtime.send(lp, toss % 2 == 0 ? new HeadsToss(1) : new TailsToss(1));
+            }
+        }
+        for (int lp = 0; lp < INSTANCES; lp += 2) {
+            runtime.send(lp, new MiracleToss(1));
+            runtime.send(lp, new HeadsToss(1));
+        }
+        runtime.close();
+
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            final Tuple<State, RuntimeState> state = runtime.state(lp).get();
+
+            assertEquals(lp % 2 == 0 ? FINAL : COUNT, state._1);
+            assertEquals(TOSSES / 2, state._2.heads);
+            assertEquals(TOSSES / 2, state._2.tails);
+            assertEquals(1, state._2.exitInitialStateCount);
+        }
+    }
+
+    @Test
+    public void given_a_full_mailbox_with_REJECT_should_refuse_the_event() throws Exception {
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(stateMachine, 2, OverflowPolicy.REJECT, gatedExecutor);
+        runtime.spawn("a", new RuntimeState());
+
+        assertTrue(runtime.send("a", new MiracleToss(10)));
+        assertTrue(runtime.send("a", new HeadsToss(100)));
+        assertFalse(runtime.send("a", new TailsToss(1000)));
+        gate.countDown();
+        runtime.close();
+
+        final Tuple<State, RuntimeState> state = runtime.state("a").get();
+        assertEquals(COUNT, state._1);
+        assertEquals(1, state._2.heads);
+        assertEquals(0, state._2.tails);
+        assertEquals(110, state._2.totalDuration);
+    }
+
+    @Test
+    public void given_a_full_mailbox_with_DROP_OLDEST_should_discard_the_oldest_event() throws Exception {
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(stateMachine, 2, OverflowPolicy.DROP_OLDEST, gatedExecutor);
+        runtime.spawn("a", new RuntimeState());
+
+        assertTrue(runtime.send("a", new TailsToss(1)));
+        assertTrue(runtime.send("a", new MiracleToss(10)));
+        assertTrue(runtime.send("a", new HeadsToss(100)));
+        gate.countDown();
+        runtime.close();
+
+        final Tuple<State, RuntimeState> state = runtime.state("a").get();
+        assertEquals(COUNT, state._1);
+        assertEquals(1, state._2.heads);
+        assertEquals(110, state._2.totalDuration);
+    }
+
+    @Test
+    public void given_a_full_mailbox_with_BLOCK_should_wait_until_there_is_space() throws Exception {
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(stateMachine, 1, OverflowPolicy.BLOCK, gatedExecutor);
+        runtime.spawn("a", new RuntimeState());
+        runtime.send("a", new MiracleToss(10));
+
+        final Thread sender = new Thread(() -> runtime.send("a", new HeadsToss(100)));
+        sender.start();
+        while (sender.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        gate.countDown();
+        sender.join();
+        runtime.close();
+
+        final Tuple<State, RuntimeState> state = runtime.state("a").get();
+        assertEquals(COUNT, state._1);
+        assertEquals(1, state._2.heads);
+    }
+
+    @Test
+    public void given_an_action_posting_to_its_own_full_mailbox_with_BLOCK_should_enqueue_rather_than_deadlock() throws Exception {
+        final List<ActorRuntime<String, State, RuntimeState>> runtimes = new CopyOnWriteArrayList<>();
+        final StateMachine<State, RuntimeState> selfPosting = new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).action((runtimeState, toss) -> {
+                            assertTrue(runtimes.get(0).send("a", new HeadsToss(1)));
+                            assertTrue(runtimes.get(0).send("a", new HeadsToss(1)));
+                            assertTrue(runtimes.get(0).send("a", new HeadsToss(1)));
+                            return runtimeState.toss(toss);
+                        }))
+                .onState(COUNT, s -> s
+                        .onEvent(HeadsToss.class).action(RuntimeState::incHeads))
+                .build();
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(selfPosting, 1, OverflowPolicy.BLOCK, Executors.newSingleThreadExecutor());
+        runtimes.add(runtime);
+        runtime.spawn("a", new RuntimeState());
+
+        runtime.send("a", new MiracleToss(1));
+        assertTrue(runtime.awaitTermination(10, TimeUnit.SECONDS));
+
+        final Tuple<State, RuntimeState> state = runtime.state("a").get();
+        assertEquals(COUNT, state._1);
+        assertEquals(3, state._2.heads);
+    }
+
+    @Test
+    public void given_an_action_that_throws_should_report_it_and_process_later_events() throws Exception {
+        final List<Throwable> failures = new CopyOnWriteArrayList<>();
+        final StateMachine<State, RuntimeState> failing = new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).action(RuntimeState::toss))
+                .onState(COUNT, s -> s
+                        .onEvent(HeadsToss.class).action(RuntimeState::incHeads)
+                        .onEvent(TailsToss.class).action((runtimeState, toss) -> {
+                            throw new IllegalStateException("tails");
+                        }))
+                .build();
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(failing, 1, OverflowPolicy.BLOCK, Executors.newSingleThreadExecutor(task -> {
+            final Thread thread = new Thread(task);
+            thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+            return thread;
+        }));
+        runtime.spawn("a", new RuntimeState());
+
+        runtime.send("a", new MiracleToss(1));
+        runtime.send("a", new TailsToss(1));
+        runtime.send("a", new HeadsToss(1));
+        runtime.send("a", new TailsToss(1));
+        runtime.send("a", new HeadsToss(1));
+        runtime.close();
+
+        final Tuple<State, RuntimeState> state = runtime.state("a").get();
+        assertEquals(COUNT, state._1);
+        assertEquals(2, state._2.heads);
+        assertEquals(2, failures.size());
+        assertEquals("tails", failures.get(0).getMessage());
+    }
+
+    @Test
+    public void given_a_terminal_state_should_ignore_further_events() throws Exception {
+        final ActorRuntime<String, State, RuntimeState> runtime = new ActorRuntime<>(stateMachine, 8, OverflowPolicy.REJECT, gatedExecutor);
+        runtime.spawn("a", new RuntimeState());
+
+        runtime.send("a", new MiracleToss(1));
+        runtime.send("a", new MiracleToss(1));
+        runtime.send("a", new MiracleToss(1));
+        gate.countDown();
+        runtime.close();
+
+        assertEquals(FINAL, runtime.stop("a").get()._1);
+        assertEquals(0, runtime.size());
+    }
+}
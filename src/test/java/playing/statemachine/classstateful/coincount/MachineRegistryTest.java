@@ -0,0 +1,135 @@
+package playing.statemachine.classstateful.coincount;
+
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.classstateful.MachineRegistry;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.classstateful.coincount.State.*;
+
+public class MachineRegistryTest {
+    private static final int INSTANCES = 1_000;
+    private static final int THREADS = 8;
+    private static final int TOSSES_PER_THREAD = 250;
+
+    private MachineRegistry<Integer, State, RuntimeState> registry;
+
+    @Before
+    public void before() {
+        final StateMachine<State, RuntimeState> stateMachine = new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).action(RuntimeState::toss)
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HeadsToss.class).action(RuntimeState::incHeads)
+                        .onEvent(TailsToss.class).action(RuntimeState::incTails)
+                        .onEvent(MiracleToss.class).changeTo(FINAL).action(RuntimeState::toss))
+                .build();
+
+        registry = new MachineRegistry<>(stateMachine, 4, INSTANCES);
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            assertTrue(registry.register(lp, new RuntimeState()));
+        }
+    }
+
+    @Test
+    public void given_a_registered_instance_should_fire_events_against_its_own_state() throws Exception {
+        assertTrue(registry.fire(7, new MiracleToss(1)));
+        assertTrue(registry.fire(7, new HeadsToss(2)));
+        assertFalse(registry.fire(8, new HeadsToss(2)));
+
+        final Tuple<State, RuntimeState> seven = registry.get(7).get();
+        assertEquals(COUNT, seven._1);
+        assertEquals(1, seven._2.heads);
+        assertEquals(INITIAL, registry.get(8).get()._1);
+        assertFalse(registry.get(INSTANCES).isPresent());
+    }
+
+    @Test
+    public void given_an_existing_instance_should_not_register_it_again() throws Exception {
+        registry.fire(1, new MiracleToss(1));
+
+        assertFalse(registry.register(1, new RuntimeState()));
+        assertEquals(COUNT, registry.get(1).get()._1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void given_an_unknown_instance_should_reject_the_event() throws Exception {
+        registry.fire(INSTANCES, new HeadsToss(1));
+    }
+
+    @Test
+    public void given_a_removed_instance_should_return_its_final_state() throws Exception {
+        registry.fire(3, new MiracleToss(1));
+
+        assertEquals(COUNT, registry.remove(3).get()._1);
+        assertFalse(registry.get(3).isPresent());
+        assertEquals(INSTANCES - 1, registry.size());
+    }
+
+    @Test
+    public void given_concurrent_events_for_the_same_instances_should_not_lose_updates() throws Exception {
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            registry.fire(lp, new MiracleToss(0));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread += 1) {
+                futures.add(executor.submit(() -> {
+                    for (int toss = 0; toss < TOSSES_PER_THREAD; toss += 1) {
+                        for (int id = 0; id < INSTANCES; id += 1) {
+                            registry.fire(id, new HeadsToss(1));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            assertEquals(THREADS * TOSSES_PER_THREAD, registry.get(lp).get()._2.heads);
+        }
+    }
+
+    @Test
+    public void given_an_instance_removed_while_events_are_fired_should_not_lose_an_accepted_event() throws Exception {
+        registry.fire(0, new MiracleToss(0));
+
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread firing = new Thread(() -> {
+            try {
+                while (true) {
+                    registry.fire(0, new HeadsToss(1));
+                    accepted.incrementAndGet();
+                }
+            } catch (IllegalArgumentException e) {
+                // removed
+            }
+        });
+        firing.start();
+        while (accepted.get() < 1_000) {
+            Thread.yield();
+        }
+        final Tuple<State, RuntimeState> removed = registry.remove(0).get();
+        firing.join();
+
+        assertEquals(accepted.get(), removed._2.heads);
+    }
+}
@@ -0,0 +1,62 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class AdaptiveGuardOrderTest {
+    private static final int TOSSES = 20_000;
+
+    private StateMachine<State, RuntimeState> stateMachine(boolean exclusive) {
+        return new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(CoinToss.class).condition((state, event) -> !event.isHeads() && !event.isTails()).changeTo(COUNT).action(RuntimeState::toss))
+                .onState(COUNT, s -> (exclusive ? s.mutuallyExclusive(CoinToss.class) : s)
+                        .onEvent(CoinToss.class).condition((state, event) -> event.isHeads()).action(RuntimeState::toss)
+                        .onEvent(CoinToss.class).condition((state, event) -> event.isTails()).action(RuntimeState::toss)
+                        .onEvent(CoinToss.class).condition((state, event) -> !event.isHeads() && !event.isTails()).changeTo(FINAL).action(RuntimeState::toss))
+                .build();
+    }
+
+    @Test
+    public void given_mostly_TAIL_events_and_exclusive_guards_should_save_guard_evaluations() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = stateMachine(true);
+
+        final Tuple<State, RuntimeState> result = stateMachine.process(stateMachine.start(new RuntimeState()), tosses().iterator());
+
+        assertEquals(FINAL, result._1);
+        assertEquals(TOSSES - TOSSES / 10, result._2.tails);
+        assertEquals(TOSSES / 10, result._2.heads);
+        assertTrue(stateMachine.guardEvaluationsSaved() > TOSSES / 2);
+    }
+
+    @Test
+    public void given_guards_not_declared_exclusive_should_keep_declaration_order() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = stateMachine(false);
+
+        final Tuple<State, RuntimeState> result = stateMachine.process(stateMachine.start(new RuntimeState()), tosses().iterator());
+
+        assertEquals(FINAL, result._1);
+        assertEquals(TOSSES - TOSSES / 10, result._2.tails);
+        assertEquals(0, stateMachine.guardEvaluationsSaved());
+    }
+
+    private static List<CoinToss> tosses() {
+        final List<CoinToss> tosses = new ArrayList<>();
+
+        tosses.add(new MiracleToss(1));
+        for (int lp = 0; lp < TOSSES; lp += 1) {
+            tosses.add(lp % 10 == 0 ? new HeadsToss(1) : new TailsToss(1));
+        }
+        tosses.add(new MiracleToss(1));
+        return tosses;
+    }
+}
@@ -0,0 +1,33 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.classstateful.StateMachine;
+
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class CursorAllocationTest {
+    private static final CoinToss[] TOSSES = {new MiracleToss(1), new HeadsToss(1), new TailsToss(1), new HeadsToss(1), new MiracleToss(1), new TailsToss(1)};
+
+    @Test
+    public void given_a_compiled_cursor_with_guards_should_not_allocate_per_event() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).noAction())
+                .onState(COUNT, s -> s
+                        .onEvent(CoinToss.class).condition((runtimeState, toss) -> toss.isHeads()).action((runtimeState, toss) -> runtimeState)
+                        .onEvent(CoinToss.class).condition((runtimeState, toss) -> toss.isTails()).action((runtimeState, toss) -> runtimeState)
+                        .onEvent(MiracleToss.class).changeTo(INITIAL).noAction())
+                .compile();
+        final MachineCursor<State, RuntimeState> cursor = stateMachine.cursor(new RuntimeState());
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                stateMachine.fire(cursor, TOSSES[lp % TOSSES.length]);
+            }
+        });
+    }
+}
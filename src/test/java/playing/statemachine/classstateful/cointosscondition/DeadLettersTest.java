@@ -0,0 +1,88 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.DeadLetters;
+import playing.statemachine.classstateful.StateMachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class DeadLettersTest {
+    private StateMachine<State, RuntimeState> stateMachine(DeadLetters deadLetters) {
+        return new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(CoinToss.class).condition((state, event) -> !event.isHeads() && !event.isTails()).changeTo(COUNT).action(RuntimeState::toss))
+                .onState(COUNT, s -> s
+                        .onEvent(CoinToss.class).condition((state, event) -> event.isHeads()).action(RuntimeState::toss))
+                .listener(deadLetters)
+                .build();
+    }
+
+    @Test
+    public void given_a_TAIL_event_in_INITIAL_state_should_record_a_dead_letter() throws Exception {
+        final DeadLetters deadLetters = new DeadLetters(16);
+        final StateMachine<State, RuntimeState> stateMachine = stateMachine(deadLetters);
+        final TailsToss tails = new TailsToss(2);
+        final long before = System.currentTimeMillis();
+
+        stateMachine.process(stateMachine.start(new RuntimeState()), tails, new MiracleToss(1), new HeadsToss(1), tails);
+
+        final List<DeadLetters.DeadLetter> letters = deadLetters.snapshot();
+        assertEquals(2, letters.size());
+        assertEquals(INITIAL, letters.get(0).state);
+        assertSame(tails, letters.get(0).event);
+        assertEquals(COUNT, letters.get(1).state);
+        assertTrue(letters.get(0).timestamp >= before);
+    }
+
+    @Test
+    public void given_sampling_and_more_dead_letters_than_capacity_should_keep_the_most_recent_samples() throws Exception {
+        final DeadLetters deadLetters = new DeadLetters(4, 3);
+        final StateMachine<State, RuntimeState> stateMachine = stateMachine(deadLetters);
+        final List<TailsToss> events = new ArrayList<>();
+
+        for (int lp = 0; lp < 30; lp += 1) {
+            events.add(new TailsToss(lp));
+        }
+        stateMachine.process(stateMachine.start(new RuntimeState()), events.iterator());
+
+        final List<DeadLetters.DeadLetter> letters = deadLetters.snapshot();
+        assertEquals(30, deadLetters.unmatchedCount());
+        assertEquals(10, deadLetters.recordedCount());
+        assertEquals(4, letters.size());
+        for (int lp = 0; lp < 4; lp += 1) {
+            assertEquals(18 + 3 * lp, ((TailsToss) letters.get(lp).event).spinDuration());
+        }
+    }
+
+    @Test
+    public void given_concurrent_writers_should_never_expose_a_torn_record() throws Exception {
+        final DeadLetters deadLetters = new DeadLetters(8);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int lp = 0; lp < 4; lp += 1) {
+            final long writer = lp;
+            threads.add(new Thread(() -> {
+                for (int event = 0; event < 20_000; event += 1) {
+                    deadLetters.unmatched(writer, writer);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            for (DeadLetters.DeadLetter letter : deadLetters.snapshot()) {
+                assertEquals(letter.state, letter.event);
+            }
+        }
+
+        for (long lp = 0; lp < 8; lp += 1) {
+            deadLetters.unmatched(lp, lp);
+        }
+        assertEquals(80_008, deadLetters.unmatchedCount());
+        assertEquals(8, deadLetters.snapshot().size());
+    }
+}
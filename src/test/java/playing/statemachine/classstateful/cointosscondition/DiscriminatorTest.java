@@ -0,0 +1,62 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class DiscriminatorTest {
+    enum Side {H, T, M}
+
+    private final AtomicInteger discriminations = new AtomicInteger();
+
+    private Side side(CoinToss toss) {
+        discriminations.incrementAndGet();
+        return toss.isHeads() ? Side.H : toss.isTails() ? Side.T : Side.M;
+    }
+
+    private StateMachine<State, RuntimeState> stateMachine() {
+        return new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(CoinToss.class).discriminateBy(this::side).when(Side.M).changeTo(COUNT).action(RuntimeState::toss)
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(CoinToss.class).discriminateBy(this::side).when(Side.H).action(RuntimeState::toss)
+                        .onEvent(CoinToss.class).when(Side.T).action(RuntimeState::toss)
+                        .onEvent(CoinToss.class).when(Side.M).changeTo(FINAL).action(RuntimeState::toss))
+                .build();
+    }
+
+    @Test
+    public void given_a_discriminator_should_select_the_transition_by_key() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = stateMachine();
+
+        final Tuple<State, RuntimeState> result = stateMachine.process(stateMachine.start(new RuntimeState()),
+                new TailsToss(1), new MiracleToss(2), new HeadsToss(3), new TailsToss(4), new TailsToss(5), new MiracleToss(6), new HeadsToss(7));
+
+        assertEquals(FINAL, result._1);
+        assertEquals(1, result._2.heads);
+        assertEquals(2, result._2.tails);
+        assertEquals(1, result._2.exitInitialStateCount);
+        assertEquals(20, result._2.totalDuration);
+        assertEquals(6, discriminations.get());
+    }
+
+    @Test
+    public void given_a_key_without_a_discriminator_should_fail_to_declare_the_transition() throws Exception {
+        try {
+            new StateMachine.Builder<State, RuntimeState>()
+                    .initialState(INITIAL)
+                    .onState(INITIAL, s -> s.onEvent(CoinToss.class).when(Side.M).changeTo(COUNT).noAction());
+            fail("Expected the declaration to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("No discriminator declared for INITIAL"));
+        }
+    }
+}
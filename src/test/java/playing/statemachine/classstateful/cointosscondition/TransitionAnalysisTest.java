@@ -0,0 +1,58 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.TransitionAnalysis;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.Collections;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class TransitionAnalysisTest {
+    private StateMachine.Builder<State, RuntimeState> builder() {
+        return new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(CoinToss.class).changeTo(COUNT).action(RuntimeState::toss)
+                        .onEvent(HeadsToss.class).changeTo(FINAL).action(RuntimeState::toss))
+                .onState(COUNT, s -> s
+                        .onEvent(HeadsToss.class).condition((state, event) -> event.spinDuration() > 10).action(RuntimeState::toss)
+                        .onEvent(HeadsToss.class).action(RuntimeState::toss));
+    }
+
+    @Test
+    public void given_a_transition_after_an_unconditional_superclass_transition_should_report_it_as_shadowed() throws Exception {
+        final TransitionAnalysis<State, ?> analysis = builder().analyse();
+
+        assertEquals(1, analysis.shadowed().size());
+        assertEquals(FINAL, analysis.shadowed().get(0).toState());
+        assertEquals(1, analysis.duplicates().size());
+        assertEquals(COUNT, analysis.duplicates().get(0).fromState());
+        assertEquals(Collections.singleton(FINAL), analysis.unreachableStates());
+        assertFalse(analysis.isValid());
+    }
+
+    @Test
+    public void given_a_shadowed_transition_should_remove_it_from_the_built_machine() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = builder().build();
+
+        final Tuple<State, RuntimeState> result = stateMachine.process(stateMachine.start(new RuntimeState()), new HeadsToss(1), new HeadsToss(20));
+
+        assertEquals(COUNT, result._1);
+        assertEquals(2, result._2.heads);
+        assertEquals(3, StreamSupport.stream(stateMachine.transitions().spliterator(), false).count());
+    }
+
+    @Test
+    public void given_strict_mode_should_refuse_to_build_a_machine_with_shadowed_transitions() throws Exception {
+        try {
+            builder().strict().build();
+            fail("Expected the build to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("unreachable states: [FINAL]"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package playing.statemachine.classstateful.cointosscondition;
+
+import org.junit.Test;
+import playing.statemachine.StateMachineTransition;
+import playing.statemachine.TransitionListener;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static playing.statemachine.classstateful.cointosscondition.State.*;
+
+public class TransitionListenerTest {
+    private final List<String> trace = new ArrayList<>();
+
+    private final TransitionListener tracer = new TransitionListener() {
+        @Override
+        public void beforeExit(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            trace.add("exit " + transition.fromState() + " " + ((RuntimeState) runtimeState).enterCountStateCount);
+        }
+
+        @Override
+        public void afterAction(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            trace.add("action " + event.getClass().getSimpleName() + " " + ((RuntimeState) runtimeState).heads);
+        }
+
+        @Override
+        public void afterEntry(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+            trace.add("entry " + transition.toState() + " " + ((RuntimeState) runtimeState).enterCountStateCount);
+        }
+
+        @Override
+        public void unmatched(Object state, Object event) {
+            trace.add("unmatched " + state + " " + event.getClass().getSimpleName());
+        }
+    };
+
+    private StateMachine.Builder<State, RuntimeState> builder() {
+        return new StateMachine.Builder<State, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).action(RuntimeState::toss))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HeadsToss.class).action(RuntimeState::toss));
+    }
+
+    @Test
+    public void given_a_listener_should_observe_exits_actions_entries_and_unmatched_events() throws Exception {
+        final StateMachine<State, RuntimeState> stateMachine = builder().listener(tracer).build();
+
+        final Tuple<State, RuntimeState> result = stateMachine.process(stateMachine.start(new RuntimeState()), new TailsToss(1), new MiracleToss(1), new HeadsToss(1));
+
+        assertEquals(COUNT, result._1);
+        assertEquals(Arrays.asList(
+                "unmatched INITIAL TailsToss",
+                "exit INITIAL 0", "action MiracleToss 0", "entry COUNT 1",
+                "exit COUNT 1", "action HeadsToss 1", "entry COUNT 2"), trace);
+    }
+
+    @Test
+    public void given_several_listeners_should_call_each_in_registration_order() throws Exception {
+        final List<String> order = new ArrayList<>();
+        final StateMachine<State, RuntimeState> stateMachine = builder()
+                .listener(new TransitionListener() {
+                    @Override
+                    public void afterEntry(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+                        order.add("first");
+                    }
+                })
+                .listener(new TransitionListener() {
+                    @Override
+                    public void afterEntry(StateMachineTransition<?, ?> transition, Object runtimeState, Object event) {
+                        order.add("second");
+                    }
+                })
+                .compile();
+
+        stateMachine.process(stateMachine.start(new RuntimeState()), new MiracleToss(1));
+
+        assertEquals(Arrays.asList("first", "second"), order);
+    }
+}
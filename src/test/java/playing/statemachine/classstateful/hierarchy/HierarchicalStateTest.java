@@ -0,0 +1,116 @@
+package playing.statemachine.classstateful.hierarchy;
+
+import org.junit.Test;
+import playing.statemachine.PlantUMLWriter;
+import playing.statemachine.classstateful.StateMachine;
+import playing.util.Tuple;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HierarchicalStateTest {
+    static class Power {
+    }
+
+    static class Work {
+    }
+
+    static class Done {
+    }
+
+    private StateMachine.Builder<String, List<String>> builder() {
+        return new StateMachine.Builder<String, List<String>>()
+                .initialState("OFF")
+                .onState("OFF", s -> s
+                        .onEntryConsumer(log -> log.add("enter OFF"))
+                        .onExitConsumer(log -> log.add("exit OFF"))
+                        .onEvent(Power.class).changeTo("ON").noAction())
+                .onState("ON", s -> s
+                        .initialSubstate("IDLE")
+                        .onEntryConsumer(log -> log.add("enter ON"))
+                        .onExitConsumer(log -> log.add("exit ON"))
+                        .onEvent(Power.class).changeTo("OFF").noAction())
+                .onState("IDLE", s -> s
+                        .parent("ON")
+                        .onEntryConsumer(log -> log.add("enter IDLE"))
+                        .onExitConsumer(log -> log.add("exit IDLE"))
+                        .onEvent(Work.class).changeTo("BUSY").noAction())
+                .onState("BUSY", s -> s
+                        .parent("ON")
+                        .onEntryConsumer(log -> log.add("enter BUSY"))
+                        .onExitConsumer(log -> log.add("exit BUSY"))
+                        .onEvent(Done.class).changeTo("IDLE").noAction());
+    }
+
+    @Test
+    public void given_an_event_a_substate_does_not_handle_should_take_the_parent_transition() throws Exception {
+        final StateMachine<String, List<String>> stateMachine = builder().build();
+
+        final Tuple<String, List<String>> result = stateMachine.process(stateMachine.start(new ArrayList<>()),
+                new Power(), new Work(), new Power());
+
+        assertEquals("OFF", result._1);
+        assertEquals(Arrays.asList(
+                "exit OFF", "enter ON", "enter IDLE",
+                "exit IDLE", "enter BUSY",
+                "exit BUSY", "exit ON", "enter OFF"), result._2);
+    }
+
+    @Test
+    public void given_a_transition_between_siblings_should_not_leave_the_parent() throws Exception {
+        final StateMachine<String, List<String>> stateMachine = builder().compile();
+
+        final Tuple<String, List<String>> result = stateMachine.process(new Tuple<>("IDLE", new ArrayList<>()),
+                new Work(), new Done());
+
+        assertEquals("IDLE", result._1);
+        assertEquals(Arrays.asList("exit IDLE", "enter BUSY", "exit BUSY", "enter IDLE"), result._2);
+    }
+
+    @Test
+    public void given_a_substate_transition_on_the_same_event_should_override_the_parent() throws Exception {
+        final StateMachine<String, List<String>> stateMachine = builder()
+                .onState("BUSY", s -> s.onEvent(Power.class).noConsumer())
+                .build();
+
+        final Tuple<String, List<String>> result = stateMachine.process(new Tuple<>("BUSY", new ArrayList<>()),
+                new Power());
+
+        assertEquals("BUSY", result._1);
+        assertEquals(Arrays.asList("exit BUSY", "enter BUSY"), result._2);
+    }
+
+    @Test
+    public void given_a_substate_override_should_build_in_strict_mode() throws Exception {
+        final StateMachine.Builder<String, List<String>> builder = builder()
+                .onState("BUSY", s -> s.onEvent(Power.class).noConsumer())
+                .strict();
+
+        builder.build();
+
+        assertTrue(builder.analyse().shadowed().isEmpty());
+        assertTrue(builder.analyse().duplicates().isEmpty());
+        assertEquals(1, builder.analyse().overridden().size());
+        assertEquals("BUSY", builder.analyse().overridden().get(0).fromState());
+    }
+
+    @Test
+    public void given_nested_states_should_write_them_as_nested_blocks() throws Exception {
+        final StateMachine<String, List<String>> stateMachine = builder().build();
+
+        PlantUMLWriter.write(stateMachine, "target/classstateful_hierarchy.puml");
+
+        final List<String> lines = Files.readAllLines(Paths.get("target/classstateful_hierarchy.puml"));
+        final int parent = lines.indexOf("state ON {");
+        assertTrue(parent >= 0);
+        assertEquals("  state IDLE", lines.get(parent + 1));
+        assertEquals("  state BUSY", lines.get(parent + 2));
+        assertEquals("}", lines.get(parent + 3));
+        assertTrue(lines.contains("ON --> OFF : Power"));
+    }
+}
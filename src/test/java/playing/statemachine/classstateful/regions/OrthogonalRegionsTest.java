@@ -0,0 +1,153 @@
+package playing.statemachine.classstateful.regions;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.PlantUMLWriter;
+import playing.statemachine.classstateful.OrthogonalRegions;
+import playing.statemachine.classstateful.StateMachine;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+
+public class OrthogonalRegionsTest {
+    static class Power {
+    }
+
+    static class Work {
+        final int units;
+
+        Work(int units) {
+            this.units = units;
+        }
+    }
+
+    private final StateMachine<String, List<String>> power = new StateMachine.Builder<String, List<String>>()
+            .initialState("OFF")
+            .onState("OFF", s -> s
+                    .onEvent(Power.class).changeTo("ON").consumer((log, event) -> log.add("on")))
+            .onState("ON", s -> s
+                    .onEvent(Power.class).changeTo("OFF").consumer((log, event) -> log.add("off")))
+            .build();
+
+    private final StateMachine<String, List<Integer>> work = new StateMachine.Builder<String, List<Integer>>()
+            .initialState("WORKING")
+            .onState("WORKING", s -> s
+                    .onEvent(Work.class).condition((units, event) -> event.units > 0).consumer((units, event) -> units.add(event.units))
+                    .onEvent(Work.class).changeTo("DONE").noConsumer())
+            .terminalState("DONE")
+            .build();
+
+    private OrthogonalRegions.Builder regions() {
+        return new OrthogonalRegions.Builder("DEVICE").region(power).region(work);
+    }
+
+    @Test
+    public void given_regions_should_deliver_every_event_to_every_region() throws Exception {
+        final OrthogonalRegions regions = regions().build();
+        final List<MachineCursor<?, ?>> cursors = regions.cursors(new ArrayList<String>(), new ArrayList<Integer>());
+
+        assertTrue(regions.fire(cursors, new Power()));
+        regions.process(cursors, new Work(2), new Power(), new Work(3), new Power());
+
+        assertEquals("ON", cursors.get(0).state());
+        assertEquals(Arrays.asList("on", "off", "on"), cursors.get(0).runtimeState());
+        assertEquals("WORKING", cursors.get(1).state());
+        assertEquals(Arrays.asList(2, 3), cursors.get(1).runtimeState());
+        assertFalse(regions.isTerminal(cursors));
+    }
+
+    @Test
+    public void given_a_pool_should_reach_the_same_cursors_as_running_sequentially() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final OrthogonalRegions sequential = regions().build();
+            final OrthogonalRegions parallel = regions().parallel(pool).build();
+            final Object[] events = {new Power(), new Work(1), new Work(4), new Power(), new Power(), new Work(0)};
+
+            final List<MachineCursor<?, ?>> sequentialCursors = sequential.cursors(new ArrayList<String>(), new ArrayList<Integer>());
+            final List<MachineCursor<?, ?>> parallelCursors = parallel.cursors(new ArrayList<String>(), new ArrayList<Integer>());
+            sequential.process(sequentialCursors, events);
+            for (Object event : events) {
+                parallel.fire(parallelCursors, event);
+            }
+
+            for (int lp = 0; lp < 2; lp += 1) {
+                assertEquals(sequentialCursors.get(lp).state(), parallelCursors.get(lp).state());
+                assertEquals(sequentialCursors.get(lp).runtimeState(), parallelCursors.get(lp).runtimeState());
+            }
+            assertEquals("DONE", parallelCursors.get(1).state());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void given_failing_regions_should_throw_the_failure_of_the_first_region_after_all_have_run() throws Exception {
+        final StateMachine<String, List<String>> failing = new StateMachine.Builder<String, List<String>>()
+                .initialState("S")
+                .onState("S", s -> s.onEvent(Power.class).consumer((log, event) -> {
+                    throw new IllegalStateException("first");
+                }))
+                .build();
+        final OrthogonalRegions regions = new OrthogonalRegions.Builder("DEVICE")
+                .region(failing)
+                .region(power)
+                .region(failing)
+                .parallel()
+                .build();
+        final List<MachineCursor<?, ?>> cursors = regions.cursors(new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+
+        try {
+            regions.fire(cursors, new Power());
+            fail("Expected the region failure to be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("first", e.getMessage());
+        }
+        assertEquals("ON", cursors.get(1).state());
+    }
+
+    @Test
+    public void given_regions_should_write_them_separated_in_a_composite_state() throws Exception {
+        final OrthogonalRegions regions = regions().build();
+
+        PlantUMLWriter.write(regions.name(), regions.regions(), "target/classstateful_regions.puml");
+
+        final List<String> lines = Files.readAllLines(Paths.get("target/classstateful_regions.puml"));
+        assertTrue(lines.contains("state DEVICE {"));
+        assertTrue(lines.contains("  [*] --> OFF"));
+        assertTrue(lines.contains("  --"));
+        assertTrue(lines.contains("  [*] --> WORKING"));
+        assertTrue(lines.indexOf("  --") > lines.indexOf("  [*] --> OFF"));
+        assertTrue(lines.indexOf("  --") < lines.indexOf("  [*] --> WORKING"));
+    }
+
+    @Test
+    public void given_sequential_regions_should_not_allocate_per_event() throws Exception {
+        final Object[] events = {new Power(), new Work(1), new Power(), new Work(2)};
+        final StateMachine<String, int[]> switches = new StateMachine.Builder<String, int[]>()
+                .initialState("OFF")
+                .onState("OFF", s -> s
+                        .onEvent(Power.class).changeTo("ON").consumer((count, power) -> count[0] += 1))
+                .onState("ON", s -> s
+                        .onEvent(Work.class).consumer((count, work) -> count[0] += work.units)
+                        .onEvent(Power.class).changeTo("OFF").noConsumer())
+                .build();
+        final OrthogonalRegions regions = new OrthogonalRegions.Builder("SWITCHES").region(switches).region(switches).build();
+        final List<MachineCursor<?, ?>> cursors = regions.cursors(new int[1], new int[1]);
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                regions.fire(cursors, events[lp % events.length]);
+            }
+        });
+        assertEquals("OFF", cursors.get(0).state());
+    }
+}
@@ -0,0 +1,128 @@
+package playing.statemachine.classstateful.runtocompletion;
+
+import org.junit.Test;
+import playing.statemachine.classstateful.RunToCompletionQueue;
+import playing.statemachine.classstateful.StateMachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+
+public class RunToCompletionQueueTest {
+    static class Open {
+    }
+
+    static class Close {
+    }
+
+    static class Request {
+        final int id;
+
+        Request(int id) {
+            this.id = id;
+        }
+    }
+
+    static class Countdown {
+        final int remaining;
+
+        Countdown(int remaining) {
+            this.remaining = remaining;
+        }
+    }
+
+    static class Log {
+        final List<String> entries = new ArrayList<>();
+        RunToCompletionQueue<String, Log> queue;
+    }
+
+    private StateMachine<String, Log> stateMachine() {
+        return new StateMachine.Builder<String, Log>()
+                .initialState("CLOSED")
+                .onState("CLOSED", s -> s
+                        .defer(Request.class)
+                        .onEvent(Open.class).changeTo("OPEN").consumer((log, open) -> log.entries.add("open")))
+                .onState("OPEN", s -> s
+                        .onEvent(Request.class).consumer((log, request) -> {
+                            log.entries.add("request " + request.id);
+                            if (request.id == 1) {
+                                log.queue.post(new Close());
+                            }
+                        })
+                        .onEvent(Close.class).changeTo("CLOSED").consumer((log, close) -> log.entries.add("close")))
+                .build();
+    }
+
+    private RunToCompletionQueue<String, Log> queue(StateMachine<String, Log> stateMachine) {
+        final Log log = new Log();
+        log.queue = new RunToCompletionQueue<>(stateMachine, stateMachine.cursor(log), 16);
+        return log.queue;
+    }
+
+    @Test
+    public void given_deferred_events_should_offer_them_again_once_a_state_that_handles_them_is_entered() throws Exception {
+        final RunToCompletionQueue<String, Log> queue = queue(stateMachine());
+
+        queue.post(new Request(1), new Request(2));
+        assertEquals(2, queue.deferredCount());
+        assertEquals("CLOSED", queue.cursor().state());
+
+        queue.post(new Open(), new Request(3));
+        queue.post(new Request(4));
+
+        assertEquals("CLOSED", queue.cursor().state());
+        assertEquals(Arrays.asList("open", "request 1", "request 2", "request 3", "close"), queue.cursor().runtimeState().entries);
+        assertEquals(1, queue.deferredCount());
+    }
+
+    @Test
+    public void given_an_action_posting_events_should_process_them_after_the_current_event_without_recursion() throws Exception {
+        final int[] depth = {0};
+        final StateMachine<String, Log> stateMachine = new StateMachine.Builder<String, Log>()
+                .initialState("CLOSED")
+                .onState("CLOSED", s -> s
+                        .onEvent(Countdown.class).consumer((log, countdown) -> {
+                            log.entries.add("countdown " + countdown.remaining);
+                            depth[0] = Math.max(depth[0], new Throwable().getStackTrace().length);
+                            if (countdown.remaining > 0) {
+                                log.queue.post(new Countdown(countdown.remaining - 1));
+                            }
+                        }))
+                .build();
+        final RunToCompletionQueue<String, Log> queue = queue(stateMachine);
+
+        queue.post(new Countdown(100_000));
+
+        assertTrue(depth[0] < 200);
+        assertEquals(100_001, queue.cursor().runtimeState().entries.size());
+        assertEquals("countdown 0", queue.cursor().runtimeState().entries.get(100_000));
+    }
+
+    @Test
+    public void given_posted_and_deferred_events_should_not_allocate_per_event() throws Exception {
+        final Close close = new Close();
+        final Object[] events = {new Request(1), new Open(), close};
+        final StateMachine<String, Log> stateMachine = new StateMachine.Builder<String, Log>()
+                .initialState("CLOSED")
+                .onState("CLOSED", s -> s
+                        .defer(Request.class)
+                        .onEvent(Open.class).changeTo("OPEN").noConsumer())
+                .onState("OPEN", s -> s
+                        .onEvent(Request.class).consumer((log, request) -> log.queue.post(close))
+                        .onEvent(Close.class).changeTo("CLOSED").noConsumer())
+                .build();
+        final RunToCompletionQueue<String, Log> queue = queue(stateMachine);
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                queue.post(events[lp % events.length]);
+            }
+        });
+        assertEquals("CLOSED", queue.cursor().state());
+        assertTrue(queue.deferredCount() <= 1);
+    }
+}
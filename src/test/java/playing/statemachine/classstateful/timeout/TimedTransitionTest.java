@@ -0,0 +1,75 @@
+package playing.statemachine.classstateful.timeout;
+
+import org.junit.Test;
+import playing.statemachine.TimedCursor;
+import playing.statemachine.TimingWheel;
+import playing.statemachine.classstateful.StateMachine;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TimedTransitionTest {
+    static class Ping {
+    }
+
+    private final AtomicLong now = new AtomicLong();
+    private final TimingWheel wheel = new TimingWheel(Duration.ofMillis(10), now::get);
+
+    private final StateMachine<String, Integer> stateMachine = new StateMachine.Builder<String, Integer>()
+            .initialState("WAITING")
+            .onState("WAITING", s -> s
+                    .onEvent(Ping.class).action((pings, ping) -> pings + 1)
+                    .after(Duration.ofSeconds(30)).changeTo("TIMEOUT").noAction()
+                    .after(Duration.ofSeconds(5)).condition((pings, timeout) -> pings == 0).changeTo("IDLE").noAction())
+            .onState("IDLE", s -> s
+                    .onEvent(Ping.class).changeTo("WAITING").action((pings, ping) -> pings + 1))
+            .build();
+
+    private void advanceBy(Duration duration) {
+        now.addAndGet(duration.toNanos());
+        wheel.advance();
+    }
+
+    @Test
+    public void given_no_event_within_the_duration_should_take_the_timed_transition() throws Exception {
+        final TimedCursor<String, Integer> cursor = stateMachine.cursor(0, wheel);
+
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(5));
+        assertEquals("WAITING", cursor.state());
+        advanceBy(Duration.ofSeconds(25));
+
+        assertEquals("TIMEOUT", cursor.state());
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void given_an_event_before_the_duration_should_restart_the_timers_of_the_state() throws Exception {
+        final TimedCursor<String, Integer> cursor = stateMachine.cursor(0, wheel);
+
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(20));
+        assertEquals("WAITING", cursor.state());
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(20));
+
+        assertEquals("WAITING", cursor.state());
+        assertEquals(1, wheel.pending());
+    }
+
+    @Test
+    public void given_a_state_that_is_left_should_cancel_its_timers() throws Exception {
+        final TimedCursor<String, Integer> cursor = stateMachine.cursor(0, wheel);
+
+        advanceBy(Duration.ofSeconds(5));
+        assertEquals("IDLE", cursor.state());
+        assertEquals(0, wheel.pending());
+
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(31));
+        assertEquals("TIMEOUT", cursor.state());
+        assertEquals(1, (int) cursor.runtimeState());
+    }
+}
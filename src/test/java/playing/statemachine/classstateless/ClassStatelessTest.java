@@ -2,6 +2,7 @@ package playing.statemachine.classstateless;
 
 import org.junit.Before;
 import org.junit.Test;
+import playing.statemachine.MachineMetrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -66,4 +67,47 @@ public class ClassStatelessTest {
                 "exitConsumer: 4"
         ), trace);
     }
+
+    @Test
+    public void given_int_state_ids_should_show_the_same_trace_as_process() throws Exception {
+        int stateId = stateMachine.initialStateId();
+        for (int event : Arrays.asList(1, 101, 4, 5, 6)) {
+            stateId = stateMachine.fire(stateId, event);
+        }
+
+        assertEquals(5, (int) stateMachine.state(stateId));
+        assertEquals(12, trace.size());
+        assertEquals("transition: 3 to 4: E=5", trace.get(9));
+    }
+
+    @Test
+    public void given_an_unmatched_event_should_keep_the_state_id() throws Exception {
+        final int stateId = stateMachine.stateId(2);
+
+        assertEquals(stateId, stateMachine.fire(stateId, "not an integer"));
+        assertEquals(stateId, stateMachine.fire(stateId, null));
+        assertEquals(0, trace.size());
+    }
+
+    @Test
+    public void given_metrics_should_count_unmatched_events_by_state_and_event_class() throws Exception {
+        final StateMachine<Integer> measured = new StateMachine.Builder<Integer>()
+                .initialState(1)
+                .onState(1, s -> s
+                        .onEvent(Integer.class).changeTo(2).noAction())
+                .metrics("classstateless")
+                .build();
+        try {
+            final int stateId = measured.fire(measured.initialStateId(), "one");
+            measured.process(measured.start(), "two", 3, "four");
+
+            final MachineMetrics metrics = measured.metrics().get();
+            assertEquals(2, metrics.unmatchedCount(1, "any string"));
+            assertEquals(1, metrics.unmatchedCount(2, "four"));
+            assertEquals(1, metrics.fireCount(0));
+            assertEquals(measured.initialStateId(), stateId);
+        } finally {
+            measured.metrics().get().unregister();
+        }
+    }
 }
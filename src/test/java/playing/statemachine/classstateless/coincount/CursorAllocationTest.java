@@ -0,0 +1,33 @@
+package playing.statemachine.classstateless.coincount;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.classstateless.StateMachine;
+
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+import static playing.statemachine.classstateless.coincount.State.*;
+
+public class CursorAllocationTest {
+    private static final CoinToss[] TOSSES = {new MiracleToss(1), new HeadsToss(1), new TailsToss(1), new HeadsToss(1), new MiracleToss(1), new TailsToss(1)};
+
+    @Test
+    public void given_a_cursor_should_not_allocate_per_event() throws Exception {
+        final StateMachine<State> stateMachine = new StateMachine.Builder<State>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MiracleToss.class).changeTo(COUNT).noAction())
+                .onState(COUNT, s -> s
+                        .onEvent(HeadsToss.class).noAction()
+                        .onEvent(TailsToss.class).noAction()
+                        .onEvent(MiracleToss.class).changeTo(INITIAL).noAction())
+                .build();
+        final MachineCursor<State, Void> cursor = stateMachine.cursor();
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                stateMachine.fire(cursor, TOSSES[lp % TOSSES.length]);
+            }
+        });
+    }
+}
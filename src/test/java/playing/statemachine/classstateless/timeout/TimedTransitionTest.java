@@ -0,0 +1,68 @@
+package playing.statemachine.classstateless.timeout;
+
+import org.junit.Test;
+import playing.statemachine.TimedCursor;
+import playing.statemachine.TimingWheel;
+import playing.statemachine.classstateless.StateMachine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TimedTransitionTest {
+    static class Ping {
+    }
+
+    private final AtomicLong now = new AtomicLong();
+    private final TimingWheel wheel = new TimingWheel(Duration.ofMillis(10), now::get);
+    private final List<String> trace = new ArrayList<>();
+
+    private final StateMachine<String> stateMachine = new StateMachine.Builder<String>()
+            .initialState("WAITING")
+            .onState("WAITING", s -> s
+                    .onEvent(Ping.class).noAction()
+                    .after(Duration.ofSeconds(30)).changeTo("TIMEOUT").action(timeout -> trace.add("after " + timeout.after()))
+                    .after(Duration.ofSeconds(5)).condition(timeout -> trace.isEmpty()).changeTo("IDLE").noAction())
+            .onState("IDLE", s -> s
+                    .onEvent(Ping.class).changeTo("WAITING").action(ping -> trace.add("ping")))
+            .build();
+
+    private void advanceBy(Duration duration) {
+        now.addAndGet(duration.toNanos());
+        wheel.advance();
+    }
+
+    @Test
+    public void given_no_event_within_the_duration_should_take_the_timed_transition() throws Exception {
+        final TimedCursor<String, Void> cursor = stateMachine.cursor(wheel);
+
+        advanceBy(Duration.ofSeconds(5));
+        assertEquals("IDLE", cursor.state());
+        assertEquals(0, wheel.pending());
+
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(5));
+        assertEquals("WAITING", cursor.state());
+        advanceBy(Duration.ofSeconds(25));
+
+        assertEquals("TIMEOUT", cursor.state());
+        assertEquals(0, wheel.pending());
+        assertEquals(2, trace.size());
+        assertEquals("after PT30S", trace.get(1));
+    }
+
+    @Test
+    public void given_an_event_before_the_duration_should_restart_the_timers_of_the_state() throws Exception {
+        final TimedCursor<String, Void> cursor = stateMachine.cursor(wheel);
+
+        advanceBy(Duration.ofSeconds(4));
+        stateMachine.fire(cursor, new Ping());
+        advanceBy(Duration.ofSeconds(4));
+
+        assertEquals("WAITING", cursor.state());
+        assertEquals(2, wheel.pending());
+    }
+}
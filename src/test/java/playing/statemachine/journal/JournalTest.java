@@ -0,0 +1,217 @@
+package playing.statemachine.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.nativestateful.StateMachine;
+import playing.util.Tuple;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    enum Light {OFF, ON, BROKEN}
+
+    enum Switch {FLICK, SMASH}
+
+    private static final EventCodec<String> STRINGS = new EventCodec<String>() {
+        @Override
+        public void encode(String event, ByteBuffer buffer) {
+            final byte[] bytes = event.getBytes();
+
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer) {
+            final byte[] bytes = new byte[buffer.getInt()];
+
+            buffer.get(bytes);
+            return new String(bytes);
+        }
+    };
+
+    private static final EventCodec<Switch> SWITCHES = new EventCodec<Switch>() {
+        @Override
+        public void encode(Switch event, ByteBuffer buffer) {
+            buffer.put((byte) event.ordinal());
+        }
+
+        @Override
+        public Switch decode(ByteBuffer buffer) {
+            return Switch.values()[buffer.get()];
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void given_appends_across_several_segments_should_replay_them_in_order_after_reopening() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            for (int lp = 0; lp < 1000; lp += 1) {
+                assertEquals(lp, journal.append(lp % 3, lp % 7, "event-" + lp));
+            }
+        }
+        assertTrue(segments(directory).size() > 1);
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            assertEquals(1000, journal.nextSequence());
+            assertEquals(1000, journal.append(1000 % 3, 1000 % 7, "event-1000"));
+
+            final List<JournalRecord<String>> records = journal.records().collect(Collectors.toList());
+            assertEquals(1001, records.size());
+            for (int lp = 0; lp < records.size(); lp += 1) {
+                final JournalRecord<String> record = records.get(lp);
+
+                assertEquals(lp, record.sequence);
+                assertEquals(lp % 3, record.instanceId);
+                assertEquals(lp % 7, record.stateId);
+                assertEquals("event-" + lp, record.event);
+            }
+
+            final Iterator<JournalRecord<String>> tail = journal.replay(995);
+            assertEquals(995, tail.next().sequence);
+        }
+    }
+
+    @Test
+    public void given_a_torn_record_at_the_tail_should_truncate_the_journal_at_that_record() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            for (int lp = 0; lp < 10; lp += 1) {
+                journal.append(1, 0, "event-" + lp);
+            }
+        }
+
+        final Path segment = segments(directory).get(0);
+        final int recordSize = 8 + 20 + 4 + "event-0".length();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), recordSize * 8 + 30);
+        }
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            assertEquals(8, journal.nextSequence());
+            assertEquals(8, journal.append(1, 0, "replacement"));
+
+            final List<String> events = new ArrayList<>();
+            journal.events(1).forEachRemaining(events::add);
+            assertEquals(9, events.size());
+            assertEquals("event-7", events.get(7));
+            assertEquals("replacement", events.get(8));
+        }
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            assertEquals(9, journal.nextSequence());
+        }
+    }
+
+    @Test
+    public void given_interleaved_instances_across_segments_should_read_each_instance_from_its_index() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            for (int lp = 0; lp < 600; lp += 1) {
+                journal.append(lp % 3, 0, "event-" + lp);
+            }
+
+            assertEquals(200, count(journal.events(1)));
+            assertFalse(journal.events(3).hasNext());
+        }
+
+        try (Journal<String> journal = open(directory, STRINGS)) {
+            final Iterator<String> events = journal.events(2);
+            journal.append(2, 0, "after-reopening");
+
+            assertTrue(segments(directory).size() > 1);
+            assertEquals("event-2", events.next());
+            assertEquals(200, 1 + count(events));
+            assertEquals(201, count(journal.events(2)));
+        }
+    }
+
+    @Test
+    public void given_an_append_should_become_durable_with_the_next_group_commit() throws Exception {
+        try (Journal<String> journal = open(folder.getRoot().toPath(), STRINGS)) {
+            final long first = journal.append(1, 0, "a");
+            final long second = journal.append(2, 0, "b");
+
+            journal.awaitDurable(second);
+            assertTrue(journal.durableSequence() >= first);
+        }
+    }
+
+    @Test
+    public void given_a_journal_of_accepted_events_should_rebuild_each_instance_by_replaying_through_process() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final StateMachine<Light, Switch, Integer> stateMachine = new StateMachine.Builder<Light, Switch, Integer>()
+                .initialState(Light.OFF)
+                .onState(Light.OFF, s -> s
+                        .onEvent(Switch.FLICK).changeTo(Light.ON).action(flicks -> flicks + 1)
+                        .onEvent(Switch.SMASH).changeTo(Light.BROKEN).noAction())
+                .onState(Light.ON, s -> s
+                        .onEvent(Switch.FLICK).changeTo(Light.OFF).action(flicks -> flicks + 1))
+                .build();
+        final List<MachineCursor<Light, Integer>> live = new ArrayList<>();
+
+        try (Journal<Switch> journal = open(directory, SWITCHES)) {
+            for (int instance = 0; instance < 5; instance += 1) {
+                live.add(stateMachine.cursor(0));
+            }
+            for (int lp = 0; lp < 200; lp += 1) {
+                final int instance = lp % 5;
+                final Switch event = lp % 37 == 0 ? Switch.SMASH : Switch.FLICK;
+                final MachineCursor<Light, Integer> cursor = live.get(instance);
+
+                if (stateMachine.fire(cursor, event)) {
+                    journal.append(instance, cursor.state().ordinal(), event);
+                }
+            }
+        }
+
+        try (Journal<Switch> journal = open(directory, SWITCHES)) {
+            for (int instance = 0; instance < 5; instance += 1) {
+                final Tuple<Light, Integer> rebuilt = stateMachine.process(stateMachine.start(0), journal.events(instance));
+
+                assertEquals(live.get(instance).state(), rebuilt._1);
+                assertEquals(live.get(instance).runtimeState(), rebuilt._2);
+            }
+        }
+    }
+
+    private static <E> Journal<E> open(Path directory, EventCodec<E> codec) throws Exception {
+        return Journal.open(directory, codec, SEGMENT_SIZE, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private static int count(Iterator<String> events) {
+        int count = 0;
+        while (events.hasNext()) {
+            events.next();
+            count += 1;
+        }
+        return count;
+    }
+
+    private static List<Path> segments(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package playing.statemachine.journal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.nativestateful.StateMachine;
+import playing.util.Tuple;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SnapshotStoreTest {
+    private static final int INSTANCES = 10;
+    private static final int EVENTS = 1000;
+    private static final int SNAPSHOT_INTERVAL = 300;
+
+    enum Light {OFF, ON, BROKEN}
+
+    enum Switch {FLICK, SMASH}
+
+    static class Flicks {
+        final long count;
+        final String lastSeenBy;
+
+        Flicks(long count, String lastSeenBy) {
+            this.count = count;
+            this.lastSeenBy = lastSeenBy;
+        }
+
+        Flicks flick() {
+            return new Flicks(count + 1, "instance-" + count);
+        }
+    }
+
+    private static final EventCodec<Switch> SWITCHES = new EventCodec<Switch>() {
+        @Override
+        public void encode(Switch event, ByteBuffer buffer) {
+            buffer.put((byte) event.ordinal());
+        }
+
+        @Override
+        public Switch decode(ByteBuffer buffer) {
+            return Switch.values()[buffer.get()];
+        }
+    };
+
+    private static final RuntimeStateCodec<Flicks> FLICKS = new RuntimeStateCodec<Flicks>() {
+        @Override
+        public void encode(Flicks runtimeState, ByteBuffer buffer) {
+            final byte[] lastSeenBy = runtimeState.lastSeenBy.getBytes();
+
+            buffer.putLong(runtimeState.count).putInt(lastSeenBy.length).put(lastSeenBy);
+        }
+
+        @Override
+        public Flicks decode(ByteBuffer buffer) {
+            final long count = buffer.getLong();
+            final byte[] lastSeenBy = new byte[buffer.getInt()];
+
+            buffer.get(lastSeenBy);
+            return new Flicks(count, new String(lastSeenBy));
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StateMachine<Light, Switch, Flicks> stateMachine;
+
+    @Before
+    public void before() {
+        stateMachine = new StateMachine.Builder<Light, Switch, Flicks>()
+                .initialState(Light.OFF)
+                .onState(Light.OFF, s -> s
+                        .onEvent(Switch.FLICK).changeTo(Light.ON).action(Flicks::flick)
+                        .onEvent(Switch.SMASH).changeTo(Light.BROKEN).noAction())
+                .onState(Light.ON, s -> s
+                        .onEvent(Switch.FLICK).changeTo(Light.OFF).action(Flicks::flick))
+                .build();
+    }
+
+    @Test
+    public void given_periodic_snapshots_should_recover_from_the_latest_and_replay_only_the_journal_tail() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final Map<Long, MachineCursor<Light, Flicks>> live = new HashMap<>();
+        final VersionedInstances<Light, Flicks> versions = new VersionedInstances<>();
+
+        try (Journal<Switch> journal = Journal.open(directory, SWITCHES, 4096, 1, TimeUnit.MILLISECONDS);
+             SnapshotStore<Light, Flicks> snapshots = snapshots(directory)) {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                final long instance = lp % INSTANCES;
+                final Switch event = lp % 97 == 0 ? Switch.SMASH : Switch.FLICK;
+                final MachineCursor<Light, Flicks> cursor = live.computeIfAbsent(instance, id -> stateMachine.cursor(new Flicks(0, "")));
+
+                if (stateMachine.fire(cursor, event)) {
+                    final long sequence = journal.append(instance, cursor.state().ordinal(), event);
+
+                    versions.update(instance, sequence, cursor.state(), cursor.runtimeState());
+                    snapshots.maybeSnapshot(sequence, versions).ifPresent(CompletableFuture::join);
+                }
+            }
+        }
+
+        final AtomicInteger replayed = new AtomicInteger();
+        try (Journal<Switch> journal = Journal.open(directory, SWITCHES, 4096, 1, TimeUnit.MILLISECONDS);
+             SnapshotStore<Light, Flicks> snapshots = snapshots(directory)) {
+            final long snapshotSequence = snapshots.latest().get().sequence;
+            final Map<Long, MachineCursor<Light, Flicks>> recovered = snapshots.recover(
+                    journal,
+                    (cursor, event) -> {
+                        replayed.incrementAndGet();
+                        return stateMachine.fire(cursor, event);
+                    },
+                    id -> stateMachine.cursor(new Flicks(0, "")));
+
+            assertEquals(journal.nextSequence() - snapshotSequence - 1, replayed.get());
+            assertTrue(replayed.get() < SNAPSHOT_INTERVAL);
+            assertEquals(live.size(), recovered.size());
+            for (Map.Entry<Long, MachineCursor<Light, Flicks>> instance : live.entrySet()) {
+                final MachineCursor<Light, Flicks> cursor = recovered.get(instance.getKey());
+
+                assertEquals(instance.getValue().state(), cursor.state());
+                assertEquals(instance.getValue().runtimeState().count, cursor.runtimeState().count);
+                assertEquals(instance.getValue().runtimeState().lastSeenBy, cursor.runtimeState().lastSeenBy);
+            }
+        }
+    }
+
+    @Test
+    public void given_a_damaged_latest_snapshot_should_fall_back_to_the_previous_one() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (SnapshotStore<Light, Flicks> snapshots = snapshots(directory)) {
+            snapshots.write(new Snapshot<>(10, single(Light.ON, new Flicks(5, "a"))));
+            final Path latest = snapshots.writeAsync(new Snapshot<>(20, single(Light.OFF, new Flicks(6, "b")))).join();
+
+            try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{-1}), 22);
+            }
+
+            final Snapshot<Light, Flicks> snapshot = snapshots.latest().get();
+            assertEquals(10, snapshot.sequence);
+            assertEquals(Light.ON, snapshot.instances.get(1L)._1);
+            assertEquals(5, snapshot.instances.get(1L)._2.count);
+        }
+    }
+
+    @Test
+    public void given_more_snapshots_than_are_retained_should_delete_the_oldest() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+
+        try (SnapshotStore<Light, Flicks> snapshots = snapshots(directory)) {
+            for (int lp = 0; lp < 5; lp += 1) {
+                snapshots.write(new Snapshot<>(lp, single(Light.ON, new Flicks(lp, ""))));
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            final List<String> names = files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+
+            assertEquals(2, names.size());
+            assertTrue(names.get(1).endsWith("04.snap"));
+        }
+    }
+
+    @Test
+    public void given_updates_after_a_pinned_sequence_should_collect_the_instances_as_of_that_sequence() throws Exception {
+        final VersionedInstances<Light, Flicks> versions = new VersionedInstances<>();
+
+        versions.update(1, 0, Light.ON, new Flicks(1, "a"));
+        versions.update(2, 1, Light.ON, new Flicks(1, "b"));
+        versions.pin(1);
+        versions.update(1, 2, Light.OFF, new Flicks(2, "c"));
+        versions.update(1, 3, Light.ON, new Flicks(3, "d"));
+        versions.update(3, 4, Light.ON, new Flicks(1, "e"));
+
+        final Map<Long, Tuple<Light, Flicks>> instances = versions.at(1);
+        versions.unpin();
+
+        assertEquals(2, instances.size());
+        assertEquals(Light.ON, instances.get(1L)._1);
+        assertEquals("a", instances.get(1L)._2.lastSeenBy);
+        assertEquals("b", instances.get(2L)._2.lastSeenBy);
+        assertEquals(3, versions.size());
+    }
+
+    private SnapshotStore<Light, Flicks> snapshots(Path directory) throws Exception {
+        return new SnapshotStore<>(directory, Light::ordinal, id -> Light.values()[id], FLICKS, SNAPSHOT_INTERVAL);
+    }
+
+    private static Map<Long, Tuple<Light, Flicks>> single(Light state, Flicks flicks) {
+        final Map<Long, Tuple<Light, Flicks>> instances = new HashMap<>();
+
+        instances.put(1L, new Tuple<>(state, flicks));
+        return instances;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NativeStatefulTest {
     private StateMachine<Integer, Integer, Integer> stateMachine;
@@ -77,4 +78,41 @@ public class NativeStatefulTest {
                 "exitConsumer: 4: RS=4"
         ), trace);
     }
+
+    @Test
+    public void given_mutually_exclusive_guards_should_check_the_most_frequent_guard_first() throws Exception {
+        final StateMachine<Integer, Integer, Integer> adaptive = new StateMachine.Builder<Integer, Integer, Integer>()
+                .initialState(1)
+                .onState(1, s -> s
+                        .mutuallyExclusive(1)
+                        .onEvent(1).condition((state, event) -> state < 0).action(state -> state - 1)
+                        .onEvent(1).condition((state, event) -> state % 2 == 0).action(state -> state + 2)
+                        .onEvent(1).condition((state, event) -> state % 2 != 0 && state > 0).action(state -> state + 1))
+                .build();
+        final Integer[] events = new Integer[20_000];
+        Arrays.fill(events, 1);
+
+        final Tuple<Integer, Integer> result = adaptive.process(adaptive.start(0), events);
+
+        assertEquals(40_000, (int) result._2);
+        assertTrue(adaptive.guardEvaluationsSaved() > events.length / 2);
+        assertEquals(0, stateMachine.guardEvaluationsSaved());
+    }
+
+    @Test
+    public void given_a_discriminator_should_select_the_transition_by_the_runtime_state_key() throws Exception {
+        final StateMachine<Integer, Integer, Integer> discriminated = new StateMachine.Builder<Integer, Integer, Integer>()
+                .initialState(1)
+                .onState(1, s -> s
+                        .onEvent(1).discriminateBy(state -> state % 3).when(0).action(state -> state + 1)
+                        .onEvent(1).condition((state, event) -> state > 10).changeTo(2).noAction()
+                        .onEvent(1).when(1).action(state -> state + 2)
+                        .onEvent(1).when(2).action(state -> state + 4))
+                .build();
+
+        final Tuple<Integer, Integer> result = discriminated.process(discriminated.start(0), 1, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+
+        assertEquals(2, (int) result._1);
+        assertEquals(13, (int) result._2);
+    }
 }
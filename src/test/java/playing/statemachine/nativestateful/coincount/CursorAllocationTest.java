@@ -0,0 +1,34 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.nativestateful.StateMachine;
+
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class CursorAllocationTest {
+    private static final Event[] TOSSES = {MIRACLE, HEADS, TAILS, HEADS, MIRACLE, TAILS};
+
+    @Test
+    public void given_a_cursor_should_not_allocate_per_event() throws Exception {
+        final StateMachine<State, Event, RuntimeState> stateMachine = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction())
+                .onState(COUNT, s -> s
+                        .onEvent(HEADS).action(runtimeState -> runtimeState)
+                        .onEvent(TAILS).action(runtimeState -> runtimeState)
+                        .onEvent(MIRACLE).changeTo(INITIAL).noAction())
+                .build();
+        final MachineCursor<State, RuntimeState> cursor = stateMachine.cursor(new RuntimeState());
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                stateMachine.fire(cursor, TOSSES[lp % TOSSES.length]);
+            }
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.Test;
+import playing.statemachine.CallbackLatencies;
+import playing.statemachine.LatencyHistogram;
+import playing.statemachine.nativestateful.StateMachine;
+
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class LatencyTest {
+    private static final long SLOW_NANOS = 2_000_000;
+
+    private StateMachine.Builder<State, Event, RuntimeState> builder() {
+        return new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction()
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(runtimeState -> {
+                            LockSupport.parkNanos(SLOW_NANOS);
+                            return runtimeState.enterCountState();
+                        })
+                        .onEvent(HEADS).action(RuntimeState::incHeads)
+                        .onEvent(TAILS).action(RuntimeState::incTails)
+                        .onEvent(MIRACLE).changeTo(FINAL).noAction());
+    }
+
+    @Test
+    public void given_no_latencies_should_build_a_machine_without_histograms() throws Exception {
+        assertFalse(builder().build().latencies().isPresent());
+    }
+
+    @Test
+    public void given_latencies_should_time_guards_actions_entries_and_exits() throws Exception {
+        final StateMachine<State, Event, RuntimeState> stateMachine = builder().latencies().build();
+
+        stateMachine.process(stateMachine.start(new RuntimeState()), MIRACLE, HEADS, HEADS, TAILS, MIRACLE);
+
+        final CallbackLatencies latencies = stateMachine.latencies().get();
+        assertEquals(1, latencies.guard(0).count);
+        assertEquals(2, latencies.action(1).count);
+        assertEquals(1, latencies.action(2).count);
+        assertEquals(1, latencies.exit(INITIAL).count);
+        assertEquals(4, latencies.exit(COUNT).count);
+        assertEquals(4, latencies.entry(COUNT).count);
+        assertEquals(1, latencies.entry(FINAL).count);
+        assertTrue(latencies.entry(COUNT).p50() >= SLOW_NANOS);
+        assertTrue(latencies.action(1).p99() < SLOW_NANOS);
+    }
+
+    @Test
+    public void given_an_interval_reset_should_only_report_the_following_interval() throws Exception {
+        final StateMachine<State, Event, RuntimeState> stateMachine = builder().latencies().compile();
+
+        stateMachine.process(stateMachine.start(new RuntimeState()), MIRACLE, HEADS);
+        final Map<String, LatencyHistogram.Snapshot> first = stateMachine.latencies().get().snapshotAndReset();
+        stateMachine.process(stateMachine.start(new RuntimeState()), MIRACLE);
+        final Map<String, LatencyHistogram.Snapshot> second = stateMachine.latencies().get().snapshot();
+
+        assertEquals(1, first.get("action #1 COUNT --HEADS--> COUNT").count);
+        assertEquals(0, second.get("action #1 COUNT --HEADS--> COUNT").count);
+        assertEquals(1, second.get("guard #0 INITIAL --MIRACLE--> COUNT").count);
+        assertEquals(1, second.get("entry COUNT").count);
+    }
+}
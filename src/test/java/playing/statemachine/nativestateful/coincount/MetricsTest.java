@@ -0,0 +1,153 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.MachineMetrics;
+import playing.statemachine.nativestateful.StateMachine;
+
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class MetricsTest {
+    private StateMachine.Builder<State, Event, RuntimeState> builder;
+    private StateMachine<State, Event, RuntimeState> stateMachine;
+
+    @Before
+    public void before() {
+        builder = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction()
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HEADS).action(RuntimeState::incHeads)
+                        .onEvent(TAILS).action(RuntimeState::incTails)
+                        .onEvent(MIRACLE).changeTo(FINAL).noAction());
+        stateMachine = builder.metrics("coincount").build();
+    }
+
+    @After
+    public void after() {
+        stateMachine.metrics().ifPresent(MachineMetrics::unregister);
+    }
+
+    @Test
+    public void given_no_metrics_name_should_build_a_machine_without_metrics() throws Exception {
+        final StateMachine<State, Event, RuntimeState> plain = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s.onEvent(MIRACLE).changeTo(COUNT).noAction())
+                .build();
+
+        assertFalse(plain.metrics().isPresent());
+    }
+
+    @Test
+    public void given_processed_events_should_count_fires_entries_exits_and_unmatched_events() throws Exception {
+        stateMachine.process(stateMachine.start(new RuntimeState()), HEADS, MIRACLE, HEADS, HEADS, TAILS, MIRACLE, TAILS);
+
+        final MachineMetrics metrics = stateMachine.metrics().get();
+        assertEquals(1, metrics.fireCount(0));
+        assertEquals(2, metrics.fireCount(1));
+        assertEquals(1, metrics.fireCount(2));
+        assertEquals(1, metrics.fireCount(3));
+        assertEquals(1, metrics.exitCount(INITIAL));
+        assertEquals(4, metrics.entryCount(COUNT));
+        assertEquals(4, metrics.exitCount(COUNT));
+        assertEquals(1, metrics.entryCount(FINAL));
+        assertEquals(1, metrics.unmatchedCount(INITIAL, HEADS));
+        assertEquals(1, metrics.unmatchedCount(FINAL, TAILS));
+        assertEquals(2, metrics.getUnmatchedEventCount());
+    }
+
+    @Test
+    public void given_a_metrics_name_should_export_the_counts_through_JMX() throws Exception {
+        stateMachine.metrics().get().register();
+        stateMachine.process(stateMachine.start(new RuntimeState()), MIRACLE, HEADS, TAILS, TAILS);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final MachineMetrics metrics = stateMachine.metrics().get();
+        final TabularData fires = (TabularData) server.getAttribute(metrics.objectName(), "TransitionFireCounts");
+        final CompositeData tails = fires.get(new Object[]{"#2 COUNT --TAILS--> COUNT"});
+
+        assertEquals(2L, tails.get("value"));
+        assertEquals(0L, server.getAttribute(metrics.objectName(), "UnmatchedEventCount"));
+
+        server.invoke(metrics.objectName(), "reset", new Object[0], new String[0]);
+        assertEquals(0, metrics.fireCount(2));
+    }
+
+    @Test
+    public void given_the_same_definition_built_twice_should_not_register_either_machine() throws Exception {
+        final StateMachine<State, Event, RuntimeState> again = builder.build();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        assertFalse(server.isRegistered(stateMachine.metrics().get().objectName()));
+        assertFalse(again.metrics().get().isRegistered());
+        assertNotSame(stateMachine.metrics().get(), again.metrics().get());
+    }
+
+    @Test
+    public void given_a_metrics_name_already_registered_should_fail_to_register() throws Exception {
+        final StateMachine<State, Event, RuntimeState> again = builder.build();
+
+        stateMachine.metrics().get().register();
+        stateMachine.metrics().get().register();
+        try {
+            again.metrics().get().register();
+            fail("Expected a duplicate metrics name to be rejected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Metrics coincount are already registered"));
+        }
+
+        stateMachine.process(stateMachine.start(new RuntimeState()), HEADS);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(stateMachine.metrics().get().objectName(), "UnmatchedEventCount"));
+
+        stateMachine.metrics().get().unregister();
+        again.metrics().get().register();
+        assertTrue(again.metrics().get().isRegistered());
+        again.metrics().get().unregister();
+    }
+
+    @Test
+    public void given_undeclared_events_should_count_them_under_a_single_key() throws Exception {
+        final StateMachine.Builder<Integer, Integer, Object> numbers = new StateMachine.Builder<Integer, Integer, Object>()
+                .initialState(0)
+                .onState(0, s -> s.onEvent(0).changeTo(1).noAction())
+                .metrics("numbers");
+        final StateMachine<Integer, Integer, Object> machine = numbers.build();
+        final Integer[] events = new Integer[1000];
+        for (int lp = 0; lp < events.length; lp += 1) {
+            events[lp] = lp + 1;
+        }
+
+        machine.process(machine.start(new Object()), events);
+
+        final MachineMetrics metrics = machine.metrics().get();
+        assertEquals(1, metrics.getUnmatchedEventCounts().size());
+        assertEquals(1000, metrics.getUnmatchedEventCount());
+        assertEquals(1000, metrics.unmatchedCount(0, 7));
+        assertEquals(0, metrics.unmatchedCount(0, 0));
+    }
+
+    @Test
+    public void given_a_compiled_machine_should_count_the_same_way() throws Exception {
+        final StateMachine<State, Event, RuntimeState> compiled = builder.metrics("coincount-compiled").compile();
+        try {
+            compiled.process(compiled.start(new RuntimeState()), MIRACLE, HEADS, HEADS);
+
+            assertEquals(2, compiled.metrics().get().fireCount(1));
+            assertEquals(3, compiled.metrics().get().entryCount(COUNT));
+        } finally {
+            compiled.metrics().get().unregister();
+        }
+    }
+}
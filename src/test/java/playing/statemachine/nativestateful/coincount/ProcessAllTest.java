@@ -0,0 +1,71 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.nativestateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class ProcessAllTest {
+    private static final int INSTANCES = 10_000;
+
+    private StateMachine<State, Event, RuntimeState> stateMachine;
+
+    @Before
+    public void before() {
+        stateMachine = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction()
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HEADS).action(RuntimeState::incHeads)
+                        .onEvent(TAILS).action(RuntimeState::incTails)
+                        .onEvent(MIRACLE).changeTo(FINAL).noAction())
+                .build();
+    }
+
+    private static Event[] eventsFor(int index) {
+        final Event[] events = new Event[1 + index % 7 + (index % 2 == 0 ? 1 : 0)];
+
+        Arrays.fill(events, HEADS);
+        events[0] = MIRACLE;
+        if (index % 2 == 0) {
+            events[events.length - 1] = MIRACLE;
+        }
+        return events;
+    }
+
+    @Test
+    public void given_many_instances_should_process_each_with_its_own_events_and_preserve_order() throws Exception {
+        final List<Tuple<State, RuntimeState>> instances = new ArrayList<>();
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            instances.add(stateMachine.start(new RuntimeState()));
+        }
+
+        final List<Tuple<State, RuntimeState>> processed = stateMachine.processAll(new ForkJoinPool(4), instances, ProcessAllTest::eventsFor);
+
+        assertEquals(INSTANCES, processed.size());
+        for (int lp = 0; lp < INSTANCES; lp += 1) {
+            final Tuple<State, RuntimeState> instance = processed.get(lp);
+
+            assertEquals(lp % 2 == 0 ? FINAL : COUNT, instance._1);
+            assertEquals(lp % 7, instance._2.heads);
+            assertEquals(1, instance._2.exitInitialStateCount);
+        }
+    }
+
+    @Test
+    public void given_no_instances_should_return_an_empty_list() throws Exception {
+        assertEquals(0, stateMachine.processAll(new ArrayList<>(), ProcessAllTest::eventsFor).size());
+    }
+}
@@ -0,0 +1,54 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.nativestateful.StateMachine;
+import playing.statemachine.pipeline.BatchEventProcessor;
+import playing.statemachine.pipeline.MachineSinks;
+import playing.statemachine.pipeline.RingBuffer;
+import playing.statemachine.pipeline.WaitStrategy;
+
+import static org.junit.Assert.assertEquals;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class RingBufferPipelineTest {
+    private static final int TOSSES = 50_000;
+
+    @Test
+    public void given_events_published_from_another_thread_should_drain_them_into_the_machine_until_it_terminates() throws Exception {
+        final StateMachine<State, Event, RuntimeState> stateMachine = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .terminalState(FINAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction())
+                .onState(COUNT, s -> s
+                        .onEvent(HEADS).action(RuntimeState::incHeads)
+                        .onEvent(TAILS).action(RuntimeState::incTails)
+                        .onEvent(MIRACLE).changeTo(FINAL).noAction())
+                .build();
+        final MachineCursor<State, RuntimeState> cursor = stateMachine.cursor(new RuntimeState());
+        final RingBuffer<Event> ringBuffer = new RingBuffer<>(256, WaitStrategy.yielding());
+        final BatchEventProcessor<Event> processor = new BatchEventProcessor<>(ringBuffer, MachineSinks.into(stateMachine, cursor), WaitStrategy.parking(50_000));
+
+        final Thread producer = new Thread(() -> {
+            ringBuffer.publish(MIRACLE);
+            for (int lp = 0; lp < TOSSES; lp += 1) {
+                ringBuffer.publish(lp % 2 == 0 ? HEADS : TAILS);
+            }
+            ringBuffer.publish(MIRACLE);
+            ringBuffer.publish(HEADS);
+        });
+        final Thread consumer = new Thread(processor);
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        processor.halt();
+        consumer.join();
+
+        assertEquals(FINAL, cursor.state());
+        assertEquals(TOSSES / 2, cursor.runtimeState().heads);
+        assertEquals(TOSSES / 2, cursor.runtimeState().tails);
+    }
+}
@@ -0,0 +1,99 @@
+package playing.statemachine.nativestateful.coincount;
+
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.nativestateful.StateMachine;
+import playing.util.Tuple;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static playing.statemachine.nativestateful.coincount.Event.*;
+import static playing.statemachine.nativestateful.coincount.State.*;
+
+public class StreamingProcessTest {
+    private StateMachine<State, Event, RuntimeState> stateMachine;
+
+    @Before
+    public void before() {
+        stateMachine = new StateMachine.Builder<State, Event, RuntimeState>()
+                .initialState(INITIAL)
+                .terminalState(FINAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction()
+                        .onExitAction(RuntimeState::exitInitialState))
+                .onState(COUNT, s -> s
+                        .onEntryAction(RuntimeState::enterCountState)
+                        .onEvent(HEADS).action(RuntimeState::incHeads)
+                        .onEvent(TAILS).action(RuntimeState::incTails)
+                        .onEvent(MIRACLE).changeTo(FINAL).noAction())
+                .build();
+    }
+
+    @Test
+    public void given_an_iterator_should_process_events_in_order() throws Exception {
+        final Iterator<Event> events = Arrays.asList(MIRACLE, HEADS, HEADS, TAILS).iterator();
+        final Tuple<State, RuntimeState> process = stateMachine.process(stateMachine.start(new RuntimeState()), events);
+
+        assertEquals(COUNT, process._1);
+        assertEquals(2, process._2.heads);
+        assertEquals(1, process._2.tails);
+    }
+
+    @Test
+    public void given_an_unbounded_stream_should_stop_consuming_once_the_terminal_state_is_reached() throws Exception {
+        final AtomicInteger consumed = new AtomicInteger();
+        final Event[] cycle = {MIRACLE, HEADS, TAILS, HEADS, MIRACLE, HEADS};
+        final Stream<Event> events = Stream.generate(() -> cycle[consumed.getAndIncrement() % cycle.length]);
+
+        final Tuple<State, RuntimeState> process = stateMachine.process(stateMachine.start(new RuntimeState()), events);
+
+        assertEquals(FINAL, process._1);
+        assertEquals(2, process._2.heads);
+        assertEquals(1, process._2.tails);
+        assertEquals(5, consumed.get());
+    }
+
+    @Test
+    public void given_an_unbounded_iterator_should_stop_consuming_once_the_terminal_state_is_reached() throws Exception {
+        final AtomicInteger consumed = new AtomicInteger();
+        final Iterator<Event> events = new Iterator<Event>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Event next() {
+                return consumed.incrementAndGet() % 3 == 0 ? MIRACLE : HEADS;
+            }
+        };
+
+        final Tuple<State, RuntimeState> process = stateMachine.process(stateMachine.start(new RuntimeState()), events);
+
+        assertEquals(FINAL, process._1);
+        assertEquals(2, process._2.heads);
+        assertEquals(6, consumed.get());
+    }
+
+    @Test
+    public void given_a_collector_should_ignore_events_after_the_terminal_state() throws Exception {
+        final Tuple<State, RuntimeState> process = Stream.of(MIRACLE, HEADS, MIRACLE, HEADS, TAILS)
+                .collect(stateMachine.collector(stateMachine.start(new RuntimeState())));
+
+        assertEquals(FINAL, process._1);
+        assertEquals(1, process._2.heads);
+        assertEquals(0, process._2.tails);
+        assertEquals(2, process._2.enterCountStateCount);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void given_a_parallel_stream_should_reject_the_collector() throws Exception {
+        Collections.nCopies(1000, HEADS).parallelStream()
+                .collect(stateMachine.collector(stateMachine.start(new RuntimeState())));
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NativeStatelessTest {
     private StateMachine<Integer, String> stateMachine;
@@ -72,4 +73,66 @@ public class NativeStatelessTest {
                 "exitConsumer: 4"
         ), trace);
     }
+
+    @Test
+    public void given_int_ids_should_show_the_same_trace_as_process() throws Exception {
+        int stateId = stateMachine.initialStateId();
+        for (String event : Arrays.asList("1", "100", "200", "300", "400")) {
+            stateId = stateMachine.fire(stateId, stateMachine.eventId(event));
+        }
+
+        assertEquals(5, (int) stateMachine.state(stateId));
+        assertEquals(12, trace.size());
+        assertEquals("transition: 3 to 4: E=300", trace.get(9));
+    }
+
+    @Test
+    public void given_a_column_of_state_ids_should_advance_every_instance_in_place() throws Exception {
+        final byte[] states = new byte[1000];
+        Arrays.fill(states, (byte) stateMachine.initialStateId());
+
+        final int event100 = stateMachine.eventId("100");
+        final int event200 = stateMachine.eventId("200");
+        for (int lp = 0; lp < states.length; lp += 1) {
+            states[lp] = (byte) stateMachine.fire(states[lp], event100);
+            if (lp % 2 == 0) {
+                states[lp] = (byte) stateMachine.fire(states[lp], event200);
+            }
+            states[lp] = (byte) stateMachine.fire(states[lp], stateMachine.eventId("400"));
+        }
+
+        assertEquals(3, (int) stateMachine.state(states[0]));
+        assertEquals(2, (int) stateMachine.state(states[1]));
+        assertEquals(5, stateMachine.stateCount());
+        assertEquals(-1, stateMachine.stateId(42));
+    }
+
+    @Test
+    public void given_an_event_id_no_state_reacts_to_should_leave_the_state_unchanged() throws Exception {
+        final int stateId = stateMachine.initialStateId();
+
+        assertEquals(-1, stateMachine.eventId("unknown"));
+        assertEquals(stateId, stateMachine.fire(stateId, stateMachine.eventId("unknown")));
+        assertEquals(stateId, stateMachine.fire(stateId, stateMachine.eventId("300")));
+        assertTrue(trace.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void given_a_state_id_outside_of_those_assigned_should_fail() throws Exception {
+        stateMachine.fire(stateMachine.stateCount(), stateMachine.eventId("100"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void given_strict_mode_and_a_duplicate_state_event_pair_should_fail_to_build() throws Exception {
+        final StateMachine.Builder<Integer, String> builder = new StateMachine.Builder<Integer, String>()
+                .initialState(1)
+                .onState(1, s -> s
+                        .onEvent("100").changeTo(2).noAction()
+                        .onEvent("100").changeTo(3).noAction());
+
+        assertEquals(1, builder.analyse().duplicates().size());
+        assertEquals(3, (int) builder.analyse().shadowed().get(0).toState());
+
+        builder.strict().build();
+    }
 }
@@ -0,0 +1,34 @@
+package playing.statemachine.nativestateless.coincount;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.nativestateless.StateMachine;
+
+import static playing.statemachine.Allocations.EVENTS;
+import static playing.statemachine.Allocations.assertNoAllocationPerEvent;
+import static playing.statemachine.nativestateless.coincount.Event.*;
+import static playing.statemachine.nativestateless.coincount.State.*;
+
+public class CursorAllocationTest {
+    private static final Event[] TOSSES = {MIRACLE, HEADS, TAILS, HEADS, MIRACLE, TAILS};
+
+    @Test
+    public void given_a_cursor_should_not_allocate_per_event() throws Exception {
+        final StateMachine<State, Event> stateMachine = new StateMachine.Builder<State, Event>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).noAction())
+                .onState(COUNT, s -> s
+                        .onEvent(HEADS).noAction()
+                        .onEvent(TAILS).noAction()
+                        .onEvent(MIRACLE).changeTo(INITIAL).noAction())
+                .build();
+        final MachineCursor<State, Void> cursor = stateMachine.cursor();
+
+        assertNoAllocationPerEvent(() -> {
+            for (int lp = 0; lp < EVENTS; lp += 1) {
+                stateMachine.fire(cursor, TOSSES[lp % TOSSES.length]);
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package playing.statemachine.nativestateless.coincount;
+
+import org.junit.Before;
+import org.junit.Test;
+import playing.statemachine.nativestateless.OffHeapStateStore;
+import playing.statemachine.nativestateless.StateMachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static playing.statemachine.nativestateless.coincount.Event.*;
+import static playing.statemachine.nativestateless.coincount.State.*;
+
+public class OffHeapStateStoreTest {
+    private static final int CHUNK = 1024;
+
+    private final AtomicLong miracles = new AtomicLong();
+    private OffHeapStateStore<State, Event> store;
+
+    @Before
+    public void before() {
+        final StateMachine<State, Event> stateMachine = new StateMachine.Builder<State, Event>()
+                .initialState(INITIAL)
+                .onState(INITIAL, s -> s
+                        .onEvent(MIRACLE).changeTo(COUNT).consumer(miracles::incrementAndGet))
+                .onState(COUNT, s -> s
+                        .onEvent(HEADS).noAction()
+                        .onEvent(TAILS).noConsumer()
+                        .onEvent(MIRACLE).changeTo(FINAL).action(miracles::incrementAndGet))
+                .build();
+
+        store = new OffHeapStateStore<>(stateMachine, 1L << 24, CHUNK);
+    }
+
+    @Test
+    public void given_a_registered_instance_should_fire_events_against_its_off_heap_state() throws Exception {
+        final long id = (1L << 24) - 1;
+
+        assertTrue(store.register(id));
+        assertFalse(store.register(id));
+        assertEquals(INITIAL, store.state(id));
+
+        assertFalse(store.fire(id, HEADS));
+        assertTrue(store.fire(id, MIRACLE));
+        assertTrue(store.fire(id, TAILS));
+        assertEquals(COUNT, store.state(id));
+        assertTrue(store.fire(id, MIRACLE));
+        assertEquals(FINAL, store.state(id));
+        assertEquals(2, miracles.get());
+
+        assertTrue(store.remove(id));
+        assertNull(store.state(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void given_an_unknown_instance_should_reject_the_event() throws Exception {
+        store.fire(7, MIRACLE);
+    }
+
+    @Test
+    public void given_sparse_instances_should_report_capacity_and_fragmentation() throws Exception {
+        for (int lp = 0; lp < CHUNK; lp += 1) {
+            store.register(lp);
+        }
+        store.register(10L * CHUNK);
+
+        final OffHeapStateStore.Stats stats = store.stats();
+        assertEquals(2 * CHUNK, stats.capacity);
+        assertEquals(CHUNK + 1, stats.used);
+        assertEquals(2 * CHUNK * 4, stats.offHeapBytes);
+        assertEquals(1.0 - (CHUNK + 1.0) / (2 * CHUNK), stats.fragmentation, 1e-9);
+    }
+
+    @Test
+    public void given_a_range_of_instances_should_fire_every_registered_one() throws Exception {
+        for (int lp = 0; lp < 5 * CHUNK; lp += 2) {
+            store.register(lp);
+        }
+
+        assertEquals(5 * CHUNK / 2, store.fireRange(0, 5 * CHUNK, MIRACLE));
+        assertEquals(CHUNK / 2, store.fireRange(CHUNK, 2 * CHUNK, MIRACLE));
+        assertEquals(FINAL, store.state(CHUNK));
+        assertEquals(COUNT, store.state(0));
+        assertEquals(-1, store.stateId(1));
+    }
+
+    @Test
+    public void given_concurrent_threads_should_apply_every_event_exactly_once() throws Exception {
+        final int instances = 8 * CHUNK;
+        for (int lp = 0; lp < instances; lp += 1) {
+            store.register(lp);
+        }
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread += 1) {
+            threads.add(new Thread(() -> {
+                for (int lp = 0; lp < instances; lp += 1) {
+                    store.fire(lp, MIRACLE);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2L * instances, miracles.get());
+        for (int lp = 0; lp < instances; lp += 1) {
+            assertEquals(FINAL, store.state(lp));
+        }
+    }
+
+    @Test
+    public void given_concurrent_events_for_one_instance_should_run_their_callbacks_one_at_a_time() throws Exception {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicLong heads = new AtomicLong();
+        final OffHeapStateStore<State, Event> serialized = new OffHeapStateStore<>(new StateMachine.Builder<State, Event>()
+                .initialState(COUNT)
+                .onState(COUNT, s -> s
+                        .onEvent(HEADS).consumer(() -> {
+                            if (inside.incrementAndGet() != 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            Thread.yield();
+                            heads.incrementAndGet();
+                            inside.decrementAndGet();
+                        }))
+                .build(), 1, 1);
+        serialized.register(0);
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread += 1) {
+            threads.add(new Thread(() -> {
+                for (int lp = 0; lp < 10_000; lp += 1) {
+                    serialized.fire(0, HEADS);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(40_000, heads.get());
+        assertEquals(COUNT, serialized.state(0));
+    }
+}
@@ -0,0 +1,136 @@
+package playing.statemachine.pipeline;
+
+import org.junit.Test;
+import playing.statemachine.MachineCursor;
+import playing.statemachine.classstateful.StateMachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 100_000;
+
+    private static class Produced {
+        final int producer;
+        final int index;
+
+        Produced(int producer, int index) {
+            this.producer = producer;
+            this.index = index;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void given_a_size_that_is_not_a_power_of_two_should_be_rejected() throws Exception {
+        new RingBuffer<String>(1000, WaitStrategy.busySpin());
+    }
+
+    @Test
+    public void given_a_full_ring_should_refuse_tryPublish_until_the_consumer_drains() throws Exception {
+        final RingBuffer<String> ringBuffer = new RingBuffer<>(4, WaitStrategy.busySpin());
+        final List<String> drained = new ArrayList<>();
+
+        for (int lp = 0; lp < 4; lp += 1) {
+            assertTrue(ringBuffer.tryPublish("e" + lp));
+        }
+        assertFalse(ringBuffer.tryPublish("e4"));
+        assertEquals(0, ringBuffer.remaining());
+
+        assertEquals(4, ringBuffer.drain((event, sequence, endOfBatch) -> drained.add(event)));
+        assertTrue(ringBuffer.tryPublish("e4"));
+        assertEquals(1, ringBuffer.drain((event, sequence, endOfBatch) -> drained.add(event)));
+        assertEquals(0, ringBuffer.drain((event, sequence, endOfBatch) -> drained.add(event)));
+
+        assertEquals("[e0, e1, e2, e3, e4]", drained.toString());
+    }
+
+    @Test
+    public void given_a_failing_handler_should_skip_the_failed_event_and_resume_after_it() throws Exception {
+        final RingBuffer<String> ringBuffer = new RingBuffer<>(8, WaitStrategy.busySpin());
+        final List<String> drained = new ArrayList<>();
+        final EventHandler<String> handler = (event, sequence, endOfBatch) -> {
+            if (event.equals("bad")) {
+                throw new IllegalStateException(event);
+            }
+            drained.add(event);
+        };
+
+        ringBuffer.publish("a");
+        ringBuffer.publish("bad");
+        ringBuffer.publish("b");
+        try {
+            ringBuffer.drain(handler);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(1, ringBuffer.drain(handler));
+        }
+
+        assertEquals("[a, b]", drained.toString());
+    }
+
+    @Test
+    public void given_concurrent_producers_with_a_busy_spin_consumer_should_deliver_every_event_in_producer_order() throws Exception {
+        assertConcurrentDelivery(WaitStrategy.busySpin());
+    }
+
+    @Test
+    public void given_concurrent_producers_with_a_yielding_consumer_should_deliver_every_event_in_producer_order() throws Exception {
+        assertConcurrentDelivery(WaitStrategy.yielding());
+    }
+
+    @Test
+    public void given_concurrent_producers_with_a_parking_consumer_should_deliver_every_event_in_producer_order() throws Exception {
+        assertConcurrentDelivery(WaitStrategy.parking(10_000));
+    }
+
+    private void assertConcurrentDelivery(WaitStrategy consumerWaitStrategy) throws Exception {
+        final RingBuffer<Object> ringBuffer = new RingBuffer<>(1024, WaitStrategy.yielding());
+        final int[] lastIndex = new int[PRODUCERS];
+        final boolean[] ordered = {true};
+        final StateMachine<String, Integer> stateMachine = new StateMachine.Builder<String, Integer>()
+                .initialState("counting")
+                .onState("counting", s -> s
+                        .onEvent(Produced.class).action((count, produced) -> {
+                            ordered[0] &= produced.index == lastIndex[produced.producer] + 1;
+                            lastIndex[produced.producer] = produced.index;
+                            return count + 1;
+                        }))
+                .build();
+        final MachineCursor<String, Integer> cursor = stateMachine.cursor(0);
+        final BatchEventProcessor<Object> processor = new BatchEventProcessor<>(ringBuffer, MachineSinks.into(stateMachine, cursor), consumerWaitStrategy);
+        final Thread consumer = new Thread(processor);
+
+        final Produced[][] events = new Produced[PRODUCERS][EVENTS_PER_PRODUCER];
+        for (int producer = 0; producer < PRODUCERS; producer += 1) {
+            lastIndex[producer] = -1;
+            for (int lp = 0; lp < EVENTS_PER_PRODUCER; lp += 1) {
+                events[producer][lp] = new Produced(producer, lp);
+            }
+        }
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int producer = 0; producer < PRODUCERS; producer += 1) {
+            final Produced[] producerEvents = events[producer];
+
+            producers.add(new Thread(() -> {
+                for (Produced event : producerEvents) {
+                    ringBuffer.publish(event);
+                }
+            }));
+        }
+
+        consumer.start();
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        processor.halt();
+        consumer.join();
+
+        assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, (int) cursor.runtimeState());
+        assertTrue(ordered[0]);
+    }
+}
@@ -0,0 +1,32 @@
+package playing.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class DenseIdsTest {
+    enum Colour {RED, GREEN, BLUE}
+
+    @Test
+    public void given_repeated_values_should_assign_ids_in_order_of_first_appearance() throws Exception {
+        final DenseIds<String> ids = DenseIds.of(Arrays.asList("b", "a", "b", "c", "a"));
+
+        assertEquals(3, ids.size());
+        assertEquals(0, ids.id("b"));
+        assertEquals(1, ids.id("a"));
+        assertEquals(2, ids.id("c"));
+        assertEquals("c", ids.value(2));
+        assertEquals(-1, ids.id("d"));
+    }
+
+    @Test
+    public void given_enum_values_should_assign_ids_independently_of_ordinals() throws Exception {
+        final DenseIds<Colour> ids = DenseIds.of(Arrays.asList(Colour.BLUE, Colour.RED));
+
+        assertEquals(0, ids.id(Colour.BLUE));
+        assertEquals(1, ids.id(Colour.RED));
+        assertEquals(-1, ids.id(Colour.GREEN));
+    }
+}
@@ -0,0 +1,69 @@
+package playing.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LookupTableTest {
+    private enum Colour {RED, GREEN, BLUE}
+
+    private enum Shape {CIRCLE, SQUARE}
+
+    @Test
+    public void given_enum_keys_should_return_the_mapped_values() throws Exception {
+        final Map<Colour, String> entries = new HashMap<>();
+        entries.put(Colour.RED, "red");
+        entries.put(Colour.BLUE, "blue");
+
+        final LookupTable<Colour, String> table = LookupTable.of(entries);
+
+        assertEquals("red", table.get(Colour.RED));
+        assertNull(table.get(Colour.GREEN));
+        assertEquals("blue", table.get(Colour.BLUE));
+        assertNull(table.get(null));
+    }
+
+    @Test
+    public void given_mixed_enum_keys_should_not_confuse_ordinals() throws Exception {
+        final Map<Object, String> entries = new HashMap<>();
+        entries.put(Colour.RED, "red");
+        entries.put(Shape.SQUARE, "square");
+
+        final LookupTable<Object, String> table = LookupTable.of(entries);
+
+        assertEquals("red", table.get(Colour.RED));
+        assertEquals("square", table.get(Shape.SQUARE));
+        assertNull(table.get(Shape.CIRCLE));
+        assertNull(table.get(Colour.GREEN));
+    }
+
+    @Test
+    public void given_a_constant_of_a_larger_enum_should_return_null() throws Exception {
+        final Map<Object, String> entries = new HashMap<>();
+        entries.put(Shape.CIRCLE, "circle");
+        entries.put(Shape.SQUARE, "square");
+
+        final LookupTable<Object, String> table = LookupTable.of(entries);
+
+        assertEquals("square", table.get(Shape.SQUARE));
+        assertNull(table.get(Colour.GREEN));
+        assertNull(table.get(Colour.BLUE));
+    }
+
+    @Test
+    public void given_native_keys_should_return_the_mapped_values() throws Exception {
+        final Map<Integer, String> entries = new HashMap<>();
+        entries.put(1, "one");
+        entries.put(1000, "thousand");
+
+        final LookupTable<Integer, String> table = LookupTable.of(entries);
+
+        assertEquals("one", table.get(1));
+        assertEquals("thousand", table.get(1000));
+        assertNull(table.get(2));
+    }
+}